@@ -37,4 +37,15 @@ public class Examples {
         ));
   }
 
+  public void configuration2(Vertx vertx) {
+    ServiceDiscovery.create(vertx, new ServiceDiscoveryOptions()
+        .setBackendConfiguration(
+            new JsonObject()
+                .put("host", "127.0.0.1")
+                .put("key", "records")
+                .put("lease", 30000)
+                .put("sweep-interval", 5000)
+        ));
+  }
+
 }
@@ -20,12 +20,18 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.Status;
 import io.vertx.servicediscovery.spi.ServiceDiscoveryBackend;
-import io.vertx.redis.RedisClient;
 import io.vertx.redis.RedisOptions;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -33,18 +39,101 @@ import java.util.stream.Collectors;
 
 /**
  * An implementation of the discovery backend based on Redis.
+ * <p>
+ * When the {@code lease} configuration is set, records are leased: the expiration time of each record is stored in a
+ * sorted set, and a periodic Lua script removes the expired records atomically. Publishers keep their records alive
+ * by calling {@link #renew(String, Handler)}. Each expired record is announced with the {@link Status#DOWN} status.
  *
  * @author <a href="http://escoffier.me">Clement Escoffier</a>
  */
 public class RedisBackendService implements ServiceDiscoveryBackend {
 
-  private RedisClient redis;
+  private static final Logger LOGGER = LoggerFactory.getLogger(RedisBackendService.class);
+
+  /**
+   * Stores the record and its expiration time.
+   * KEYS: the record hash, the lease sorted set - ARGV: the registration, the record, the expiration time.
+   */
+  private static final String STORE_SCRIPT =
+      "redis.call('HSET', KEYS[1], ARGV[1], ARGV[2]) " +
+          "redis.call('ZADD', KEYS[2], ARGV[3], ARGV[1]) " +
+          "return {}";
+
+  /**
+   * Replaces the record if it still exists. The lease (if any) is left untouched, so updating a record does not extend
+   * its lease, and a record removed concurrently (for instance because its lease has expired) is not re-created.
+   * KEYS: the record hash - ARGV: the registration, the record.
+   */
+  private static final String UPDATE_SCRIPT =
+      "if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then return {0} end " +
+          "redis.call('HSET', KEYS[1], ARGV[1], ARGV[2]) " +
+          "return {1}";
+
+  /**
+   * Removes the record and its lease (if any), and returns the removed record (if any). Also used when leases are not
+   * enabled, so reading and deleting the record is atomic.
+   * KEYS: the record hash, the lease sorted set - ARGV: the registration.
+   */
+  private static final String REMOVE_SCRIPT =
+      "local record = redis.call('HGET', KEYS[1], ARGV[1]) " +
+          "if not record then return {} end " +
+          "redis.call('HDEL', KEYS[1], ARGV[1]) " +
+          "redis.call('ZREM', KEYS[2], ARGV[1]) " +
+          "return {record}";
+
+  /**
+   * Extends the lease of a record, if the record still exists.
+   * KEYS: the record hash, the lease sorted set - ARGV: the registration, the new expiration time.
+   */
+  private static final String RENEW_SCRIPT =
+      "if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then return {0} end " +
+          "redis.call('ZADD', KEYS[2], ARGV[2], ARGV[1]) " +
+          "return {1}";
+
+  /**
+   * Removes (at most ARGV[2]) records whose lease has expired before ARGV[1], and returns them.
+   * KEYS: the record hash, the lease sorted set.
+   */
+  private static final String SWEEP_SCRIPT =
+      "local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) " +
+          "local removed = {} " +
+          "for _, id in ipairs(expired) do " +
+          "  local record = redis.call('HGET', KEYS[1], id) " +
+          "  redis.call('HDEL', KEYS[1], id) " +
+          "  redis.call('ZREM', KEYS[2], id) " +
+          "  if record then table.insert(removed, record) end " +
+          "end " +
+          "return removed";
+
+  private static final int SWEEP_BATCH_SIZE = 1000;
+
+  private Vertx vertx;
+  private RedisClientPool pool;
   private String key;
+  private String leaseKey;
+  private long lease;
+  private String announce;
+  private long sweepTimer = -1;
 
   @Override
   public void init(Vertx vertx, JsonObject configuration) {
+    init(vertx, configuration, ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS);
+  }
+
+  @Override
+  public void init(Vertx vertx, JsonObject configuration, String announce) {
+    this.vertx = vertx;
+    this.announce = announce;
     key = configuration.getString("key", "records");
-    redis = RedisClient.create(vertx, new RedisOptions(configuration));
+    leaseKey = configuration.getString("lease-key", key + ".leases");
+    lease = configuration.getLong("lease", 0L);
+    pool = new RedisClientPool(vertx, new RedisOptions(configuration),
+        configuration.getInteger("pool-size", 1), configuration.getInteger("bulk-pool-size", 1));
+
+    if (lease > 0) {
+      long interval = configuration.getLong("sweep-interval", 1000L);
+      sweepTimer = vertx.setPeriodic(interval, l -> sweep(null));
+    }
   }
 
   @Override
@@ -55,7 +144,7 @@ public class RedisBackendService implements ServiceDiscoveryBackend {
     }
     String uuid = UUID.randomUUID().toString();
     record.setRegistration(uuid);
-    redis.hset(key, uuid, record.toJson().encode(), ar -> {
+    write(record, ar -> {
       if (ar.succeeded()) {
         resultHandler.handle(Future.succeededFuture(record));
       } else {
@@ -74,19 +163,13 @@ public class RedisBackendService implements ServiceDiscoveryBackend {
   public void remove(String uuid, Handler<AsyncResult<Record>> resultHandler) {
     Objects.requireNonNull(uuid, "No registration id in the record");
 
-    redis.hget(key, uuid, ar -> {
+    pool.<JsonArray>point(uuid, (redis, h) -> redis.eval(REMOVE_SCRIPT, Arrays.asList(key, leaseKey),
+        Collections.singletonList(uuid), h), ar -> {
       if (ar.succeeded()) {
-        if (ar.result() != null) {
-          redis.hdel(key, uuid, deletion -> {
-            if (deletion.succeeded()) {
-              resultHandler.handle(Future.succeededFuture(
-                  new Record(new JsonObject(ar.result()))));
-            } else {
-              resultHandler.handle(Future.failedFuture(deletion.cause()));
-            }
-          });
-        } else {
+        if (ar.result().isEmpty()) {
           resultHandler.handle(Future.failedFuture("Record '" + uuid + "' not found"));
+        } else {
+          resultHandler.handle(Future.succeededFuture(new Record(new JsonObject(ar.result().getString(0)))));
         }
       } else {
         resultHandler.handle(Future.failedFuture(ar.cause()));
@@ -97,18 +180,124 @@ public class RedisBackendService implements ServiceDiscoveryBackend {
   @Override
   public void update(Record record, Handler<AsyncResult<Void>> resultHandler) {
     Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
-    redis.hset(key, record.getRegistration(), record.toJson().encode(), ar -> {
+    String registration = record.getRegistration();
+    List<String> args = Arrays.asList(registration, record.toJson().encode());
+    pool.<JsonArray>point(registration,
+        (redis, h) -> redis.eval(UPDATE_SCRIPT, Collections.singletonList(key), args, h), ar -> {
+          if (ar.failed()) {
+            resultHandler.handle(Future.failedFuture(ar.cause()));
+          } else if (ar.result().getLong(0) == 0) {
+            resultHandler.handle(Future.failedFuture("Record '" + registration + "' not found"));
+          } else {
+            resultHandler.handle(Future.succeededFuture());
+          }
+        });
+  }
+
+  /**
+   * Writes a new record. When leases are enabled, the lease is started in the same atomic operation.
+   *
+   * @param record        the record, must have a registration id
+   * @param resultHandler the completion handler
+   */
+  private void write(Record record, Handler<AsyncResult<Void>> resultHandler) {
+    Handler<AsyncResult<?>> completion = ar -> {
       if (ar.succeeded()) {
         resultHandler.handle(Future.succeededFuture());
       } else {
         resultHandler.handle(Future.failedFuture(ar.cause()));
       }
+    };
+
+    if (lease > 0) {
+      List<String> args = Arrays.asList(record.getRegistration(), record.toJson().encode(),
+          Long.toString(expiration()));
+      pool.<JsonArray>point(record.getRegistration(),
+          (redis, h) -> redis.eval(STORE_SCRIPT, Arrays.asList(key, leaseKey), args, h),
+          completion::handle);
+    } else {
+      String json = record.toJson().encode();
+      pool.<Long>point(record.getRegistration(), (redis, h) -> redis.hset(key, record.getRegistration(), json, h),
+          completion::handle);
+    }
+  }
+
+  /**
+   * Renews the lease of the record with the given registration id. The operation fails if the record does not exist
+   * anymore (for instance because the lease has already expired), or if leases are not enabled.
+   *
+   * @param registration  the registration id
+   * @param resultHandler the completion handler
+   */
+  @Override
+  public void renew(String registration, Handler<AsyncResult<Void>> resultHandler) {
+    Objects.requireNonNull(registration, "No registration id");
+    if (lease <= 0) {
+      resultHandler.handle(Future.failedFuture("Leases are not enabled on this backend"));
+      return;
+    }
+
+    List<String> args = Arrays.asList(registration, Long.toString(expiration()));
+    List<String> keys = Arrays.asList(key, leaseKey);
+    pool.<JsonArray>point(registration, (redis, h) -> redis.eval(RENEW_SCRIPT, keys, args, h), ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      } else if (ar.result().getLong(0) == 0) {
+        resultHandler.handle(Future.failedFuture("Record '" + registration + "' not found"));
+      } else {
+        resultHandler.handle(Future.succeededFuture());
+      }
+    });
+  }
+
+  /**
+   * Removes the records whose lease has expired, and announces their departure. Records are removed by batch, a new
+   * batch is processed immediately if the previous one was full.
+   *
+   * @param completionHandler called when the sweep has completed with the number of removed records, may be
+   *                          {@code null}
+   */
+  void sweep(Handler<AsyncResult<Integer>> completionHandler) {
+    sweep(0, completionHandler);
+  }
+
+  private void sweep(int count, Handler<AsyncResult<Integer>> completionHandler) {
+    List<String> args = Arrays.asList(Long.toString(System.currentTimeMillis()), Integer.toString(SWEEP_BATCH_SIZE));
+    pool.<JsonArray>bulk((redis, h) -> redis.eval(SWEEP_SCRIPT, Arrays.asList(key, leaseKey), args, h), ar -> {
+      if (ar.failed()) {
+        LOGGER.warn("Unable to remove the expired records", ar.cause());
+        if (completionHandler != null) {
+          completionHandler.handle(Future.failedFuture(ar.cause()));
+        }
+        return;
+      }
+
+      JsonArray removed = ar.result();
+      for (Object json : removed) {
+        Record announcedRecord = new Record(new JsonObject((String) json));
+        LOGGER.info("Lease of record " + announcedRecord.getRegistration() + " (" + announcedRecord.getName()
+            + ") has expired");
+        announcedRecord
+            .setRegistration(null)
+            .setStatus(Status.DOWN);
+        vertx.eventBus().publish(announce, announcedRecord.toJson());
+      }
+
+      if (removed.size() == SWEEP_BATCH_SIZE) {
+        sweep(count + removed.size(), completionHandler);
+      } else if (completionHandler != null) {
+        completionHandler.handle(Future.succeededFuture(count + removed.size()));
+      }
     });
   }
 
+  private long expiration() {
+    return System.currentTimeMillis() + lease;
+  }
+
   @Override
   public void getRecords(Handler<AsyncResult<List<Record>>> resultHandler) {
-    redis.hgetall(key, ar -> {
+    pool.<JsonObject>bulk((redis, h) -> redis.hgetall(key, h), ar -> {
       if (ar.succeeded()) {
         JsonObject entries = ar.result();
         resultHandler.handle(Future.succeededFuture(entries.fieldNames().stream()
@@ -122,7 +311,7 @@ public class RedisBackendService implements ServiceDiscoveryBackend {
 
   @Override
   public void getRecord(String uuid, Handler<AsyncResult<Record>> resultHandler) {
-    redis.hget(key, uuid, ar -> {
+    pool.<String>point(uuid, (redis, h) -> redis.hget(key, uuid, h), ar -> {
       if (ar.succeeded()) {
         if (ar.result() != null) {
           resultHandler.handle(Future.succeededFuture(new Record(new JsonObject(ar.result()))));
@@ -134,4 +323,27 @@ public class RedisBackendService implements ServiceDiscoveryBackend {
       }
     });
   }
+
+  @Override
+  public void close() {
+    if (sweepTimer != -1) {
+      vertx.cancelTimer(sweepTimer);
+      sweepTimer = -1;
+    }
+    pool.close();
+  }
+
+  /**
+   * Gets the utilization metrics of the connection pool. The returned object contains an entry per lane ({@code
+   * point} for the point operations and {@code bulk} for the bulk reads), each of them providing the number of
+   * clients ({@code size}), the number of clients having in-flight commands ({@code busy}), the current and maximum
+   * number of in-flight commands ({@code in-flight} and {@code max-in-flight}), the total number of commands sent
+   * ({@code commands}) and the ratio of busy clients ({@code utilization}).
+   *
+   * @return the metrics
+   */
+  @Override
+  public JsonObject metrics() {
+    return pool.metrics();
+  }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.backend.redis;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.RedisClient;
+import io.vertx.redis.RedisOptions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A pool of {@link RedisClient} organized in two lanes: one for the bulk reads (such as {@code HGETALL}), and one for
+ * the point operations (such as {@code HGET} or {@code HSET}). Each client owns its own connection, so a large reply
+ * does not delay the commands sent on the other connections. The point operations on a key are always sent to the same
+ * client (chosen from the hash of the key), so they are executed in order. The bulk operations are sent to the client
+ * having the smallest number of in-flight commands.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+class RedisClientPool {
+
+  private final Lane point;
+  private final Lane bulk;
+
+  /**
+   * Creates a new pool.
+   *
+   * @param vertx     the vert.x instance
+   * @param options   the Redis client options
+   * @param pointSize the number of clients used for point operations
+   * @param bulkSize  the number of clients used for bulk reads
+   */
+  RedisClientPool(Vertx vertx, RedisOptions options, int pointSize, int bulkSize) {
+    this.point = new Lane(vertx, options, pointSize);
+    this.bulk = new Lane(vertx, options, bulkSize);
+  }
+
+  /**
+   * Executes a point operation. The operations on the same key are sent on the same connection, and so executed in
+   * the order they have been submitted.
+   *
+   * @param key           the key (such as the registration) the operation applies to
+   * @param command       the command, receiving the client to use and the handler to pass to the client
+   * @param resultHandler the result handler
+   * @param <T>           the type of result
+   */
+  <T> void point(String key, BiConsumer<RedisClient, Handler<AsyncResult<T>>> command,
+                 Handler<AsyncResult<T>> resultHandler) {
+    point.execute(point.route(key), command, resultHandler);
+  }
+
+  /**
+   * Executes a bulk operation.
+   *
+   * @param command       the command, receiving the client to use and the handler to pass to the client
+   * @param resultHandler the result handler
+   * @param <T>           the type of result
+   */
+  <T> void bulk(BiConsumer<RedisClient, Handler<AsyncResult<T>>> command, Handler<AsyncResult<T>> resultHandler) {
+    bulk.execute(bulk.leastLoaded(), command, resultHandler);
+  }
+
+  /**
+   * @return the utilization metrics of the pool, one entry per lane.
+   */
+  JsonObject metrics() {
+    return new JsonObject()
+        .put("point", point.metrics())
+        .put("bulk", bulk.metrics());
+  }
+
+  /**
+   * Closes all the clients.
+   */
+  void close() {
+    point.close();
+    bulk.close();
+  }
+
+  private static class Lane {
+    private final RedisClient[] clients;
+    private final AtomicInteger[] inFlight;
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    Lane(Vertx vertx, RedisOptions options, int size) {
+      if (size < 1) {
+        throw new IllegalArgumentException("The pool size must be at least 1");
+      }
+      clients = new RedisClient[size];
+      inFlight = new AtomicInteger[size];
+      for (int i = 0; i < size; i++) {
+        clients[i] = RedisClient.create(vertx, options);
+        inFlight[i] = new AtomicInteger();
+      }
+    }
+
+    int route(String key) {
+      return Math.floorMod(key.hashCode(), clients.length);
+    }
+
+    int leastLoaded() {
+      int index = 0;
+      int min = inFlight[0].get();
+      for (int i = 1; i < inFlight.length && min > 0; i++) {
+        int current = inFlight[i].get();
+        if (current < min) {
+          index = i;
+          min = current;
+        }
+      }
+      return index;
+    }
+
+    <T> void execute(int index, BiConsumer<RedisClient, Handler<AsyncResult<T>>> command,
+                     Handler<AsyncResult<T>> resultHandler) {
+      AtomicInteger counter = inFlight[index];
+      int pending = counter.incrementAndGet();
+      commands.incrementAndGet();
+      int max;
+      while (pending > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, pending)) {
+        // Retry until the max is updated.
+      }
+
+      command.accept(clients[index], ar -> {
+        counter.decrementAndGet();
+        resultHandler.handle(ar);
+      });
+    }
+
+    JsonObject metrics() {
+      int busy = 0;
+      int pending = 0;
+      for (AtomicInteger counter : inFlight) {
+        int current = counter.get();
+        pending += current;
+        if (current > 0) {
+          busy++;
+        }
+      }
+      return new JsonObject()
+          .put("size", clients.length)
+          .put("busy", busy)
+          .put("in-flight", pending)
+          .put("max-in-flight", maxInFlight.get())
+          .put("commands", commands.get())
+          .put("utilization", (double) busy / clients.length);
+    }
+
+    void close() {
+      for (RedisClient client : clients) {
+        client.close(ar -> {
+          // Ignore the result.
+        });
+      }
+    }
+  }
+}
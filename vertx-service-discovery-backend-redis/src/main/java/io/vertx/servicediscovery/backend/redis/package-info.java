@@ -59,6 +59,37 @@
  * {@link examples.Examples#configuration1(io.vertx.core.Vertx)}
  * ----
  *
+ * == Connection pool
+ *
+ * The backend sends its commands through a pool of Redis clients, each of them using its own connection. The pool is
+ * split into two lanes: one for the bulk reads (retrieving all the records), and one for the point operations (storing,
+ * updating, retrieving or removing a single record). So, retrieving a large set of records does not delay the other
+ * operations. The point operations on a record are always sent on the same connection (chosen from the hash of its
+ * registration), so two updates of the same record are executed in order. The size of each lane is configured using
+ * `pool-size` (point operations, 1 by default) and `bulk-pool-size` (bulk reads, 1 by default). The utilization of the
+ * pool is available using {@link io.vertx.servicediscovery.backend.redis.RedisBackendService#metrics()}, also returned
+ * by the `getBackendMetrics` method of the service discovery.
+ *
+ * == Leased records
+ *
+ * By default, records stay in Redis until they are explicitly withdrawn. If a publisher crashes, its records are
+ * never removed. To avoid this, you can enable _leases_ by setting the `lease` configuration (in milliseconds). The
+ * expiration time of each record is stored in a sorted set (named `key` + `.leases` by default, configurable with
+ * `lease-key`). A Lua script, executed every `sweep-interval` milliseconds (1000 by default), atomically removes the
+ * records whose lease has expired. The departure of these records is announced with the `DOWN` status on the
+ * announce address of the service discovery (see `ServiceDiscoveryOptions`).
+ *
+ * Publishers must renew the lease of their records before expiration using the `heartbeat` method of the service
+ * discovery, which calls
+ * {@link io.vertx.servicediscovery.backend.redis.RedisBackendService#renew(java.lang.String, io.vertx.core.Handler)}.
+ * Updating a record does not renew its lease, and the update of a record whose lease has already expired fails
+ * (the record is not re-created).
+ *
+ * [source,$lang]
+ * ----
+ * {@link examples.Examples#configuration2(io.vertx.core.Vertx)}
+ * ----
+ *
  */
 @ModuleGen(name = "vertx-service-discovery-backend-redis", groupPackage = "io.vertx")
 @Document(fileName = "index.adoc")
@@ -19,6 +19,8 @@ package io.vertx.servicediscovery.backend.redis;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
 import io.vertx.servicediscovery.Status;
 import org.junit.*;
 import redis.embedded.RedisServer;
@@ -27,7 +29,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.jayway.awaitility.Awaitility.await;
@@ -163,4 +167,235 @@ public class RedisBackendTest {
     }
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testLeaseExpiration() {
+    RedisBackendService leased = new RedisBackendService();
+    leased.init(vertx, new JsonObject().put("key", "leased-records").put("lease", 500).put("sweep-interval", 100));
+
+    List<Record> announces = new CopyOnWriteArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        msg -> announces.add(new Record(msg.body())));
+
+    Record record = new Record().setName("my-leased-service").setStatus(Status.UP);
+    AtomicReference<Record> reference = new AtomicReference<>();
+    leased.store(record, ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    String registration = reference.get().getRegistration();
+
+    // Renew the lease a couple of times, the record must still be there
+    for (int i = 0; i < 3; i++) {
+      AtomicBoolean renewed = new AtomicBoolean();
+      vertx.setTimer(300, l -> leased.renew(registration, ar -> renewed.set(ar.succeeded())));
+      await().untilAtomic(renewed, is(true));
+    }
+    AtomicReference<Record> retrieved = new AtomicReference<>();
+    leased.getRecord(registration, ar -> retrieved.set(ar.result()));
+    await().until(() -> retrieved.get() != null);
+    assertThat(announces).isEmpty();
+
+    // Stop renewing, the record is removed and its departure announced
+    await().until(() -> announces.size() == 1);
+    assertThat(announces.get(0).getName()).isEqualTo("my-leased-service");
+    assertThat(announces.get(0).getStatus()).isEqualTo(Status.DOWN);
+
+    AtomicBoolean completed = new AtomicBoolean();
+    retrieved.set(null);
+    leased.getRecord(registration, ar -> {
+      retrieved.set(ar.result());
+      completed.set(ar.succeeded());
+    });
+    await().untilAtomic(completed, is(true));
+    assertThat(retrieved.get()).isNull();
+
+    // Renewing an expired record fails
+    AtomicBoolean failed = new AtomicBoolean();
+    leased.renew(registration, ar -> failed.set(ar.failed()));
+    await().untilAtomic(failed, is(true));
+
+    leased.close();
+  }
+
+  @Test
+  public void testUpdatesDoNotRenewTheLease() {
+    RedisBackendService leased = new RedisBackendService();
+    leased.init(vertx, new JsonObject().put("key", "leased-records-4").put("lease", 1000).put("sweep-interval", 100),
+        "my-announce-address");
+
+    List<Record> announces = new CopyOnWriteArrayList<>();
+    vertx.eventBus().<JsonObject>consumer("my-announce-address", msg -> announces.add(new Record(msg.body())));
+
+    Record record = new Record().setName("my-leased-service").setStatus(Status.UP);
+    AtomicReference<Record> reference = new AtomicReference<>();
+    leased.store(record, ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    String registration = reference.get().getRegistration();
+
+    // Keep updating the record, the lease expires anyway and the departure is announced on the given address
+    long timer = vertx.setPeriodic(100, l -> leased.update(new Record(reference.get().toJson())
+        .setMetadata(new JsonObject().put("time", System.currentTimeMillis())), ar -> {
+    }));
+    await().until(() -> announces.size() == 1);
+    vertx.cancelTimer(timer);
+    assertThat(announces.get(0).getStatus()).isEqualTo(Status.DOWN);
+
+    // Updating the expired record fails, and does not re-create it
+    AtomicBoolean failed = new AtomicBoolean();
+    leased.update(reference.get(), ar -> failed.set(ar.failed()));
+    await().untilAtomic(failed, is(true));
+    AtomicBoolean completed = new AtomicBoolean();
+    AtomicReference<Record> retrieved = new AtomicReference<>();
+    leased.getRecord(registration, ar -> {
+      retrieved.set(ar.result());
+      completed.set(ar.succeeded());
+    });
+    await().untilAtomic(completed, is(true));
+    assertThat(retrieved.get()).isNull();
+
+    leased.close();
+  }
+
+  @Test
+  public void testHeartbeatRenewsTheLease() {
+    ServiceDiscovery discovery = ServiceDiscovery.create(vertx, new ServiceDiscoveryOptions().setBackendConfiguration(
+        new JsonObject().put("backend-name", RedisBackendService.class.getName()).put("key", "leased-records-3")
+            .put("lease", 1500).put("sweep-interval", 100)));
+
+    List<Record> announces = new CopyOnWriteArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        msg -> announces.add(new Record(msg.body())));
+
+    Record record = new Record().setName("my-leased-service").setStatus(Status.UP);
+    AtomicReference<Record> reference = new AtomicReference<>();
+    discovery.publish(record, ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    String registration = reference.get().getRegistration();
+
+    // The heartbeats renew the lease stored in Redis
+    for (int i = 0; i < 3; i++) {
+      AtomicBoolean renewed = new AtomicBoolean();
+      vertx.setTimer(300, l -> discovery.heartbeat(registration, ar -> renewed.set(ar.succeeded())));
+      await().untilAtomic(renewed, is(true));
+    }
+    assertThat(announces).extracting(Record::getStatus).containsExactly(Status.UP);
+
+    JsonObject metrics = discovery.getBackendMetrics();
+    assertThat(metrics.getJsonObject("point").getLong("commands")).isGreaterThan(0);
+
+    // Stop renewing, the record expires
+    await().until(() -> announces.size() == 2);
+    assertThat(announces.get(1).getStatus()).isEqualTo(Status.DOWN);
+    AtomicBoolean failed = new AtomicBoolean();
+    discovery.heartbeat(registration, ar -> failed.set(ar.failed()));
+    await().untilAtomic(failed, is(true));
+
+    discovery.close();
+  }
+
+  @Test
+  public void testRemovalOfLeasedRecord() {
+    RedisBackendService leased = new RedisBackendService();
+    leased.init(vertx, new JsonObject().put("key", "leased-records-2").put("lease", 60000));
+
+    Record record = new Record().setName("my-leased-service").setStatus(Status.UP);
+    AtomicReference<Record> reference = new AtomicReference<>();
+    leased.store(record, ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+
+    AtomicReference<Record> removed = new AtomicReference<>();
+    leased.remove(reference.get(), ar -> removed.set(ar.result()));
+    await().until(() -> removed.get() != null);
+    assertThat(removed.get().getName()).isEqualTo("my-leased-service");
+
+    AtomicBoolean failed = new AtomicBoolean();
+    leased.remove(reference.get(), ar -> failed.set(ar.failed()));
+    await().untilAtomic(failed, is(true));
+
+    leased.close();
+  }
+
+  @Test
+  public void testConcurrentRemovals() {
+    RedisBackendService pooled = new RedisBackendService();
+    pooled.init(vertx, new JsonObject().put("key", "removed-records").put("pool-size", 4));
+
+    Record record = new Record().setName("my-service").setStatus(Status.UP);
+    AtomicReference<Record> reference = new AtomicReference<>();
+    pooled.store(record, ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    // Only one of the removals finds the record
+    AtomicInteger removed = new AtomicInteger();
+    AtomicInteger completed = new AtomicInteger();
+    for (int i = 0; i < 8; i++) {
+      pooled.remove(reference.get().getRegistration(), ar -> {
+        if (ar.succeeded()) {
+          removed.incrementAndGet();
+        }
+        completed.incrementAndGet();
+      });
+    }
+    await().until(() -> completed.get() == 8);
+    assertThat(removed.get()).isEqualTo(1);
+
+    pooled.close();
+  }
+
+  @Test
+  public void testUpdatesOfARecordAreOrdered() {
+    RedisBackendService pooled = new RedisBackendService();
+    pooled.init(vertx, new JsonObject().put("key", "ordered-records").put("pool-size", 4));
+
+    Record record = new Record().setName("my-service").setStatus(Status.UP);
+    AtomicReference<Record> reference = new AtomicReference<>();
+    pooled.store(record, ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    // Keep the other clients busy, so a least-loaded routing would spread the updates
+    for (int i = 0; i < 20; i++) {
+      pooled.getRecord("unknown-" + i, ar -> { });
+    }
+
+    // Back-to-back updates of the same record, the last one wins
+    AtomicInteger updated = new AtomicInteger();
+    for (int i = 0; i < 50; i++) {
+      Record update = new Record(reference.get()).setMetadata(new JsonObject().put("version", i));
+      pooled.update(update, ar -> updated.incrementAndGet());
+    }
+    await().until(() -> updated.get() == 50);
+    AtomicReference<Record> found = new AtomicReference<>();
+    pooled.getRecord(reference.get().getRegistration(), ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get().getMetadata().getInteger("version")).isEqualTo(49);
+
+    pooled.close();
+  }
+
+  @Test
+  public void testPoolMetrics() {
+    RedisBackendService pooled = new RedisBackendService();
+    pooled.init(vertx, new JsonObject().put("key", "pooled-records").put("pool-size", 3).put("bulk-pool-size", 2));
+
+    AtomicInteger stored = new AtomicInteger();
+    for (int i = 0; i < 50; i++) {
+      pooled.store(new Record().setName("my-service-" + i).setStatus(Status.UP), ar -> {
+        if (ar.succeeded()) {
+          stored.incrementAndGet();
+        }
+      });
+    }
+    await().until(() -> stored.get() == 50);
+
+    List<Record> records = new CopyOnWriteArrayList<>();
+    pooled.getRecords(ar -> records.addAll(ar.result()));
+    await().until(() -> records.size() == 50);
+
+    JsonObject metrics = pooled.metrics();
+    assertThat(metrics.getJsonObject("point").getInteger("size")).isEqualTo(3);
+    assertThat(metrics.getJsonObject("point").getLong("commands")).isEqualTo(50);
+    assertThat(metrics.getJsonObject("point").getInteger("in-flight")).isEqualTo(0);
+    assertThat(metrics.getJsonObject("point").getInteger("max-in-flight")).isGreaterThan(0);
+    assertThat(metrics.getJsonObject("bulk").getInteger("size")).isEqualTo(2);
+    assertThat(metrics.getJsonObject("bulk").getLong("commands")).isEqualTo(1);
+
+    pooled.close();
+  }
+
+}
@@ -33,12 +33,33 @@ public class ServiceDiscoveryOptionsConverter {
     if (json.getValue("backendConfiguration") instanceof JsonObject) {
       obj.setBackendConfiguration(((JsonObject)json.getValue("backendConfiguration")).copy());
     }
+    if (json.getValue("deltaAnnouncements") instanceof Boolean) {
+      obj.setDeltaAnnouncements((Boolean)json.getValue("deltaAnnouncements"));
+    }
+    if (json.getValue("departureCheckInterval") instanceof Number) {
+      obj.setDepartureCheckInterval(((Number)json.getValue("departureCheckInterval")).longValue());
+    }
+    if (json.getValue("idleReferenceTimeout") instanceof Number) {
+      obj.setIdleReferenceTimeout(((Number)json.getValue("idleReferenceTimeout")).longValue());
+    }
     if (json.getValue("name") instanceof String) {
       obj.setName((String)json.getValue("name"));
     }
+    if (json.getValue("releaseOnDeparture") instanceof Boolean) {
+      obj.setReleaseOnDeparture((Boolean)json.getValue("releaseOnDeparture"));
+    }
+    if (json.getValue("sharedReferences") instanceof Boolean) {
+      obj.setSharedReferences((Boolean)json.getValue("sharedReferences"));
+    }
+    if (json.getValue("updateDebounceWindow") instanceof Number) {
+      obj.setUpdateDebounceWindow(((Number)json.getValue("updateDebounceWindow")).longValue());
+    }
     if (json.getValue("usageAddress") instanceof String) {
       obj.setUsageAddress((String)json.getValue("usageAddress"));
     }
+    if (json.getValue("zone") instanceof String) {
+      obj.setZone((String)json.getValue("zone"));
+    }
   }
 
   public static void toJson(ServiceDiscoveryOptions obj, JsonObject json) {
@@ -48,11 +69,20 @@ public class ServiceDiscoveryOptionsConverter {
     if (obj.getBackendConfiguration() != null) {
       json.put("backendConfiguration", obj.getBackendConfiguration());
     }
+    json.put("deltaAnnouncements", obj.isDeltaAnnouncements());
+    json.put("departureCheckInterval", obj.getDepartureCheckInterval());
+    json.put("idleReferenceTimeout", obj.getIdleReferenceTimeout());
     if (obj.getName() != null) {
       json.put("name", obj.getName());
     }
+    json.put("releaseOnDeparture", obj.isReleaseOnDeparture());
+    json.put("sharedReferences", obj.isSharedReferences());
+    json.put("updateDebounceWindow", obj.getUpdateDebounceWindow());
     if (obj.getUsageAddress() != null) {
       json.put("usageAddress", obj.getUsageAddress());
     }
+    if (obj.getZone() != null) {
+      json.put("zone", obj.getZone());
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.impl.HashRing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A consistent hash ring built from the records matching a filter, used to route keys to records. A key is routed to
+ * the same record as long as this record is available, and when a record is removed, only the keys routed to this
+ * record move.
+ * <p>
+ * The ring is initialized from the matching records, and then updated incrementally from the announcements: published
+ * records are added, and un-published records (or records not {@code UP} anymore) are removed. Records are identified
+ * by their name and location. Notice that records added from a publication announcement have no registration id (it is
+ * not announced).
+ * <p>
+ * Selecting a record is a binary search on the ring (O(log n)), and does not allocate.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class ConsistentHashRing {
+
+  private final JsonObject filter;
+  private final HashRing ring;
+  private final MessageConsumer<JsonObject> announcements;
+
+  /**
+   * Creates a ring from the records matching the given filter. The handler is called once the ring is initialized.
+   *
+   * @param discovery     the service discovery
+   * @param filter        the filter, optional
+   * @param virtualNodes  the number of virtual nodes per record, a few hundreds spread the keys evenly
+   * @param resultHandler the result handler
+   */
+  public static void create(ServiceDiscovery discovery, JsonObject filter, int virtualNodes,
+                            Handler<AsyncResult<ConsistentHashRing>> resultHandler) {
+    ConsistentHashRing ring = new ConsistentHashRing(discovery, filter, virtualNodes);
+    discovery.getRecords(filter, ar -> {
+      if (ar.failed()) {
+        ring.close();
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      } else {
+        ar.result().forEach(record -> ring.ring.add(HashRing.node(record), record));
+        resultHandler.handle(Future.succeededFuture(ring));
+      }
+    });
+  }
+
+  private ConsistentHashRing(ServiceDiscovery discovery, JsonObject filter, int virtualNodes) {
+    Objects.requireNonNull(discovery);
+    this.filter = filter;
+    this.ring = new HashRing(virtualNodes);
+    // Listen before the initial lookup to not miss an announcement
+    this.announcements = discovery.announcements(this::onAnnounce);
+  }
+
+  /**
+   * Selects the record associated with the given key.
+   *
+   * @param key the key
+   * @return the record, {@code null} if the ring is empty
+   */
+  public Record select(String key) {
+    return ring.get(key);
+  }
+
+  /**
+   * @return the records of the ring.
+   */
+  public List<Record> records() {
+    return ring.records();
+  }
+
+  /**
+   * Stops tracking the announcements.
+   */
+  public void close() {
+    announcements.unregister();
+  }
+
+  private boolean accept(Record record) {
+    return filter == null || record.match(filter);
+  }
+
+  private void onAnnounce(Record announced) {
+    String node = HashRing.node(announced);
+    if (announced.getRegistration() != null) {
+      // Update: the location may have changed, remove the previous node of the registration
+      for (Map.Entry<String, Record> entry : ring.nodes().entrySet()) {
+        if (announced.getRegistration().equals(entry.getValue().getRegistration()) && !entry.getKey().equals(node)) {
+          ring.remove(entry.getKey());
+        }
+      }
+    }
+    if (announced.getStatus() == Status.UP && accept(announced)) {
+      ring.add(node, announced);
+    } else {
+      ring.remove(node);
+    }
+  }
+}
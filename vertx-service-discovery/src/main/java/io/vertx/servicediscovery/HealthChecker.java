@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.servicediscovery.types.EventBusService;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+import io.vertx.servicediscovery.types.HttpLocation;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Probes the services periodically, and updates the status of their records: a record failing several probes in a
+ * row is set {@code OUT_OF_SERVICE}, so it is not returned by the lookups anymore, and set back {@code UP} once it
+ * passes the probes again. The status is only updated when it changes, and only the records set
+ * {@code OUT_OF_SERVICE} by the health checker are set back {@code UP} (not the records in maintenance). These records
+ * are marked with the {@code health.marked} metadata entry, in the same update, so any health checker (for instance
+ * after a restart, or on another node) can set them back {@code UP}. The entry is removed when the record is set back
+ * {@code UP}.
+ * <p>
+ * The probe depends on the location of the record:
+ * <ul>
+ * <li>HTTP endpoints receive a {@code GET} request on their root (or the {@code health.path} entry of the metadata),
+ * and are healthy if the response status is lower than 400</li>
+ * <li>Event bus services receive a message invoking the action set in the {@code health.action} entry of the
+ * metadata, and are healthy if the invocation succeeds. Without this entry, they receive a ping message (with an
+ * unknown action), and are healthy if the message is delivered, even if the service replies with a failure (notice
+ * that service proxies log the unknown action)</li>
+ * <li>Other records with a {@code host} and a {@code port} in their location are healthy if a TCP connection can be
+ * opened</li>
+ * </ul>
+ * Records without a probe are not checked. Each probe is scheduled with a random delay (a fraction of the interval), to
+ * spread the probes over time, and the number of concurrent probes is limited.
+ * <p>
+ * The configuration accepts:
+ * <ul>
+ * <li>{@code interval}: the interval between two probes of a record in ms (10000 by default)</li>
+ * <li>{@code jitter}: the maximum random delay of the probes, as a fraction of the interval (0.25 by default)</li>
+ * <li>{@code timeout}: the timeout of a probe in ms (2000 by default)</li>
+ * <li>{@code max-concurrent-probes}: the maximum number of probes running concurrently (16 by default)</li>
+ * <li>{@code unhealthy-threshold}: the number of consecutive failed probes setting a record {@code OUT_OF_SERVICE}
+ * (2 by default)</li>
+ * <li>{@code healthy-threshold}: the number of consecutive successful probes setting a record back {@code UP} (2 by
+ * default)</li>
+ * <li>{@code filter}: a filter selecting the records to check, all the records by default</li>
+ * </ul>
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class HealthChecker {
+
+  /**
+   * The metadata entry overriding the path of the HTTP probe.
+   */
+  public static final String HEALTH_PATH = "health.path";
+
+  /**
+   * The metadata entry setting the action invoked on the event bus services.
+   */
+  public static final String HEALTH_ACTION = "health.action";
+
+  /**
+   * The action sent to the event bus services without {@link #HEALTH_ACTION}.
+   */
+  public static final String PING_ACTION = "__health_check";
+
+  /**
+   * The metadata entry marking the records set {@code OUT_OF_SERVICE} by a health checker.
+   */
+  public static final String HEALTH_MARKED = "health.marked";
+
+  private final static Logger LOGGER = LoggerFactory.getLogger(HealthChecker.class.getName());
+
+  private final Vertx vertx;
+  private final ServiceDiscovery discovery;
+  private final JsonObject filter;
+  private final long interval;
+  private final double jitter;
+  private final long timeout;
+  private final int maxConcurrentProbes;
+  private final int unhealthyThreshold;
+  private final int healthyThreshold;
+
+  private final Queue<Record> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  // The registrations of the records being scheduled or probed
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final Map<String, Health> health = new ConcurrentHashMap<>();
+  private final AtomicLong probes = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong changes = new AtomicLong();
+  private HttpClient httpClient;
+  private HttpClient httpsClient;
+  private NetClient netClient;
+  private long timer = -1;
+  private volatile boolean closed;
+
+  /**
+   * Consecutive outcomes of the probes of a record.
+   */
+  private static class Health {
+    private int successes;
+    private int failures;
+  }
+
+  /**
+   * Creates a new instance of {@link HealthChecker}. Call {@link #start()} to start probing the services.
+   *
+   * @param vertx         the vert.x instance
+   * @param discovery     the service discovery
+   * @param configuration the configuration, optional
+   */
+  public HealthChecker(Vertx vertx, ServiceDiscovery discovery, JsonObject configuration) {
+    Objects.requireNonNull(vertx);
+    Objects.requireNonNull(discovery);
+    JsonObject conf = configuration == null ? new JsonObject() : configuration;
+    this.vertx = vertx;
+    this.discovery = discovery;
+    this.filter = conf.getJsonObject("filter");
+    this.interval = conf.getLong("interval", 10000L);
+    this.jitter = conf.getDouble("jitter", 0.25);
+    this.timeout = conf.getLong("timeout", 2000L);
+    this.maxConcurrentProbes = conf.getInteger("max-concurrent-probes", 16);
+    this.unhealthyThreshold = conf.getInteger("unhealthy-threshold", 2);
+    this.healthyThreshold = conf.getInteger("healthy-threshold", 2);
+    if (interval < 1 || timeout < 1 || maxConcurrentProbes < 1 || unhealthyThreshold < 1 || healthyThreshold < 1) {
+      throw new IllegalArgumentException("Invalid health check configuration " + conf.encode());
+    }
+    if (jitter < 0 || jitter > 1) {
+      throw new IllegalArgumentException("The jitter must be in [0, 1]");
+    }
+  }
+
+  /**
+   * Starts probing the services.
+   *
+   * @return the current {@link HealthChecker}
+   */
+  public synchronized HealthChecker start() {
+    if (timer == -1 && !closed) {
+      httpClient = vertx.createHttpClient(new HttpClientOptions()
+          .setConnectTimeout((int) timeout).setKeepAlive(false));
+      netClient = vertx.createNetClient(new NetClientOptions().setConnectTimeout((int) timeout));
+      timer = vertx.setPeriodic(interval, l -> round());
+      round();
+    }
+    return this;
+  }
+
+  /**
+   * Stops probing the services. The statuses are not updated anymore, records set {@code OUT_OF_SERVICE} stay out of
+   * service.
+   */
+  public synchronized void close() {
+    closed = true;
+    if (timer != -1) {
+      vertx.cancelTimer(timer);
+      timer = -1;
+    }
+    if (httpClient != null) {
+      httpClient.close();
+    }
+    if (httpsClient != null) {
+      httpsClient.close();
+    }
+    if (netClient != null) {
+      netClient.close();
+    }
+    queue.clear();
+  }
+
+  /**
+   * @return the metrics of the health checker: the number of probes, of failed probes, of status changes, of probes
+   * in flight and of probes waiting for a slot.
+   */
+  public JsonObject getMetrics() {
+    return new JsonObject()
+        .put("probes", probes.get())
+        .put("failures", failures.get())
+        .put("status-changes", changes.get())
+        .put("in-flight", inFlight.get())
+        .put("queued", queue.size());
+  }
+
+  private boolean accept(Record record) {
+    return (record.getStatus() == Status.UP || record.getStatus() == Status.OUT_OF_SERVICE)
+        && (filter == null || record.match(filter))
+        && probe(record) != null;
+  }
+
+  private void round() {
+    // Include the records out of service, to detect their recovery
+    discovery.getRecords(this::accept, true, ar -> {
+      if (ar.failed()) {
+        LOGGER.warn("Cannot retrieve the records to check", ar.cause());
+        return;
+      }
+      Set<String> registrations = new HashSet<>();
+      for (Record record : ar.result()) {
+        registrations.add(record.getRegistration());
+        // Do not probe the records put out of service by someone else
+        if (record.getStatus() == Status.OUT_OF_SERVICE && !isMarked(record)) {
+          continue;
+        }
+        if (pending.add(record.getRegistration())) {
+          long delay = 1 + (long) (ThreadLocalRandom.current().nextDouble() * jitter * interval);
+          vertx.setTimer(delay, l -> enqueue(record));
+        }
+      }
+      // Forget the records that are gone
+      health.keySet().retainAll(registrations);
+    });
+  }
+
+  private void enqueue(Record record) {
+    if (closed) {
+      return;
+    }
+    queue.add(record);
+    drain();
+  }
+
+  private void drain() {
+    while (!closed) {
+      int current = inFlight.get();
+      if (current >= maxConcurrentProbes) {
+        return;
+      }
+      if (!inFlight.compareAndSet(current, current + 1)) {
+        continue;
+      }
+      Record record = queue.poll();
+      if (record == null) {
+        inFlight.decrementAndGet();
+        if (queue.isEmpty()) {
+          return;
+        }
+        continue;
+      }
+      probes.incrementAndGet();
+      probe(record).handle(record, ar -> {
+        inFlight.decrementAndGet();
+        pending.remove(record.getRegistration());
+        if (!closed) {
+          onResult(record, ar.succeeded());
+        }
+        drain();
+      });
+    }
+  }
+
+  private void onResult(Record record, boolean healthy) {
+    Health h = health.computeIfAbsent(record.getRegistration(), r -> new Health());
+    Status target = null;
+    synchronized (h) {
+      if (healthy) {
+        h.failures = 0;
+        h.successes++;
+        if (record.getStatus() == Status.OUT_OF_SERVICE && isMarked(record) && h.successes >= healthyThreshold) {
+          target = Status.UP;
+        }
+      } else {
+        failures.incrementAndGet();
+        h.successes = 0;
+        h.failures++;
+        if (record.getStatus() == Status.UP && h.failures >= unhealthyThreshold) {
+          target = Status.OUT_OF_SERVICE;
+        }
+      }
+    }
+    if (target != null) {
+      changeStatus(record.getRegistration(), target);
+    }
+  }
+
+  private static boolean isMarked(Record record) {
+    return record.getMetadata() != null && record.getMetadata().getBoolean(HEALTH_MARKED, false);
+  }
+
+  private void changeStatus(String registration, Status target) {
+    // Read the current record, to not override concurrent updates
+    discovery.getRecord(r -> registration.equals(r.getRegistration()), true, ar -> {
+      if (ar.failed() || ar.result() == null || ar.result().getStatus() == target) {
+        return;
+      }
+      Record current = ar.result();
+      if (target == Status.UP && (current.getStatus() != Status.OUT_OF_SERVICE || !isMarked(current))) {
+        return;
+      }
+      if (target == Status.OUT_OF_SERVICE && current.getStatus() != Status.UP) {
+        return;
+      }
+      // The marker is written with the status, so it is visible to the other health checkers
+      JsonObject metadata = current.getMetadata() == null ? new JsonObject() : current.getMetadata().copy();
+      if (target == Status.OUT_OF_SERVICE) {
+        metadata.put(HEALTH_MARKED, true);
+      } else {
+        metadata.remove(HEALTH_MARKED);
+      }
+      current.setMetadata(metadata);
+      LOGGER.info("Health check of " + current.getName() + " (" + registration + ") changed its status to " + target);
+      discovery.update(current.setStatus(target), updated -> {
+        if (updated.succeeded()) {
+          changes.incrementAndGet();
+        } else {
+          LOGGER.warn("Cannot update the status of " + registration, updated.cause());
+        }
+      });
+    });
+  }
+
+  /**
+   * A probe.
+   */
+  @FunctionalInterface
+  private interface Probe {
+    void handle(Record record, Handler<AsyncResult<Void>> handler);
+  }
+
+  private Probe probe(Record record) {
+    JsonObject location = record.getLocation();
+    if (location == null) {
+      return null;
+    }
+    if (HttpEndpoint.TYPE.equals(record.getType())) {
+      return this::probeHttp;
+    }
+    if (EventBusService.TYPE.equals(record.getType()) && location.getString(Record.ENDPOINT) != null) {
+      return this::probeEventBus;
+    }
+    if (location.getValue("host") instanceof String && location.getValue("port") instanceof Number) {
+      return this::probeTcp;
+    }
+    return null;
+  }
+
+  private void probeHttp(Record record, Handler<AsyncResult<Void>> handler) {
+    HttpLocation location = new HttpLocation(record.getLocation());
+    String path = record.getMetadata() != null ? record.getMetadata().getString(HEALTH_PATH) : null;
+    if (path == null) {
+      path = location.getRoot() == null || location.getRoot().isEmpty() ? "/" : location.getRoot();
+    }
+    HttpClient client;
+    if (location.isSsl()) {
+      synchronized (this) {
+        if (httpsClient == null) {
+          httpsClient = vertx.createHttpClient(new HttpClientOptions()
+              .setSsl(true).setConnectTimeout((int) timeout).setKeepAlive(false));
+        }
+        client = httpsClient;
+      }
+    } else {
+      client = httpClient;
+    }
+    HttpClientRequest request = client.get(location.getPort(), location.getHost(), path, response -> {
+      if (response.statusCode() < 400) {
+        handler.handle(Future.succeededFuture());
+      } else {
+        handler.handle(Future.failedFuture("Health check of " + location.getEndpoint() + " returned "
+            + response.statusCode()));
+      }
+    });
+    request.exceptionHandler(err -> handler.handle(Future.failedFuture(err)));
+    request.setTimeout(timeout);
+    request.end();
+  }
+
+  private void probeEventBus(Record record, Handler<AsyncResult<Void>> handler) {
+    String address = record.getLocation().getString(Record.ENDPOINT);
+    String action = record.getMetadata() != null ? record.getMetadata().getString(HEALTH_ACTION) : null;
+    DeliveryOptions options = new DeliveryOptions().setSendTimeout(timeout)
+        .addHeader("action", action != null ? action : PING_ACTION);
+    vertx.eventBus().send(address, new JsonObject(), options, reply -> {
+      if (reply.succeeded()) {
+        handler.handle(Future.succeededFuture());
+      } else if (action == null && reply.cause() instanceof ReplyException
+          && ((ReplyException) reply.cause()).failureType() == ReplyFailure.RECIPIENT_FAILURE) {
+        // The service has received the message, it just does not know the action
+        handler.handle(Future.succeededFuture());
+      } else {
+        handler.handle(Future.failedFuture(reply.cause()));
+      }
+    });
+  }
+
+  private void probeTcp(Record record, Handler<AsyncResult<Void>> handler) {
+    JsonObject location = record.getLocation();
+    netClient.connect(location.getInteger("port"), location.getString("host"), ar -> {
+      if (ar.succeeded()) {
+        ar.result().close();
+        handler.handle(Future.succeededFuture());
+      } else {
+        handler.handle(Future.failedFuture(ar.cause()));
+      }
+    });
+  }
+}
@@ -16,12 +16,16 @@
 
 package io.vertx.servicediscovery;
 
+import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.VertxGen;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
 import io.vertx.core.json.JsonObject;
 import io.vertx.servicediscovery.impl.DiscoveryImpl;
+import io.vertx.servicediscovery.impl.UnregisteredMessageConsumer;
 import io.vertx.servicediscovery.spi.ServiceExporter;
 import io.vertx.servicediscovery.spi.ServiceImporter;
 
@@ -56,8 +60,9 @@ import java.util.function.Function;
  * * release the service once the consumer is done with it
  * * listen for arrival, departure and modification of services.
  * <p>
- * Consumer would 1) lookup for service record matching their need, 2) retrieve the {@link ServiceReference} that give access
- * to the service, 3) get a service object to access the service, 4) release the service object once done.
+ * Consumer would 1) lookup for service record matching their need, 2) retrieve the {@link ServiceReference} that
+ * give access to the service, 3) get a service object to access the service, 4) release the service object once
+ * done.
  * <p>
  * A state above, the central piece of information shared by the providers and consumers are {@link Record records}.
  * <p>
@@ -159,6 +164,92 @@ public interface ServiceDiscovery {
    */
   void unpublish(String id, Handler<AsyncResult<Void>> resultHandler);
 
+  /**
+   * Publishes a record with a lease: unless renewed using {@link #heartbeat(String, Handler)}, the record is
+   * un-published (and announced as {@code DOWN}) once the lease expires. The leases are tracked by a single service
+   * discovery instance (elected among the instances sharing the registry), and the lease duration is stored in the
+   * record metadata: the record expires even if the publishing instance is gone, and the heartbeats can be sent to
+   * any instance.
+   * <p>
+   * By default, leases are not supported and the operation fails with an {@link UnsupportedOperationException}.
+   *
+   * @param record        the record
+   * @param ttl           the duration of the lease in milliseconds, renewed by each heartbeat
+   * @param resultHandler handler called when the operation has completed (successfully or not). In case of success,
+   *                      the passed record has a registration id required to renew the lease, modify and un-register
+   *                      the service.
+   */
+  @GenIgnore
+  default void publish(Record record, long ttl, Handler<AsyncResult<Record>> resultHandler) {
+    resultHandler.handle(Future.failedFuture(new UnsupportedOperationException("Leases are not supported")));
+  }
+
+  /**
+   * Renews the lease of a record published with {@link #publish(Record, long, Handler)}. The lease is extended by its
+   * duration from now.
+   * <p>
+   * By default, leases are not supported and the operation fails with an {@link UnsupportedOperationException}.
+   *
+   * @param registration  the registration id
+   * @param resultHandler handler called when the operation has completed, failed if the record has no lease (not
+   *                      published with a lease, expired or un-published)
+   */
+  @GenIgnore
+  default void heartbeat(String registration, Handler<AsyncResult<Void>> resultHandler) {
+    resultHandler.handle(Future.failedFuture(new UnsupportedOperationException("Leases are not supported")));
+  }
+
+  /**
+   * Updates volatile metadata of a record (such as its load or weight) without updating the record. These hot fields
+   * are not written to the backend, and not announced as a record update: they are broadcast as a compact delta to the
+   * service discovery instances, which merge them into the metadata of the records they return. This is much cheaper
+   * than {@link #update(Record, Handler)} for fields changing often. The hot fields are dropped when the record is
+   * un-published or announced {@link io.vertx.servicediscovery.Status#DOWN}.
+   * <p>
+   * Instances created after an update only receive the following updates, so hot fields should be refreshed
+   * periodically. Lookup filters are applied on the merged metadata.
+   * <p>
+   * By default, hot metadata are not supported and the operation fails with an {@link UnsupportedOperationException}.
+   *
+   * @param registration  the registration id
+   * @param fields        the changed fields, a {@code null} value removing the field
+   * @param resultHandler handler called once the delta has been sent
+   */
+  @GenIgnore
+  default void updateHotMetadata(String registration, JsonObject fields, Handler<AsyncResult<Void>> resultHandler) {
+    resultHandler.handle(Future.failedFuture(new UnsupportedOperationException("Hot metadata are not supported")));
+  }
+
+  /**
+   * Gets the hot metadata of a registration (see {@link #updateHotMetadata(String, JsonObject, Handler)}), as received
+   * by this service discovery.
+   * <p>
+   * By default, hot metadata are not supported and this method returns {@code null}.
+   *
+   * @param registration the registration id
+   * @return the hot metadata, {@code null} if none
+   */
+  @GenIgnore
+  default JsonObject getHotMetadata(String registration) {
+    return null;
+  }
+
+  /**
+   * Registers a handler receiving the hot metadata deltas (a JSON object with the {@code registration} and the changed
+   * {@code fields}, a {@code null} field being removed). Deltas without {@code fields} are sent when a record is
+   * un-published.
+   * <p>
+   * By default, hot metadata are not supported: the returned consumer is not registered, and its completion handler
+   * is called with an {@link UnsupportedOperationException}.
+   *
+   * @param handler the handler
+   * @return the consumer, to unregister the handler
+   */
+  @GenIgnore
+  default MessageConsumer<JsonObject> hotMetadataDeltas(Handler<JsonObject> handler) {
+    return new UnregisteredMessageConsumer<>(new UnsupportedOperationException("Hot metadata are not supported"));
+  }
+
   /**
    * Lookups for a single record.
    * <p>
@@ -192,7 +283,8 @@ public interface ServiceDiscovery {
    * <p>
    * This method only looks for records with a {@code UP} status.
    *
-   * @param filter        the filter, must not be {@code null}. To return all records, use a function accepting all records
+   * @param filter        the filter, must not be {@code null}. To return all records, use a function accepting all
+   *                      records
    * @param resultHandler the result handler called when the lookup has been completed. When there are no matching
    *                      record, the operation succeed, but the async result has no result.
    */
@@ -207,7 +299,8 @@ public interface ServiceDiscovery {
    * Unlike {@link #getRecord(Function, Handler)}, this method may accept records with a {@code OUT OF SERVICE}
    * status, if the {@code includeOutOfService} parameter is set to {@code true}.
    *
-   * @param filter              the filter, must not be {@code null}. To return all records, use a function accepting all records
+   * @param filter              the filter, must not be {@code null}. To return all records, use a function
+   *                            accepting all records
    * @param includeOutOfService whether or not the filter accepts  {@code OUT OF SERVICE} records
    * @param resultHandler       the result handler called when the lookup has been completed. When there are no matching
    *                            record, the operation succeed, but the async result has no result.
@@ -234,7 +327,8 @@ public interface ServiceDiscovery {
    * <p>
    * This method only looks for records with a {@code UP} status.
    *
-   * @param filter        the filter, must not be {@code null}. To return all records, use a function accepting all records
+   * @param filter        the filter, must not be {@code null}. To return all records, use a function accepting all
+   *                      records
    * @param resultHandler handler called when the lookup has been completed. When there are no matching record, the
    *                      operation succeed, but the async result has an empty list as result.
    */
@@ -250,10 +344,11 @@ public interface ServiceDiscovery {
    * Unlike {@link #getRecords(Function, Handler)}, this method may accept records with a {@code OUT OF SERVICE}
    * status, if the {@code includeOutOfService} parameter is set to {@code true}.
    *
-   * @param filter              the filter, must not be {@code null}. To return all records, use a function accepting all records
+   * @param filter              the filter, must not be {@code null}. To return all records, use a function
+   *                            accepting all records
    * @param includeOutOfService whether or not the filter accepts  {@code OUT OF SERVICE} records
-   * @param resultHandler       handler called when the lookup has been completed. When there are no matching record, the
-   *                            operation succeed, but the async result has an empty list as result.
+   * @param resultHandler       handler called when the lookup has been completed. When there are no matching record,
+   *                            the operation succeed, but the async result has an empty list as result.
    */
   void getRecords(Function<Record, Boolean> filter, boolean includeOutOfService,
                   Handler<AsyncResult<List<Record>>> resultHandler);
@@ -266,11 +361,120 @@ public interface ServiceDiscovery {
    */
   void update(Record record, Handler<AsyncResult<Record>> resultHandler);
 
+  /**
+   * Writes and announces immediately the updates coalesced during the update debounce window (see
+   * {@link ServiceDiscoveryOptions#setUpdateDebounceWindow(long)}). Does nothing if there are no pending updates.
+   * <p>
+   * By default, updates are not coalesced, so there is nothing to flush.
+   *
+   * @param resultHandler handler called once the pending updates have been written, failed if one of them failed
+   */
+  @GenIgnore
+  default void flushUpdates(Handler<AsyncResult<Void>> resultHandler) {
+    // No pending updates by default.
+    resultHandler.handle(Future.succeededFuture());
+  }
+
   /**
    * @return the set of service references retrieved by this service discovery.
    */
   Set<ServiceReference> bindings();
 
+  /**
+   * Sets the handler called when the record of a service reference retrieved by this service discovery goes away
+   * (the record is un-published or its status is set to {@link Status#DOWN}). The handler is called once per
+   * reference. If {@link ServiceDiscoveryOptions#isReleaseOnDeparture()} is enabled, the reference is released after
+   * the handler has been called.
+   * <p>
+   * By default, departures are not tracked: the handler is ignored, and never called.
+   *
+   * @param handler the handler, {@code null} to unset the handler
+   * @return the current {@link ServiceDiscovery}
+   */
+  @GenIgnore
+  default ServiceDiscovery departureHandler(Handler<ServiceReference> handler) {
+    // Departures are not tracked by default.
+    return this;
+  }
+
+  /**
+   * Registers a {@link ServiceSelector} receiving the feedback (latency and failures) reported on the service
+   * references retrieved by this service discovery (see {@link ServiceReference#reportSuccess(long)} and
+   * {@link ServiceReference#reportFailure(long)}).
+   * <p>
+   * By default, feedback is not supported: the selector is ignored, and does not receive any feedback.
+   *
+   * @param selector the selector
+   * @return the current {@link ServiceDiscovery}
+   */
+  @GenIgnore
+  default ServiceDiscovery registerServiceSelector(ServiceSelector selector) {
+    // No feedback by default.
+    return this;
+  }
+
+  /**
+   * Unregisters a {@link ServiceSelector} registered with {@link #registerServiceSelector(ServiceSelector)}.
+   * <p>
+   * By default, feedback is not supported and this method does nothing.
+   *
+   * @param selector the selector
+   * @return the current {@link ServiceDiscovery}
+   */
+  @GenIgnore
+  default ServiceDiscovery unregisterServiceSelector(ServiceSelector selector) {
+    // No feedback by default.
+    return this;
+  }
+
+  /**
+   * Registers a handler receiving the records announced by the service discovery instances sharing the announce
+   * address (publications, updates and un-publications).
+   * <p>
+   * By default, announcements are not supported: the returned consumer is not registered, and its completion handler
+   * is called with an {@link UnsupportedOperationException}.
+   *
+   * @param handler the handler
+   * @return the message consumer, unregister it to stop receiving the announcements
+   */
+  @GenIgnore
+  default MessageConsumer<JsonObject> announcements(Handler<Record> handler) {
+    return new UnregisteredMessageConsumer<>(new UnsupportedOperationException("Announcements are not supported"));
+  }
+
+  /**
+   * @return the identifier of the node running this service discovery, {@code null} if unknown (the default).
+   */
+  @GenIgnore
+  default String getNodeId() {
+    return null;
+  }
+
+  /**
+   * @return the zone of this service discovery, {@code null} if not set or unknown (the default).
+   */
+  @GenIgnore
+  default String getZone() {
+    return null;
+  }
+
+  /**
+   * @return metrics about the backend, such as the utilization of its connection pool or the cache hits. The content
+   * depends on the backend, empty by default.
+   */
+  @GenIgnore
+  default JsonObject getBackendMetrics() {
+    return new JsonObject();
+  }
+
+  /**
+   * @return metrics about the service references, such as the number of live references. Empty by default.
+   */
+  @GenIgnore
+  default JsonObject getReferenceMetrics() {
+    return new JsonObject();
+  }
+
   /**
    * Release the service object retrieved using {@code get} methods from the service type interface.
    * It searches for the reference associated with the given object and release it.
@@ -30,11 +30,19 @@ public class ServiceDiscoveryOptions {
 
   public static final String DEFAULT_ANNOUNCE_ADDRESS = "vertx.discovery.announce";
   public static final String DEFAULT_USAGE_ADDRESS = "vertx.discovery.usage";
+  public static final long DEFAULT_DEPARTURE_CHECK_INTERVAL = 10000L;
 
   private String announceAddress = DEFAULT_ANNOUNCE_ADDRESS;
   private JsonObject backendConfiguration = new JsonObject();
   private String name = null;
   private String usageAddress = DEFAULT_USAGE_ADDRESS;
+  private boolean sharedReferences = false;
+  private boolean releaseOnDeparture = false;
+  private long departureCheckInterval = DEFAULT_DEPARTURE_CHECK_INTERVAL;
+  private long idleReferenceTimeout = 0;
+  private String zone = null;
+  private long updateDebounceWindow = 0;
+  private boolean deltaAnnouncements = false;
 
   /**
    * Creates a new instance of {@link ServiceDiscoveryOptions} using the default values.
@@ -53,6 +61,13 @@ public class ServiceDiscoveryOptions {
     this.backendConfiguration = other.backendConfiguration.copy();
     this.name = other.name;
     this.usageAddress = other.usageAddress;
+    this.sharedReferences = other.sharedReferences;
+    this.releaseOnDeparture = other.releaseOnDeparture;
+    this.departureCheckInterval = other.departureCheckInterval;
+    this.idleReferenceTimeout = other.idleReferenceTimeout;
+    this.zone = other.zone;
+    this.updateDebounceWindow = other.updateDebounceWindow;
+    this.deltaAnnouncements = other.deltaAnnouncements;
   }
 
   /**
@@ -158,4 +173,154 @@ public class ServiceDiscoveryOptions {
     this.usageAddress = usageAddress;
     return this;
   }
+
+  /**
+   * @return whether or not the service references are shared, {@code false} by default.
+   */
+  public boolean isSharedReferences() {
+    return sharedReferences;
+  }
+
+  /**
+   * Sets whether or not the service references are shared. When enabled, the references retrieved for the same
+   * registration and configuration share the same service object (such as the HTTP client and its connection pool).
+   * The service object is closed when the last reference using it is released.
+   *
+   * @param sharedReferences {@code true} to share the references
+   * @return the current {@link ServiceDiscoveryOptions}
+   */
+  public ServiceDiscoveryOptions setSharedReferences(boolean sharedReferences) {
+    this.sharedReferences = sharedReferences;
+    return this;
+  }
+
+  /**
+   * @return whether or not the service references are released when their record goes away, {@code false} by
+   * default.
+   */
+  public boolean isReleaseOnDeparture() {
+    return releaseOnDeparture;
+  }
+
+  /**
+   * Sets whether or not the service references are released when their record goes away (un-published or
+   * {@link Status#DOWN}). Departures are detected from the announcements, and checked periodically against the
+   * records (see {@link #setDepartureCheckInterval(long)}), so the references (and the clients, pools or consumers
+   * they hold) are released even if an announcement is missed.
+   *
+   * @param releaseOnDeparture {@code true} to release the references automatically
+   * @return the current {@link ServiceDiscoveryOptions}
+   */
+  public ServiceDiscoveryOptions setReleaseOnDeparture(boolean releaseOnDeparture) {
+    this.releaseOnDeparture = releaseOnDeparture;
+    return this;
+  }
+
+  /**
+   * @return the interval in milliseconds between two checks of the records of the service references.
+   */
+  public long getDepartureCheckInterval() {
+    return departureCheckInterval;
+  }
+
+  /**
+   * Sets the interval in milliseconds between two checks of the records of the service references. It bounds the
+   * time needed to detect the departure of a record when the announcement is missed. Only used when the departures
+   * are tracked (release on departure enabled, or departure handler set).
+   *
+   * @param departureCheckInterval the interval in milliseconds, must be strictly positive
+   * @return the current {@link ServiceDiscoveryOptions}
+   */
+  public ServiceDiscoveryOptions setDepartureCheckInterval(long departureCheckInterval) {
+    this.departureCheckInterval = departureCheckInterval;
+    return this;
+  }
+
+  /**
+   * @return the time in milliseconds after which an unused service reference is released, 0 (disabled) by default.
+   */
+  public long getIdleReferenceTimeout() {
+    return idleReferenceTimeout;
+  }
+
+  /**
+   * Sets the time in milliseconds after which a service reference whose service object has not been accessed is
+   * released. The idle references are checked every half of this time, so a reference is released between one and
+   * one and a half times this duration after its last access. If the holder accesses the reference again, it is bound
+   * again and a new service object is retrieved.
+   *
+   * @param idleReferenceTimeout the timeout in milliseconds, 0 to disable the eviction of idle references
+   * @return the current {@link ServiceDiscoveryOptions}
+   */
+  public ServiceDiscoveryOptions setIdleReferenceTimeout(long idleReferenceTimeout) {
+    this.idleReferenceTimeout = idleReferenceTimeout;
+    return this;
+  }
+
+  /**
+   * @return the zone (or rack, datacenter...) of the service discovery, {@code null} if not set.
+   */
+  public String getZone() {
+    return zone;
+  }
+
+  /**
+   * Sets the zone (or rack, datacenter...) in which the service discovery runs. When set, the published records are
+   * stamped with the node (the service discovery name, or the node id) and the zone they come from, in the
+   * {@code service.node} and {@code service.zone} metadata. These metadata are used to prefer the closest records
+   * (see {@link ServiceSelector#locality(ServiceDiscovery, ServiceSelector)}).
+   *
+   * @param zone the zone, {@code null} to not stamp the records
+   * @return the current {@link ServiceDiscoveryOptions}
+   */
+  public ServiceDiscoveryOptions setZone(String zone) {
+    this.zone = zone;
+    return this;
+  }
+
+  /**
+   * @return the time in milliseconds during which the updates of a record are coalesced, 0 (disabled) by default.
+   */
+  public long getUpdateDebounceWindow() {
+    return updateDebounceWindow;
+  }
+
+  /**
+   * Sets the time in milliseconds during which the updates of a record are coalesced. The window starts with the
+   * first update of the record: the updates received during the window are not written, only the latest state is
+   * written to the backend, passed to the exporters and announced at the end of the window. The handlers of all the
+   * coalesced updates are called once this state has been written, or failed if the record is un-published before.
+   * Use {@link ServiceDiscovery#flushUpdates(io.vertx.core.Handler)} to write the pending updates immediately.
+   *
+   * @param updateDebounceWindow the window in milliseconds, 0 to write each update immediately
+   * @return the current {@link ServiceDiscoveryOptions}
+   */
+  public ServiceDiscoveryOptions setUpdateDebounceWindow(long updateDebounceWindow) {
+    this.updateDebounceWindow = updateDebounceWindow;
+    return this;
+  }
+
+  /**
+   * @return whether or not the updates are announced as deltas, {@code false} by default.
+   */
+  public boolean isDeltaAnnouncements() {
+    return deltaAnnouncements;
+  }
+
+  /**
+   * Sets whether or not the updates are announced as deltas. When enabled, an update is also announced as a delta
+   * containing the registration, a revision and only the changed fields (see
+   * {@link io.vertx.servicediscovery.utils.RecordDeltas}) on the announce address suffixed with {@code .deltas}. The
+   * whole record is still announced on the announce address. The service discovery instances keep the latest state of
+   * the updated records to compute and apply the deltas, and read the record from the backend when their state is not
+   * the one the delta has been computed from (a missed revision, or a concurrent update by another instance). All the
+   * service discovery instances sharing the announce address should use the same setting.
+   *
+   * @param deltaAnnouncements {@code true} to announce the updates as deltas
+   * @return the current {@link ServiceDiscoveryOptions}
+   */
+  public ServiceDiscoveryOptions setDeltaAnnouncements(boolean deltaAnnouncements) {
+    this.deltaAnnouncements = deltaAnnouncements;
+    return this;
+  }
 }
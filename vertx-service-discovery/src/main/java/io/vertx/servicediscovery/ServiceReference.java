@@ -17,7 +17,11 @@
 package io.vertx.servicediscovery;
 
 import io.vertx.codegen.annotations.CacheReturn;
+import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.VertxGen;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 
 /**
  * Once a consumer has chosen a service, it builds a {@link ServiceReference} managing the binding with the chosen
@@ -47,6 +51,25 @@ public interface ServiceReference {
    */
   <T> T get();
 
+  /**
+   * Gets the object to access the service asynchronously. The creation of some service objects is expensive (such as
+   * a connection pool), and implementations may create them in a worker thread. By default, it calls {@link #get()}.
+   *
+   * @param resultHandler the handler receiving the service object, or the failure if it cannot be retrieved
+   * @param <T>           the type
+   */
+  @GenIgnore
+  default <T> void get(Handler<AsyncResult<T>> resultHandler) {
+    T svc;
+    try {
+      svc = get();
+    } catch (Exception e) {
+      resultHandler.handle(Future.failedFuture(e));
+      return;
+    }
+    resultHandler.handle(Future.succeededFuture(svc));
+  }
+
   /**
    * Gets the service object if already retrieved. It won't try to acquire the service object if not retrieved yet.
    *
@@ -55,6 +78,29 @@ public interface ServiceReference {
    */
   <T> T cached();
 
+  /**
+   * Reports a successful request sent to the service using this reference. The feedback is forwarded to the
+   * {@link ServiceSelector} registered on the service discovery, to select the records according to their latency
+   * and failures. By default it does nothing.
+   *
+   * @param latency the latency of the request, in nanoseconds
+   */
+  @GenIgnore
+  default void reportSuccess(long latency) {
+    // Do nothing by default.
+  }
+
+  /**
+   * Reports a failed request sent to the service using this reference. The feedback is forwarded to the
+   * {@link ServiceSelector} registered on the service discovery. By default it does nothing.
+   *
+   * @param latency the time spent until the failure, in nanoseconds
+   */
+  @GenIgnore
+  default void reportFailure(long latency) {
+    // Do nothing by default.
+  }
+
   /**
    * Releases the reference. Once released, the consumer must not use the reference anymore.
    * This method must be idempotent and defensive, as multiple call may happen.
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.impl.ConsistentHashSelector;
+import io.vertx.servicediscovery.impl.EwmaSelector;
+import io.vertx.servicediscovery.impl.LatencyAwareSelector;
+import io.vertx.servicediscovery.impl.LeastInFlightSelector;
+import io.vertx.servicediscovery.impl.LocalitySelector;
+import io.vertx.servicediscovery.impl.PowerOfTwoChoicesSelector;
+import io.vertx.servicediscovery.impl.RandomSelector;
+import io.vertx.servicediscovery.impl.RoundRobinSelector;
+import io.vertx.servicediscovery.impl.WeightedSelector;
+
+import java.util.List;
+
+/**
+ * Selects a record among several records providing the same service (for instance all the records returned by
+ * {@link ServiceDiscovery#getRecords(JsonObject, Handler)}). Selectors work with any type of service.
+ * <p>
+ * Some selectors use the outcome of the previous requests (number of in-flight requests, latency). The consumer
+ * reports them using {@link #onStart(Record)} and {@link #onComplete(Record, long, boolean)}. This state is kept per
+ * record, without locking, so selectors can be shared among event loops.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public interface ServiceSelector {
+
+  /**
+   * @return a selector selecting the records in turn.
+   */
+  static ServiceSelector roundRobin() {
+    return new RoundRobinSelector();
+  }
+
+  /**
+   * @return a selector selecting a random record.
+   */
+  static ServiceSelector random() {
+    return new RandomSelector();
+  }
+
+  /**
+   * @return a selector selecting the record with the least in-flight requests.
+   */
+  static ServiceSelector leastInFlight() {
+    return new LeastInFlightSelector();
+  }
+
+  /**
+   * @return a selector picking two random records, and selecting the one with the least in-flight requests.
+   */
+  static ServiceSelector powerOfTwoChoices() {
+    return new PowerOfTwoChoicesSelector();
+  }
+
+  /**
+   * @return a selector selecting a random record, proportionally to its weight (the {@code weight} entry of the
+   * metadata, 1 by default).
+   */
+  static ServiceSelector weighted() {
+    return new WeightedSelector();
+  }
+
+  /**
+   * @return a selector selecting the record with the lowest exponentially weighted moving average of the latency
+   * (multiplied by the number of in-flight requests).
+   */
+  static ServiceSelector ewma() {
+    return new EwmaSelector(EwmaSelector.DEFAULT_ALPHA);
+  }
+
+  /**
+   * Same as {@link #ewma()}, with the given smoothing factor.
+   *
+   * @param alpha the weight of the last latency, between 0 (excluded) and 1
+   * @return the selector
+   */
+  static ServiceSelector ewma(double alpha) {
+    return new EwmaSelector(alpha);
+  }
+
+  /**
+   * @return a selector selecting the records according to their latency (as {@link #ewma()}), and ejecting the
+   * outliers temporarily: records failing several times in a row, or much slower than the others. The ejection time
+   * grows exponentially when a record is ejected repeatedly.
+   */
+  static ServiceSelector latencyAware() {
+    return new LatencyAwareSelector(new JsonObject());
+  }
+
+  /**
+   * Same as {@link #latencyAware()}, with the given configuration. The configuration accepts:
+   * * {@code alpha}: the smoothing factor of the latency average (0.2 by default)
+   * * {@code consecutive-failures}: the number of consecutive failures ejecting a record (5 by default)
+   * * {@code latency-factor}: a record is ejected when its latency is greater than the average latency of the other
+   * records multiplied by this factor (3 by default, 0 to disable)
+   * * {@code ejection-time}: the base ejection time in ms (1000 by default), doubled on each successive ejection
+   * * {@code max-ejection-time}: the maximum ejection time in ms (60000 by default)
+   *
+   * @param configuration the configuration
+   * @return the selector
+   */
+  static ServiceSelector latencyAware(JsonObject configuration) {
+    return new LatencyAwareSelector(configuration);
+  }
+
+  /**
+   * @return a selector selecting the record associated with the key on a consistent hash ring, so a key is routed to
+   * the same record as long as it is available.
+   */
+  static ServiceSelector consistentHash() {
+    return new ConsistentHashSelector(ConsistentHashSelector.DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * Same as {@link #consistentHash()}, with the given number of virtual nodes per record.
+   *
+   * @param virtualNodes the number of virtual nodes per record
+   * @return the selector
+   */
+  static ServiceSelector consistentHash(int virtualNodes) {
+    return new ConsistentHashSelector(virtualNodes);
+  }
+
+  /**
+   * Creates a selector preferring the records published from the given node, then from the given zone. Among the
+   * closest records, the selection is delegated to the given selector. If none of the records of the node (or zone)
+   * can be selected (because they are not {@code UP}, or ejected by the delegate), the next level is used. The
+   * locality is read from the {@code service.node} and {@code service.zone} metadata, set when publishing if the
+   * zone is configured ({@link ServiceDiscoveryOptions#setZone(String)}).
+   *
+   * @param node     the node, optional
+   * @param zone     the zone, optional
+   * @param delegate the selector choosing among the closest records
+   * @return the selector
+   */
+  static ServiceSelector locality(String node, String zone, ServiceSelector delegate) {
+    return new LocalitySelector(node, zone, delegate);
+  }
+
+  /**
+   * Same as {@link #locality(String, String, ServiceSelector)}, using the node and zone of the given service
+   * discovery.
+   *
+   * @param discovery the service discovery
+   * @param delegate  the selector choosing among the closest records
+   * @return the selector
+   */
+  static ServiceSelector locality(ServiceDiscovery discovery, ServiceSelector delegate) {
+    return new LocalitySelector(discovery.getNodeId(), discovery.getZone(), delegate);
+  }
+
+  /**
+   * Selects a record.
+   *
+   * @param records the records, must not be modified while selecting
+   * @return the selected record, {@code null} if the list is empty
+   */
+  Record select(List<Record> records);
+
+  /**
+   * Selects a record for the given key. The key is used by the selectors routing requests per key (such as
+   * {@link #consistentHash()}), other selectors ignore it.
+   *
+   * @param records the records
+   * @param key     the key, may be {@code null}
+   * @return the selected record, {@code null} if the list is empty
+   */
+  default Record select(List<Record> records, String key) {
+    return select(records);
+  }
+
+  /**
+   * Looks for the records matching the filter, and selects one of them.
+   *
+   * @param discovery     the service discovery
+   * @param filter        the filter, optional
+   * @param key           the key, optional
+   * @param resultHandler the result handler, receiving {@code null} if there are no matching records
+   */
+  default void select(ServiceDiscovery discovery, JsonObject filter, String key,
+                      Handler<AsyncResult<Record>> resultHandler) {
+    discovery.getRecords(filter, ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      } else {
+        resultHandler.handle(Future.succeededFuture(select(ar.result(), key)));
+      }
+    });
+  }
+
+  /**
+   * Notifies the selector that a request is sent to the given record.
+   *
+   * @param record the record
+   */
+  default void onStart(Record record) {
+    // Do nothing by default.
+  }
+
+  /**
+   * Notifies the selector that a request sent to the given record has completed.
+   *
+   * @param record  the record
+   * @param latency the latency of the request, in nanoseconds
+   * @param failed  whether or not the request has failed
+   */
+  default void onComplete(Record record, long latency, boolean failed) {
+    // Do nothing by default.
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceSelector;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Base class of the {@link ServiceSelector} implementations. It keeps the statistics of each record (in-flight
+ * requests...) in a concurrent map, and updates them without locking. The statistics of records not used for a while
+ * are dropped.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+abstract class AbstractServiceSelector implements ServiceSelector {
+
+  /**
+   * The time (in ms) after which the statistics of an unused record are dropped.
+   */
+  static final long STATS_RETENTION = 60000;
+
+  private final ConcurrentMap<String, RecordStats> stats = new ConcurrentHashMap<>();
+  private volatile long nextPrune;
+
+  @Override
+  public Record select(List<Record> records) {
+    return select(records, null);
+  }
+
+  @Override
+  public Record select(List<Record> records, String key) {
+    if (records.isEmpty()) {
+      return null;
+    }
+    if (records.size() == 1) {
+      return records.get(0);
+    }
+    return doSelect(records, key);
+  }
+
+  /**
+   * Selects a record.
+   *
+   * @param records the records, at least 2
+   * @param key     the key, may be {@code null}
+   * @return the selected record
+   */
+  protected abstract Record doSelect(List<Record> records, String key);
+
+  @Override
+  public void onStart(Record record) {
+    RecordStats stats = stats(record);
+    stats.inFlight.incrementAndGet();
+    stats.lastUsed = System.currentTimeMillis();
+  }
+
+  @Override
+  public void onComplete(Record record, long latency, boolean failed) {
+    RecordStats stats = stats(record);
+    stats.inFlight.updateAndGet(count -> count > 0 ? count - 1 : 0);
+    stats.lastUsed = System.currentTimeMillis();
+    update(stats, latency, failed);
+  }
+
+  /**
+   * Updates the statistics of a record once a request has completed. Does nothing by default.
+   *
+   * @param stats   the statistics of the record
+   * @param latency the latency, in nanoseconds
+   * @param failed  whether or not the request has failed
+   */
+  protected void update(RecordStats stats, long latency, boolean failed) {
+    // Do nothing by default.
+  }
+
+  /**
+   * Checks whether the record can be selected. All records can be selected by default.
+   *
+   * @param record the record
+   * @return {@code true} if the record can be selected
+   */
+  boolean isAvailable(Record record) {
+    return true;
+  }
+
+  /**
+   * Gets the statistics of a record, creating them if needed.
+   *
+   * @param record the record
+   * @return the statistics
+   */
+  RecordStats stats(Record record) {
+    String key = key(record);
+    RecordStats current = stats.get(key);
+    if (current == null) {
+      prune();
+      current = new RecordStats();
+      RecordStats previous = stats.putIfAbsent(key, current);
+      if (previous != null) {
+        current = previous;
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Gets the statistics of a record, without creating them.
+   *
+   * @param record the record
+   * @return the statistics, {@code null} if none
+   */
+  RecordStats peek(Record record) {
+    return stats.get(key(record));
+  }
+
+  /**
+   * @return the number of in-flight requests of the record.
+   */
+  int inFlight(Record record) {
+    RecordStats current = peek(record);
+    return current == null ? 0 : current.inFlight.get();
+  }
+
+  private void prune() {
+    long now = System.currentTimeMillis();
+    if (now < nextPrune) {
+      return;
+    }
+    nextPrune = now + STATS_RETENTION;
+    stats.values().removeIf(current -> current.inFlight.get() == 0 && now - current.lastUsed > STATS_RETENTION);
+  }
+
+  static String key(Record record) {
+    return record.getRegistration() != null ? record.getRegistration() : record.getLocation().encode();
+  }
+}
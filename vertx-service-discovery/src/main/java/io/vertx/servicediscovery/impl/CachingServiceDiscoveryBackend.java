@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.spi.ServiceDiscoveryBackend;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link ServiceDiscoveryBackend} decorator keeping a near-cache of the records in front of the wrapped backend.
+ * <p>
+ * The cache holds at most {@code max-size} records (the least recently used ones are evicted), and the list of all
+ * the records if it does not contain more than {@code max-size} records. Lookups served from the cached list only copy
+ * the records accepted by their filter. When the list is too large to be cached, the filters of the lookups are passed
+ * to the wrapped backend. Entries expire after {@code ttl} milliseconds. The writes made through this backend update
+ * the cache, while the announcements (sent on the announce address by all the members of the cluster) invalidate it.
+ * So the {@code ttl} bounds the staleness of the cache when an announcement is missed.
+ * <p>
+ * This decorator is enabled by adding a {@code cache} object to the backend configuration. This object supports:
+ * <ul>
+ * <li>{@code max-size}: the maximum number of records kept in the cache, 1000 by default</li>
+ * <li>{@code ttl}: the time in milliseconds after which an entry expires, 5000 by default</li>
+ * </ul>
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class CachingServiceDiscoveryBackend implements ServiceDiscoveryBackend {
+
+  private final ServiceDiscoveryBackend delegate;
+  private final String announce;
+
+  private Map<String, CachedRecord> entries;
+  private List<Record> all;
+  private long allExpiration;
+  // Until then, the list of all the records is known to be too large to be cached, lookups are not served from it
+  private long uncacheableUntil;
+  // Incremented on every invalidation, to avoid caching the result of a read started before the invalidation
+  private long generation;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  private int maxSize;
+  private long ttl;
+  private MessageConsumer<JsonObject> consumer;
+
+  /**
+   * Creates a new instance of {@link CachingServiceDiscoveryBackend}.
+   *
+   * @param delegate the wrapped backend
+   * @param announce the announce address, used to invalidate the cache
+   */
+  public CachingServiceDiscoveryBackend(ServiceDiscoveryBackend delegate, String announce) {
+    this.delegate = Objects.requireNonNull(delegate);
+    this.announce = Objects.requireNonNull(announce);
+  }
+
+  @Override
+  public String name() {
+    return delegate.name();
+  }
+
+  @Override
+  public void init(Vertx vertx, JsonObject config) {
+    init(vertx, config, ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS);
+  }
+
+  @Override
+  public void init(Vertx vertx, JsonObject config, String address) {
+    delegate.init(vertx, config, address);
+    JsonObject conf = config.getJsonObject("cache", new JsonObject());
+    maxSize = conf.getInteger("max-size", 1000);
+    ttl = conf.getLong("ttl", 5000L);
+    entries = new LinkedHashMap<String, CachedRecord>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedRecord> eldest) {
+        if (size() > maxSize) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+    consumer = vertx.eventBus().consumer(announce, this::onAnnounce);
+  }
+
+  private void onAnnounce(Message<JsonObject> message) {
+    Record record = new Record(message.body());
+    synchronized (this) {
+      generation++;
+      all = null;
+      if (record.getRegistration() != null) {
+        entries.remove(record.getRegistration());
+      } else {
+        // Publications and removals are announced without registration, use the location
+        Iterator<CachedRecord> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+          Record cached = iterator.next().record;
+          if (Objects.equals(cached.getName(), record.getName())
+              && Objects.equals(cached.getLocation(), record.getLocation())) {
+            iterator.remove();
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void store(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    delegate.store(record, ar -> {
+      if (ar.succeeded()) {
+        put(ar.result());
+      }
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public void remove(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
+    remove(record.getRegistration(), resultHandler);
+  }
+
+  @Override
+  public void remove(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    invalidate(uuid);
+    delegate.remove(uuid, ar -> {
+      invalidate(uuid);
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public void update(Record record, Handler<AsyncResult<Void>> resultHandler) {
+    invalidate(record.getRegistration());
+    delegate.update(record, ar -> {
+      if (ar.succeeded()) {
+        put(record);
+      } else {
+        invalidate(record.getRegistration());
+      }
+      resultHandler.handle(ar);
+    });
+  }
+
+  @Override
+  public void getRecords(Handler<AsyncResult<List<Record>>> resultHandler) {
+    getRecords(null, resultHandler);
+  }
+
+  @Override
+  public void getRecords(Function<Record, Boolean> filter, Handler<AsyncResult<List<Record>>> resultHandler) {
+    List<Record> cached;
+    boolean pushDown;
+    long gen;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      cached = all != null && allExpiration > now ? all : null;
+      if (cached != null) {
+        hits++;
+      } else {
+        misses++;
+        all = null;
+      }
+      pushDown = filter != null && uncacheableUntil > now;
+      gen = generation;
+    }
+    if (cached != null) {
+      // The cached list is replaced, never modified. The filters don't modify the records, so only copy the accepted
+      // ones.
+      resultHandler.handle(Future.succeededFuture(copy(cached, filter)));
+      return;
+    }
+    if (pushDown) {
+      // The list would not be cached anyway, let the wrapped backend avoid reading the records that are not accepted
+      delegate.getRecords(filter, resultHandler);
+      return;
+    }
+    delegate.getRecords(ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+        return;
+      }
+      List<Record> records = ar.result();
+      // Larger lists are not cached, so the cache holds at most twice max-size records
+      if (records.size() <= maxSize) {
+        List<Record> copy = copy(records, null);
+        synchronized (this) {
+          uncacheableUntil = 0;
+          if (gen == generation) {
+            all = copy;
+            allExpiration = System.currentTimeMillis() + ttl;
+          }
+        }
+      } else {
+        synchronized (this) {
+          // Checked again once the ttl has elapsed
+          uncacheableUntil = System.currentTimeMillis() + ttl;
+        }
+      }
+      resultHandler.handle(Future.succeededFuture(filter == null ? records
+          : records.stream().filter(filter::apply).collect(Collectors.toList())));
+    });
+  }
+
+  @Override
+  public void getRecord(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    Record cached = null;
+    long gen;
+    synchronized (this) {
+      CachedRecord entry = entries.get(uuid);
+      if (entry != null && entry.expiration > System.currentTimeMillis()) {
+        hits++;
+        cached = new Record(entry.record.toJson());
+      } else {
+        misses++;
+        if (entry != null) {
+          entries.remove(uuid);
+        }
+      }
+      gen = generation;
+    }
+    if (cached != null) {
+      // Called outside of the lock, the handler may use the backend
+      resultHandler.handle(Future.succeededFuture(cached));
+      return;
+    }
+    delegate.getRecord(uuid, ar -> {
+      if (ar.succeeded() && ar.result() != null) {
+        synchronized (this) {
+          if (gen == generation) {
+            entries.put(uuid, new CachedRecord(new Record(ar.result().toJson()), System.currentTimeMillis() + ttl));
+          }
+        }
+      }
+      resultHandler.handle(ar);
+    });
+  }
+
+  private synchronized void put(Record record) {
+    generation++;
+    all = null;
+    entries.put(record.getRegistration(),
+        new CachedRecord(new Record(record.toJson()), System.currentTimeMillis() + ttl));
+  }
+
+  private synchronized void invalidate(String uuid) {
+    generation++;
+    all = null;
+    entries.remove(uuid);
+  }
+
+  private static List<Record> copy(List<Record> records, Function<Record, Boolean> filter) {
+    List<Record> copy = new ArrayList<>();
+    for (Record record : records) {
+      if (filter == null || filter.apply(record)) {
+        copy.add(new Record(record.toJson()));
+      }
+    }
+    return copy;
+  }
+
+  @Override
+  public void renew(String uuid, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.renew(uuid, resultHandler);
+  }
+
+  /**
+   * @return metrics about the cache: number of cached records, number of records in the cached list, hits, misses and
+   * evictions (of the least recently used records), and the metrics of the wrapped backend ({@code backend}).
+   */
+  @Override
+  public synchronized JsonObject metrics() {
+    return new JsonObject()
+        .put("size", entries.size())
+        .put("list-size", all == null ? 0 : all.size())
+        .put("hits", hits)
+        .put("misses", misses)
+        .put("evictions", evictions)
+        .put("backend", delegate.metrics());
+  }
+
+  @Override
+  public void close() {
+    if (consumer != null) {
+      consumer.unregister();
+      consumer = null;
+    }
+    delegate.close();
+  }
+
+  private static class CachedRecord {
+    private final Record record;
+    private final long expiration;
+
+    private CachedRecord(Record record, long expiration) {
+      this.record = record;
+      this.expiration = expiration;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selects the record associated with a key on a consistent hash ring (see {@link HashRing}), so a key is routed to the
+ * same record as long as it is available. Records are identified by name and location, so the routing does not change
+ * when a service is published again.
+ * <p>
+ * The ring is updated incrementally when the set of records changes: only the added, removed and modified records
+ * (new instances for the same name and location) are processed, so the ring always returns the passed instances.
+ * The node identifiers are computed once per record instance. Selections without key pick a random record.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class ConsistentHashSelector extends AbstractServiceSelector {
+
+  /**
+   * The default number of virtual nodes per record.
+   */
+  public static final int DEFAULT_VIRTUAL_NODES = 100;
+
+  private final HashRing ring;
+
+  // The node identifiers of the record instances in the ring. Replaced, never modified.
+  private volatile Map<Record, String> nodes = Collections.emptyMap();
+
+  public ConsistentHashSelector(int virtualNodes) {
+    this.ring = new HashRing(virtualNodes);
+  }
+
+  @Override
+  protected Record doSelect(List<Record> records, String key) {
+    if (key == null) {
+      return records.get(ThreadLocalRandom.current().nextInt(records.size()));
+    }
+    if (!matches(records)) {
+      update(records);
+    }
+    Record selected = ring.get(key);
+    return selected != null ? selected : records.get(0);
+  }
+
+  /**
+   * Checks whether the ring contains exactly the given record instances, without allocating.
+   */
+  private boolean matches(List<Record> records) {
+    Map<Record, String> current = nodes;
+    if (records.size() != current.size()) {
+      return false;
+    }
+    for (Record record : records) {
+      if (!current.containsKey(record)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized void update(List<Record> records) {
+    Map<Record, String> current = nodes;
+    Map<Record, String> updated = new IdentityHashMap<>();
+    Set<String> ids = new HashSet<>();
+    for (Record record : records) {
+      String node = current.get(record);
+      if (node == null) {
+        node = HashRing.node(record);
+      }
+      updated.put(record, node);
+      ids.add(node);
+      if (ring.nodes().get(node) != record) {
+        // Added, or replaced by a new instance (keeping its positions on the ring)
+        ring.add(node, record);
+      }
+    }
+    for (String node : ring.nodes().keySet()) {
+      if (!ids.contains(node)) {
+        ring.remove(node);
+      }
+    }
+    nodes = updated;
+  }
+}
@@ -17,18 +17,27 @@
 package io.vertx.servicediscovery.impl;
 
 import io.vertx.core.*;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.impl.VertxInternal;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.Lock;
 import io.vertx.servicediscovery.*;
 import io.vertx.servicediscovery.spi.ServiceDiscoveryBackend;
 import io.vertx.servicediscovery.spi.ServiceExporter;
 import io.vertx.servicediscovery.spi.ServiceImporter;
 import io.vertx.servicediscovery.spi.ServicePublisher;
+import io.vertx.servicediscovery.types.AbstractServiceReference;
+import io.vertx.servicediscovery.utils.RecordDeltas;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -44,9 +53,61 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
 
   private final Set<ServiceImporter> importers = new CopyOnWriteArraySet<>();
   private final Set<ServiceExporter> exporters = new CopyOnWriteArraySet<>();
-  private final Set<ServiceReference> bindings = new CopyOnWriteArraySet<>();
+  private final Set<ServiceSelector> selectors = new CopyOnWriteArraySet<>();
+  private final Set<ServiceReference> bindings = ConcurrentHashMap.newKeySet();
+  // Number of bindings per registration, entries are removed when the count reaches 0
+  private final Map<String, Integer> bindingCounts = new ConcurrentHashMap<>();
+  private final ReferenceCache references;
+  // References whose departure has already been notified
+  private final Set<ServiceReference> departed = ConcurrentHashMap.newKeySet();
+  private final boolean releaseOnDeparture;
+  private final long departureCheckInterval;
+  private volatile Handler<ServiceReference> departureHandler;
+  private MessageConsumer<JsonObject> departureConsumer;
+  private long departureTimer = -1;
+  // Last time (ms) the references have been seen accessed, only used when the idle references are evicted
+  private final Map<ServiceReference, Long> lastAccesses = new ConcurrentHashMap<>();
+  private final long idleReferenceTimeout;
+  private final AtomicLong evicted = new AtomicLong();
+  private long idleTimer = -1;
   private final static Logger LOGGER = LoggerFactory.getLogger(DiscoveryImpl.class.getName());
   private final String id;
+  private final String zone;
+
+  /**
+   * The metadata entry storing the lease duration (in milliseconds) of the records published with a lease.
+   */
+  public static final String LEASE_TTL = "service.lease.ttl";
+
+  private static final long LEASE_TICK = 100;
+  private static final int LEASE_SLOTS = 512;
+  private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+  private TimingWheel wheel;
+  private long leaseTimer = -1;
+  private static final long REAPER_LOCK_TIMEOUT = 10000;
+  private final String leaseAddress;
+  // Only the reaper (the instance holding the lock named after the lease address) tracks and expires the leases,
+  // guarded by the monitor lock
+  private Lock reaperLock;
+  private MessageConsumer<JsonObject> leaseConsumer;
+  private boolean stopped;
+
+  private final String hotAddress;
+  // Copy-on-write: the hot metadata of a registration is replaced, never modified
+  private final Map<String, JsonObject> hotMetadata = new ConcurrentHashMap<>();
+  private final MessageConsumer<JsonObject> hotMetadataConsumer;
+  // Drops the hot metadata of the departed records
+  private final MessageConsumer<JsonObject> downConsumer;
+
+  private final long updateDebounceWindow;
+  // Pending (coalesced) updates per registration, guarded by the monitor lock
+  private final Map<String, PendingUpdate> pendingUpdates = new HashMap<>();
+
+  private final boolean deltaAnnouncements;
+  private final String deltaAddress;
+  // The latest known state of the updated records, to compute and apply the announced deltas
+  private final Map<String, Replica> replicas = new ConcurrentHashMap<>();
+  private final MessageConsumer<JsonObject> replicaConsumer;
 
 
   public DiscoveryImpl(Vertx vertx, ServiceDiscoveryOptions options) {
@@ -54,11 +115,32 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
     this.announce = options.getAnnounceAddress();
     this.usage = options.getUsageAddress();
 
-    this.backend = getBackend(options.getBackendConfiguration().getString("backend-name", null));
-    this.backend.init(vertx, options.getBackendConfiguration());
+    this.backend = decorate(getBackend(options.getBackendConfiguration().getString("backend-name", null)),
+        options.getBackendConfiguration());
+    this.backend.init(vertx, options.getBackendConfiguration(), announce);
 
     this.id = options.getName() != null ? options.getName() : getNodeId(vertx);
-
+    this.zone = options.getZone();
+    this.hotAddress = announce + ".metadata";
+    this.hotMetadataConsumer = vertx.eventBus().consumer(hotAddress, message -> applyHotMetadata(message.body()));
+    this.downConsumer = vertx.eventBus().consumer(announce, message -> onDeparture(message.body()));
+    this.leaseAddress = announce + ".leases";
+    electReaper();
+    this.updateDebounceWindow = options.getUpdateDebounceWindow();
+    this.deltaAnnouncements = options.isDeltaAnnouncements();
+    this.deltaAddress = announce + ".deltas";
+    this.replicaConsumer = deltaAnnouncements
+        ? vertx.eventBus().consumer(deltaAddress, message -> onReplicaAnnounce(message.body())) : null;
+    this.references = options.isSharedReferences() ? new ReferenceCache() : null;
+    this.releaseOnDeparture = options.isReleaseOnDeparture();
+    this.departureCheckInterval = options.getDepartureCheckInterval();
+    if (releaseOnDeparture) {
+      trackDepartures();
+    }
+    this.idleReferenceTimeout = options.getIdleReferenceTimeout();
+    if (idleReferenceTimeout > 0) {
+      idleTimer = vertx.setPeriodic(Math.max(1, idleReferenceTimeout / 2), l -> evictIdleReferences());
+    }
   }
 
   private String getNodeId(Vertx vertx) {
@@ -69,6 +151,16 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
     }
   }
 
+  private ServiceDiscoveryBackend decorate(ServiceDiscoveryBackend backend, JsonObject config) {
+    if (config.getJsonObject("write-behind") != null) {
+      backend = new WriteBehindServiceDiscoveryBackend(backend);
+    }
+    if (config.getJsonObject("cache") != null) {
+      backend = new CachingServiceDiscoveryBackend(backend, announce);
+    }
+    return backend;
+  }
+
   private ServiceDiscoveryBackend getBackend(String maybeName) {
     ServiceLoader<ServiceDiscoveryBackend> backends = ServiceLoader.load(ServiceDiscoveryBackend.class);
     Iterator<ServiceDiscoveryBackend> iterator = backends.iterator();
@@ -85,6 +177,14 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
       return new DefaultServiceDiscoveryBackend();
     }
 
+    if (maybeName.equals(PersistentServiceDiscoveryBackend.class.getName())) {
+      return new PersistentServiceDiscoveryBackend();
+    }
+
+    if (maybeName.equals(OffHeapServiceDiscoveryBackend.class.getName())) {
+      return new OffHeapServiceDiscoveryBackend();
+    }
+
     // We have a name
     while (iterator.hasNext()) {
       ServiceDiscoveryBackend backend = iterator.next();
@@ -105,8 +205,16 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
 
   @Override
   public ServiceReference getReferenceWithConfiguration(Record record, JsonObject configuration) {
-    ServiceReference reference = ServiceTypes.get(record).get(vertx, this, record, configuration);
-    bindings.add(reference);
+    ServiceReference reference;
+    if (references != null && record.getRegistration() != null) {
+      JsonObject conf = configuration == null ? new JsonObject() : configuration;
+      String key = ReferenceCache.key(record, conf);
+      reference = new SharedServiceReference(this, references, key,
+          () -> ServiceTypes.get(record).get(vertx, this, record, conf));
+    } else {
+      reference = ServiceTypes.get(record).get(vertx, this, record, configuration);
+    }
+    bind(reference);
     sendBindEvent(reference);
     return reference;
   }
@@ -123,7 +231,7 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
 
   @Override
   public boolean release(ServiceReference reference) {
-    boolean removed = bindings.remove(reference);
+    boolean removed = removeBinding(reference);
     reference.release();
     sendUnbindEvent(reference);
     return removed;
@@ -175,27 +283,77 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
   @Override
   public void close() {
     LOGGER.info("Stopping service discovery");
-    List<Future> futures = new ArrayList<>();
+    List<Future<Void>> futures = new ArrayList<>();
     for (ServiceImporter importer : importers) {
       Future<Void> future = Future.future();
       importer.stop(vertx, this, future);
       futures.add(future);
     }
-    for (ServiceExporter exporter : exporters) {
-      Future<Void> future = Future.future();
-      exporter.close(future::complete);
-      futures.add(future);
+
+    synchronized (this) {
+      if (departureConsumer != null) {
+        departureConsumer.unregister();
+        departureConsumer = null;
+        vertx.cancelTimer(departureTimer);
+      }
+    }
+    if (idleTimer != -1) {
+      vertx.cancelTimer(idleTimer);
+    }
+    synchronized (this) {
+      if (leaseTimer != -1) {
+        vertx.cancelTimer(leaseTimer);
+        leaseTimer = -1;
+      }
+      wheel = null;
+      leases.clear();
+      stopped = true;
+      if (reaperLock != null) {
+        leaseConsumer.unregister();
+        leaseConsumer = null;
+        reaperLock.release();
+        reaperLock = null;
+      }
     }
 
     bindings.forEach(ServiceReference::release);
     bindings.clear();
+    bindingCounts.clear();
+    departed.clear();
+    lastAccesses.clear();
+    if (references != null) {
+      references.clear();
+    }
 
-    CompositeFuture.all(futures).setHandler(ar -> {
-      if (ar.succeeded()) {
-        LOGGER.info("Discovery bridges stopped");
-      } else {
-        LOGGER.warn("Some discovery bridges did not stopped smoothly", ar.cause());
+    hotMetadataConsumer.unregister();
+    downConsumer.unregister();
+    hotMetadata.clear();
+    if (replicaConsumer != null) {
+      replicaConsumer.unregister();
+    }
+    replicas.clear();
+
+    // Write the pending updates (notifying the exporters) before closing the exporters and the backend
+    flushUpdates(flushed -> {
+      if (flushed.failed()) {
+        LOGGER.warn("Some pending updates have not been written", flushed.cause());
       }
+      for (ServiceExporter exporter : exporters) {
+        Future<Void> future = Future.future();
+        exporter.close(future::complete);
+        futures.add(future);
+      }
+
+      backend.close();
+
+      // CompositeFuture.all takes a raw list
+      CompositeFuture.all(new ArrayList<>(futures)).setHandler(ar -> {
+        if (ar.succeeded()) {
+          LOGGER.info("Discovery bridges stopped");
+        } else {
+          LOGGER.warn("Some discovery bridges did not stopped smoothly", ar.cause());
+        }
+      });
     });
   }
 
@@ -206,19 +364,332 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
         && record.getStatus() != Status.DOWN
         ? record.getStatus() : Status.UP;
 
-    backend.store(record.setStatus(status), resultHandler);
+    record.setStatus(status);
+    // The locality is stamped on a copy, the record of the caller only receives its registration
+    Record published = zone != null ? stampLocality(new Record(record.toJson())) : record;
+    Handler<AsyncResult<Record>> completion = published == record ? resultHandler : ar -> {
+      if (ar.succeeded()) {
+        record.setRegistration(ar.result().getRegistration());
+      }
+      resultHandler.handle(ar);
+    };
+    if (deltaAnnouncements) {
+      // Publications are announced without registration, keep the first revision of the record here
+      backend.store(published, ar -> {
+        if (ar.succeeded()) {
+          // Unless already updated in the meantime
+          replicas.putIfAbsent(ar.result().getRegistration(), new Replica(0, ar.result().toJson()));
+        }
+        completion.handle(ar);
+      });
+    } else {
+      backend.store(published, completion);
+    }
     for (ServiceExporter exporter : exporters) {
-      exporter.onPublish(new Record(record));
+      exporter.onPublish(new Record(published));
     }
-    Record announcedRecord = new Record(record);
+    Record announcedRecord = new Record(published);
     announcedRecord
         .setRegistration(null)
         .setStatus(status);
     vertx.eventBus().publish(announce, announcedRecord.toJson());
   }
 
+  private Record stampLocality(Record record) {
+    JsonObject metadata = record.getMetadata() == null ? new JsonObject() : record.getMetadata();
+    record.setMetadata(metadata);
+    // Keep the locality of imported records
+    if (!metadata.containsKey(LocalitySelector.NODE)) {
+      metadata.put(LocalitySelector.NODE, id);
+    }
+    if (!metadata.containsKey(LocalitySelector.ZONE)) {
+      metadata.put(LocalitySelector.ZONE, zone);
+    }
+    return record;
+  }
+
+  @Override
+  public String getNodeId() {
+    return id;
+  }
+
+  @Override
+  public String getZone() {
+    return zone;
+  }
+
+  @Override
+  public void publish(Record record, long ttl, Handler<AsyncResult<Record>> resultHandler) {
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("The lease duration must be positive");
+    }
+    // The lease duration is stored in the record, so a newly elected reaper can track the lease
+    JsonObject metadata = record.getMetadata() == null ? new JsonObject() : record.getMetadata().copy();
+    record.setMetadata(metadata.put(LEASE_TTL, ttl));
+    publish(record, ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(ar);
+        return;
+      }
+      renewLease(ar.result().getRegistration(), ttl, x -> {
+        if (x.failed()) {
+          LOGGER.warn("Cannot start the lease of " + ar.result().getRegistration(), x.cause());
+        }
+        resultHandler.handle(ar);
+      });
+    });
+  }
+
+  @Override
+  public void heartbeat(String registration, Handler<AsyncResult<Void>> resultHandler) {
+    // Renew the lease of the backend too (if it expires the records itself)
+    backend.renew(registration, renewed -> renewLease(registration, null, ar -> {
+      if (ar.failed() && renewed.succeeded()) {
+        // Only leased by the backend
+        resultHandler.handle(Future.succeededFuture());
+      } else {
+        resultHandler.handle(ar);
+      }
+    }));
+  }
+
+  /**
+   * Reads the lease duration of a record, whatever its status: a leased record put out of service (by a health
+   * checker for instance) still expires if its publisher stops renewing it.
+   */
+  private static long getLeaseDuration(Record record) {
+    if (record == null || record.getMetadata() == null) {
+      return -1;
+    }
+    Object ttl = record.getMetadata().getValue(LEASE_TTL);
+    return ttl instanceof Number ? ((Number) ttl).longValue() : -1;
+  }
+
+  /**
+   * Tries to become the reaper of the leases. A single service discovery instance, holding the lock named after the
+   * lease address, tracks and expires the leases: the heartbeats are sent to this instance only, and an expired
+   * record is un-published once. When the reaper is closed (or its node leaves the cluster), another instance takes
+   * the lock over, and tracks the leases of the published records.
+   */
+  private void electReaper() {
+    vertx.sharedData().getLockWithTimeout(leaseAddress, REAPER_LOCK_TIMEOUT, ar -> {
+      synchronized (this) {
+        if (ar.succeeded() && stopped) {
+          ar.result().release();
+          return;
+        }
+        if (ar.succeeded()) {
+          reaperLock = ar.result();
+          leaseConsumer = vertx.eventBus().consumer(leaseAddress, this::onLeaseRenewal);
+        } else if (stopped) {
+          return;
+        }
+      }
+      if (ar.succeeded()) {
+        trackLeases();
+      } else {
+        // Another instance is the reaper, keep waiting
+        electReaper();
+      }
+    });
+  }
+
+  /**
+   * Tracks the leases of the records already published, once elected reaper.
+   */
+  private void trackLeases() {
+    backend.getRecords(r -> getLeaseDuration(r) > 0, ar -> {
+      if (ar.failed()) {
+        LOGGER.warn("Cannot retrieve the leased records", ar.cause());
+        return;
+      }
+      for (Record record : ar.result()) {
+        lease(record.getRegistration(), getLeaseDuration(record));
+      }
+    });
+  }
+
+  /**
+   * Starts (when the lease duration is given) or renews a lease, on the reaper. Without reaper (not elected yet), the
+   * record is checked: the reaper tracks the leases of the published records once elected.
+   */
+  private void renewLease(String registration, Long ttl, Handler<AsyncResult<Void>> resultHandler) {
+    JsonObject renewal = new JsonObject().put("registration", registration);
+    if (ttl != null) {
+      renewal.put("ttl", ttl);
+    }
+    vertx.eventBus().<JsonObject>send(leaseAddress, renewal, reply -> {
+      if (reply.succeeded()) {
+        resultHandler.handle(Future.succeededFuture());
+      } else if (reply.cause() instanceof ReplyException
+          && ((ReplyException) reply.cause()).failureType() == ReplyFailure.NO_HANDLERS) {
+        checkLease(registration, resultHandler);
+      } else {
+        resultHandler.handle(Future.failedFuture(reply.cause()));
+      }
+    });
+  }
+
+  /**
+   * Handles the lease renewals, on the reaper. The renewals without lease duration (heartbeats) renew the tracked
+   * lease, or read the lease duration from the record if not tracked.
+   */
+  private void onLeaseRenewal(Message<JsonObject> message) {
+    String registration = message.body().getString("registration");
+    Long ttl = message.body().getLong("ttl");
+    if (registration == null) {
+      message.fail(400, "No registration");
+      return;
+    }
+    if (ttl == null) {
+      Lease lease = leases.get(registration);
+      ttl = lease == null ? null : lease.ttl;
+    }
+    if (ttl != null && ttl > 0) {
+      // The deadline is computed from the local clock, so the clocks of the nodes don't need to be synchronized
+      lease(registration, ttl);
+      message.reply(null);
+      return;
+    }
+    checkLease(registration, ar -> {
+      if (ar.failed()) {
+        message.fail(404, ar.cause().getMessage());
+      } else {
+        message.reply(null);
+      }
+    });
+  }
+
+  /**
+   * Checks that a record has a lease, and tracks it if this instance is the reaper.
+   */
+  private void checkLease(String registration, Handler<AsyncResult<Void>> resultHandler) {
+    backend.getRecord(registration, ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+        return;
+      }
+      long ttl = getLeaseDuration(ar.result());
+      if (ttl <= 0) {
+        resultHandler.handle(Future.failedFuture("No lease for the registration " + registration));
+        return;
+      }
+      synchronized (this) {
+        if (reaperLock != null) {
+          lease(registration, ttl);
+        }
+      }
+      resultHandler.handle(Future.succeededFuture());
+    });
+  }
+
+  private synchronized void lease(String registration, long ttl) {
+    long now = System.currentTimeMillis();
+    Lease previous = leases.get(registration);
+    if (previous != null && previous.ttl == ttl && !previous.entry.isCancelled()) {
+      // Push back the deadline, the entry moves to its new slot lazily
+      previous.entry.renew(Math.max(previous.entry.deadline(), now + ttl));
+      return;
+    }
+    if (wheel == null) {
+      wheel = new TimingWheel(LEASE_TICK, LEASE_SLOTS, now);
+      leaseTimer = vertx.setPeriodic(LEASE_TICK, l -> expireLeases());
+    }
+    leases.put(registration, new Lease(ttl, wheel.schedule(registration, now + ttl)));
+    if (previous != null) {
+      previous.entry.cancel();
+    }
+  }
+
+  private synchronized void reschedule(String registration, Lease lease) {
+    if (wheel != null) {
+      // Keep the renewed deadline
+      leases.replace(registration, lease,
+          new Lease(lease.ttl, wheel.schedule(registration, lease.entry.deadline())));
+    }
+  }
+
+  private void expireLeases() {
+    long now = System.currentTimeMillis();
+    List<TimingWheel.Entry> expired;
+    synchronized (this) {
+      if (wheel == null) {
+        return;
+      }
+      expired = wheel.advance(now);
+      if (wheel.size() == 0 && leases.isEmpty()) {
+        // No more leases, stop ticking until the next one
+        vertx.cancelTimer(leaseTimer);
+        leaseTimer = -1;
+        wheel = null;
+      }
+    }
+    for (TimingWheel.Entry entry : expired) {
+      Lease lease = leases.get(entry.key());
+      if (lease == null || lease.entry != entry) {
+        continue;
+      }
+      if (entry.deadline() > now) {
+        // Renewed while expiring
+        reschedule(entry.key(), lease);
+      } else if (leases.remove(entry.key(), lease)) {
+        expire(entry.key());
+      }
+    }
+  }
+
+  private void expire(String registration) {
+    backend.getRecord(registration, ar -> {
+      if (ar.failed()) {
+        LOGGER.warn("Cannot retrieve the leased record " + registration, ar.cause());
+      } else if (getLeaseDuration(ar.result()) > 0) {
+        LOGGER.info("Lease of " + registration + " expired, un-publishing the record");
+        unpublish(registration, x -> {
+          if (x.failed()) {
+            LOGGER.warn("Cannot un-publish the record " + registration, x.cause());
+          }
+        });
+      }
+    });
+  }
+
+  @Override
+  public JsonObject getBackendMetrics() {
+    return backend.metrics();
+  }
+
+  /**
+   * @return the number of leased records tracked by this service discovery, and not expired yet. Only the reaper
+   * tracks the leases, so it's 0 on the other instances.
+   */
+  public int getLeaseCount() {
+    return leases.size();
+  }
+
+  /**
+   * @return whether or not this service discovery is the reaper, tracking and expiring the leases.
+   */
+  synchronized boolean isReaper() {
+    return reaperLock != null;
+  }
+
   @Override
   public void unpublish(String id, Handler<AsyncResult<Void>> resultHandler) {
+    Lease lease = leases.remove(id);
+    if (lease != null) {
+      lease.entry.cancel();
+    }
+    replicas.remove(id);
+    hotMetadata.remove(id);
+    // A pending update is superseded by the removal, it is not written
+    PendingUpdate pending;
+    synchronized (this) {
+      pending = pendingUpdates.remove(id);
+    }
+    if (pending != null) {
+      vertx.cancelTimer(pending.timer);
+      pending.complete(Future.failedFuture("The update of " + id + " has been superseded by its un-publication"));
+    }
     backend.remove(id, record -> {
       if (record.failed()) {
         resultHandler.handle(Future.failedFuture(record.cause()));
@@ -229,6 +700,9 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
         exporter.onUnpublish(id);
       }
 
+      // Drop the hot metadata of the record, everywhere
+      vertx.eventBus().publish(hotAddress, new JsonObject().put("registration", id));
+
       Record announcedRecord = new Record(record.result());
       announcedRecord
           .setRegistration(null)
@@ -263,13 +737,12 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
   public void getRecord(Function<Record, Boolean> filter, boolean includeOutOfService, Handler<AsyncResult<Record>>
       resultHandler) {
     Objects.requireNonNull(filter);
-    backend.getRecords(list -> {
+    backend.getRecords(accept(filter, includeOutOfService), list -> {
       if (list.failed()) {
         resultHandler.handle(Future.failedFuture(list.cause()));
       } else {
         Optional<Record> any = list.result().stream()
-            .filter(filter::apply)
-            .filter(record -> includeOutOfService || record.getStatus() == Status.UP)
+            .map(this::withHotMetadata)
             .findAny();
         if (any.isPresent()) {
           resultHandler.handle(Future.succeededFuture(any.get()));
@@ -300,38 +773,279 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
   }
 
   @Override
-  public void getRecords(Function<Record, Boolean> filter, boolean includeOutOfService, Handler<AsyncResult<List<Record>>> resultHandler) {
+  public void getRecords(Function<Record, Boolean> filter, boolean includeOutOfService,
+      Handler<AsyncResult<List<Record>>> resultHandler) {
     Objects.requireNonNull(filter);
-    backend.getRecords(list -> {
+    backend.getRecords(accept(filter, includeOutOfService), list -> {
       if (list.failed()) {
         resultHandler.handle(Future.failedFuture(list.cause()));
       } else {
         resultHandler.handle(Future.succeededFuture(
             list.result().stream()
-                .filter(filter::apply)
-                .filter(record -> includeOutOfService || record.getStatus() == Status.UP)
+                .map(this::withHotMetadata)
                 .collect(Collectors.toList())
         ));
       }
     });
   }
 
+  /**
+   * Creates the filter passed to the backend, so it can skip the records that are not accepted while reading them.
+   * The filter sees the hot metadata of the records.
+   */
+  private Function<Record, Boolean> accept(Function<Record, Boolean> filter, boolean includeOutOfService) {
+    return record -> {
+      Record hot = withHotMetadata(record);
+      return filter.apply(hot) && (includeOutOfService || hot.getStatus() == Status.UP);
+    };
+  }
+
   @Override
   public void update(Record record, Handler<AsyncResult<Record>> resultHandler) {
-    backend.update(record, ar -> {
+    String registration = record.getRegistration();
+    if (updateDebounceWindow <= 0 || registration == null) {
+      write(record, resultHandler);
+      return;
+    }
+    synchronized (this) {
+      PendingUpdate pending = pendingUpdates.get(registration);
+      if (pending == null) {
+        // The window starts with the first update, so a continuous flow of updates is still written periodically
+        pending = new PendingUpdate();
+        pending.timer = vertx.setTimer(updateDebounceWindow, l -> flushUpdate(registration));
+        pendingUpdates.put(registration, pending);
+      }
+      pending.record = record;
+      pending.handlers.add(resultHandler);
+    }
+  }
+
+  @Override
+  public void flushUpdates(Handler<AsyncResult<Void>> resultHandler) {
+    List<String> registrations;
+    synchronized (this) {
+      registrations = new ArrayList<>(pendingUpdates.keySet());
+    }
+    List<Future<Record>> futures = new ArrayList<>();
+    for (String registration : registrations) {
+      Future<Record> future = Future.future();
+      if (flushUpdate(registration, future.completer())) {
+        futures.add(future);
+      }
+    }
+    // CompositeFuture.all takes a raw list
+    CompositeFuture.all(new ArrayList<>(futures)).setHandler(ar -> {
       if (ar.failed()) {
         resultHandler.handle(Future.failedFuture(ar.cause()));
       } else {
-        resultHandler.handle(Future.succeededFuture(record));
+        resultHandler.handle(Future.succeededFuture());
       }
     });
+  }
 
-    for (ServiceExporter exporter : exporters) {
-      exporter.onUpdate(record);
+  /**
+   * @return the number of registrations having a pending (not yet written) update
+   */
+  public synchronized int getPendingUpdateCount() {
+    return pendingUpdates.size();
+  }
+
+  private void flushUpdate(String registration) {
+    flushUpdate(registration, ar -> {
+    });
+  }
+
+  /**
+   * Writes the pending update of the given registration, if any.
+   *
+   * @return {@code true} if there was a pending update, {@code false} otherwise (the handler is not called)
+   */
+  private boolean flushUpdate(String registration, Handler<AsyncResult<Record>> resultHandler) {
+    PendingUpdate pending;
+    synchronized (this) {
+      pending = pendingUpdates.remove(registration);
+    }
+    if (pending == null) {
+      return false;
     }
+    vertx.cancelTimer(pending.timer);
+    write(pending.record, ar -> {
+      pending.complete(ar);
+      resultHandler.handle(ar);
+    });
+    return true;
+  }
 
-    Record announcedRecord = new Record(record);
-    vertx.eventBus().publish(announce, announcedRecord.toJson());
+  private void write(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    // Computed from the state known when updating, other instances may update the record concurrently
+    JsonObject delta = deltaAnnouncements ? delta(record) : null;
+    backend.update(record, ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+        return;
+      }
+
+      for (ServiceExporter exporter : exporters) {
+        exporter.onUpdate(record);
+      }
+
+      vertx.eventBus().publish(announce, new Record(record).toJson());
+      if (delta != null) {
+        // Announced once written, so the instances reading the record on a delta mismatch read at least this state
+        vertx.eventBus().publish(deltaAddress, delta);
+      }
+      resultHandler.handle(Future.succeededFuture(record));
+    });
+  }
+
+  /**
+   * Computes the delta announcing an updated record: a delta containing only the changed fields if the previous state
+   * of the record is known, the record itself otherwise.
+   */
+  private JsonObject delta(Record record) {
+    JsonObject json = new Record(record).toJson();
+    String registration = record.getRegistration();
+    if (registration == null) {
+      return null;
+    }
+    Replica[] previous = new Replica[1];
+    Replica next = replicas.compute(registration, (key, replica) -> {
+      previous[0] = replica;
+      return new Replica(replica == null ? 0 : replica.revision + 1, json);
+    });
+    if (previous[0] == null) {
+      // Unknown previous state, announce the whole record, starting a new sequence of revisions
+      return json.copy().put(RecordDeltas.REVISION, next.revision);
+    }
+    return RecordDeltas.create(registration, next.revision, previous[0].json, json);
+  }
+
+  /**
+   * Maintains the replicas of the updated records from the announced deltas. When a delta cannot be applied (the
+   * previous state is unknown, has been missed, or has diverged because of a concurrent update by another service
+   * discovery instance), the record is read from the backend.
+   */
+  private void onReplicaAnnounce(JsonObject announcement) {
+    String registration = announcement.getString(RecordDeltas.REGISTRATION);
+    long revision = RecordDeltas.revision(announcement);
+    if (!RecordDeltas.isDelta(announcement)) {
+      JsonObject json = announcement.copy();
+      json.remove(RecordDeltas.REVISION);
+      replicas.put(registration, new Replica(revision, json));
+      return;
+    }
+    JsonObject changes = announcement.getJsonObject(RecordDeltas.CHANGES);
+    Replica replica = replicas.computeIfPresent(registration, (key, current) -> {
+      if (RecordDeltas.isAppliedTo(announcement, current.json)) {
+        // Already applied (updated by this service discovery)
+        return current;
+      }
+      // The revisions of concurrent updates may collide, the delta only applies to the state it has been computed from
+      return RecordDeltas.appliesTo(announcement, current.json)
+          ? new Replica(revision, RecordDeltas.apply(current.json, changes)) : null;
+    });
+    if (replica == null) {
+      backend.getRecord(registration, ar -> {
+        if (ar.succeeded() && ar.result() != null) {
+          Replica fetched = new Replica(revision, ar.result().toJson());
+          replicas.merge(registration, fetched, (current, read) -> current.revision > read.revision ? current : read);
+        }
+      });
+    }
+  }
+
+  /**
+   * @return the number of records whose latest known state is kept to apply the announced deltas
+   */
+  public int getReplicaCount() {
+    return replicas.size();
+  }
+
+  /**
+   * @return the latest known state of the given record, {@code null} if unknown
+   */
+  JsonObject getReplica(String registration) {
+    Replica replica = replicas.get(registration);
+    return replica == null ? null : replica.json.copy();
+  }
+
+  @Override
+  public void updateHotMetadata(String registration, JsonObject fields, Handler<AsyncResult<Void>> resultHandler) {
+    Objects.requireNonNull(registration);
+    Objects.requireNonNull(fields);
+    vertx.eventBus().publish(hotAddress, new JsonObject().put("registration", registration).put("fields", fields));
+    resultHandler.handle(Future.succeededFuture());
+  }
+
+  /**
+   * Applies a hot metadata delta: the fields are merged into the current hot metadata of the registration (a
+   * {@code null} value removing the field). A delta without fields removes the hot metadata of the registration.
+   */
+  private void applyHotMetadata(JsonObject delta) {
+    String registration = delta.getString("registration");
+    if (registration == null) {
+      return;
+    }
+    JsonObject fields = delta.getJsonObject("fields");
+    if (fields == null) {
+      // Un-publication
+      hotMetadata.remove(registration);
+      return;
+    }
+    hotMetadata.compute(registration, (key, current) -> {
+      JsonObject updated = RecordDeltas.merge(current, fields);
+      return updated.isEmpty() ? null : updated;
+    });
+  }
+
+  /**
+   * Drops the hot metadata of the records announced {@link Status#DOWN}. Un-publications and records removed by the
+   * backend (such as the records whose backend lease has expired) are announced without registration, so the replicas
+   * matching the announced record, and the hot metadata of the registrations that are not in the backend anymore are
+   * dropped too.
+   */
+  private void onDeparture(JsonObject announcement) {
+    if (!Status.DOWN.name().equals(announcement.getString("status"))) {
+      return;
+    }
+    String registration = announcement.getString("registration");
+    if (registration != null) {
+      // An update to the DOWN status, the record is still stored (and its replica still valid)
+      hotMetadata.remove(registration);
+      return;
+    }
+    if (!replicas.isEmpty()) {
+      Record announced = new Record(announcement);
+      replicas.values().removeIf(replica -> matches(new Record(replica.json), announced));
+    }
+    for (String key : hotMetadata.keySet()) {
+      backend.getRecord(key, ar -> {
+        if (ar.succeeded() && ar.result() == null) {
+          hotMetadata.remove(key);
+        }
+      });
+    }
+  }
+
+  @Override
+  public JsonObject getHotMetadata(String registration) {
+    JsonObject hot = hotMetadata.get(registration);
+    return hot == null ? null : hot.copy();
+  }
+
+  @Override
+  public MessageConsumer<JsonObject> hotMetadataDeltas(Handler<JsonObject> handler) {
+    return vertx.eventBus().consumer(hotAddress, message -> handler.handle(message.body()));
+  }
+
+  private Record withHotMetadata(Record record) {
+    JsonObject hot = record.getRegistration() == null ? null : hotMetadata.get(record.getRegistration());
+    if (hot == null) {
+      return record;
+    }
+    // Do not modify the record of the backend
+    JsonObject metadata = record.getMetadata() == null ? new JsonObject() : record.getMetadata().copy();
+    return new Record(record).setMetadata(metadata.mergeIn(hot));
   }
 
   @Override
@@ -339,6 +1053,228 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
     return new HashSet<>(bindings);
   }
 
+  @Override
+  public ServiceDiscovery departureHandler(Handler<ServiceReference> handler) {
+    this.departureHandler = handler;
+    if (handler != null) {
+      trackDepartures();
+    }
+    return this;
+  }
+
+  @Override
+  public ServiceDiscovery registerServiceSelector(ServiceSelector selector) {
+    Objects.requireNonNull(selector);
+    selectors.add(selector);
+    return this;
+  }
+
+  @Override
+  public ServiceDiscovery unregisterServiceSelector(ServiceSelector selector) {
+    selectors.remove(selector);
+    return this;
+  }
+
+  /**
+   * Forwards the feedback reported on a service reference to the registered selectors.
+   *
+   * @param record  the record of the reference
+   * @param latency the latency, in nanoseconds
+   * @param failed  whether or not the request has failed
+   */
+  public void feedback(Record record, long latency, boolean failed) {
+    for (ServiceSelector selector : selectors) {
+      selector.onComplete(record, latency, failed);
+    }
+  }
+
+  private synchronized void trackDepartures() {
+    if (departureConsumer != null) {
+      return;
+    }
+    departureConsumer = announcements(this::onAnnounce);
+    departureTimer = vertx.setPeriodic(departureCheckInterval, l -> checkDepartures());
+  }
+
+  private void onAnnounce(Record announced) {
+    if (announced.getStatus() != Status.DOWN || bindings.isEmpty()) {
+      return;
+    }
+    if (announced.getRegistration() != null) {
+      // Status update, the registration is known
+      bindings.stream()
+          .filter(reference -> announced.getRegistration().equals(reference.record().getRegistration()))
+          .forEach(this::depart);
+    } else if (bindings.stream().anyMatch(reference -> matches(reference.record(), announced))) {
+      // Un-publication, the registration is not announced, so check the records.
+      checkDepartures();
+    }
+  }
+
+  /**
+   * Checks whether an announced record (without registration, as announced on un-publication) designates the given
+   * record.
+   *
+   * @param record    the record
+   * @param announced the announced record
+   * @return {@code true} if both records have the same name, type and location
+   */
+  public static boolean matches(Record record, Record announced) {
+    return Objects.equals(record.getName(), announced.getName())
+        && Objects.equals(record.getType(), announced.getType())
+        && Objects.equals(record.getLocation(), announced.getLocation());
+  }
+
+  /**
+   * Checks that the records of the bound references are still published and not {@link Status#DOWN}.
+   */
+  void checkDepartures() {
+    if (bindings.isEmpty()) {
+      return;
+    }
+    backend.getRecords(ar -> {
+      if (ar.failed()) {
+        LOGGER.warn("Cannot retrieve the records to check the service references", ar.cause());
+        return;
+      }
+      Set<String> alive = new HashSet<>();
+      for (Record record : ar.result()) {
+        if (record.getStatus() != Status.DOWN) {
+          alive.add(record.getRegistration());
+        }
+      }
+      bindings.stream()
+          .filter(reference -> reference.record().getRegistration() != null
+              && !alive.contains(reference.record().getRegistration()))
+          .forEach(this::depart);
+    });
+  }
+
+  private void depart(ServiceReference reference) {
+    if (!bindings.contains(reference) || !departed.add(reference)) {
+      return;
+    }
+    Handler<ServiceReference> handler = departureHandler;
+    if (handler != null) {
+      try {
+        handler.handle(reference);
+      } catch (Exception e) {
+        LOGGER.error("Exception thrown by the departure handler", e);
+      }
+    }
+    if (releaseOnDeparture) {
+      release(reference);
+    }
+  }
+
+  /**
+   * Releases the references whose service object has not been accessed for more than the idle timeout. The accesses
+   * are not timestamped (to keep {@code get} cheap), but flagged: a reference flagged since the last check is
+   * considered accessed at the time of the check.
+   */
+  void evictIdleReferences() {
+    long now = System.currentTimeMillis();
+    for (ServiceReference reference : bindings) {
+      if (resetAccessed(reference)) {
+        lastAccesses.replace(reference, now);
+        continue;
+      }
+      Long last = lastAccesses.get(reference);
+      if (last != null && now - last >= idleReferenceTimeout) {
+        LOGGER.debug("Releasing idle service reference on " + reference.record().getName());
+        if (evict(reference)) {
+          evicted.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private boolean evict(ServiceReference reference) {
+    if (reference instanceof AbstractServiceReference) {
+      return ((AbstractServiceReference) reference).evict();
+    }
+    if (reference instanceof SharedServiceReference) {
+      return ((SharedServiceReference) reference).evict();
+    }
+    return release(reference);
+  }
+
+  /**
+   * Binds again a reference released because it was idle, when its holder accesses it again.
+   *
+   * @param reference the reference
+   */
+  public void rebind(ServiceReference reference) {
+    bind(reference);
+    sendBindEvent(reference);
+  }
+
+  private static boolean resetAccessed(ServiceReference reference) {
+    if (reference instanceof AbstractServiceReference) {
+      return ((AbstractServiceReference) reference).resetAccessed();
+    }
+    if (reference instanceof SharedServiceReference) {
+      return ((SharedServiceReference) reference).resetAccessed();
+    }
+    // Unknown implementation, cannot track the accesses, so consider it used.
+    return true;
+  }
+
+  @Override
+  public JsonObject getReferenceMetrics() {
+    return new JsonObject()
+        .put("live", bindings.size())
+        .put("evicted", evicted.get());
+  }
+
+  /**
+   * Gets the number of references retrieved (and not released) for the given registration.
+   *
+   * @param registration the registration id
+   * @return the number of bindings, 0 if none
+   */
+  public int getBindingCount(String registration) {
+    Integer count = bindingCounts.get(registration);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * @return the number of references retrieved (and not released) per registration.
+   */
+  public Map<String, Integer> getBindingCounts() {
+    return new HashMap<>(bindingCounts);
+  }
+
+  @Override
+  public MessageConsumer<JsonObject> announcements(Handler<Record> handler) {
+    return vertx.eventBus().consumer(announce, message -> handler.handle(new Record(message.body())));
+  }
+
+  private void bind(ServiceReference reference) {
+    if (bindings.add(reference)) {
+      if (idleReferenceTimeout > 0) {
+        lastAccesses.put(reference, System.currentTimeMillis());
+      }
+      String registration = reference.record().getRegistration();
+      if (registration != null) {
+        bindingCounts.merge(registration, 1, Integer::sum);
+      }
+    }
+  }
+
+  private boolean removeBinding(ServiceReference reference) {
+    if (!bindings.remove(reference)) {
+      return false;
+    }
+    departed.remove(reference);
+    lastAccesses.remove(reference);
+    String registration = reference.record().getRegistration();
+    if (registration != null) {
+      bindingCounts.computeIfPresent(registration, (key, count) -> count == 1 ? null : count - 1);
+    }
+    return true;
+  }
+
   /**
    * Checks whether the reference is hold by this service discovery. If so, remove it from the list of bindings and
    * fire the "release" event.
@@ -346,9 +1282,47 @@ public class DiscoveryImpl implements ServiceDiscovery, ServicePublisher {
    * @param reference the reference
    */
   public void unbind(ServiceReference reference) {
-    if (bindings.remove(reference)) {
+    if (removeBinding(reference)) {
       sendUnbindEvent(reference);
     }
   }
-}
 
+  /**
+   * The latest known state of a record, and its revision.
+   */
+  private static class Replica {
+    private final long revision;
+    private final JsonObject json;
+
+    private Replica(long revision, JsonObject json) {
+      this.revision = revision;
+      this.json = json;
+    }
+  }
+
+  /**
+   * The coalesced updates of a registration: the latest record, and the handlers of all the callers.
+   */
+  private static class PendingUpdate {
+    private Record record;
+    private long timer;
+    private final List<Handler<AsyncResult<Record>>> handlers = new ArrayList<>();
+
+    private void complete(AsyncResult<Record> result) {
+      handlers.forEach(handler -> handler.handle(result));
+    }
+  }
+
+  /**
+   * The lease of a record, and its entry in the timing wheel.
+   */
+  private static class Lease {
+    private final long ttl;
+    private final TimingWheel.Entry entry;
+
+    private Lease(long ttl, TimingWheel.Entry entry) {
+      this.ttl = ttl;
+      this.entry = entry;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selects the record with the lowest exponentially weighted moving average of the latency, multiplied by the number
+ * of in-flight requests (plus one) to avoid overloading the fastest record. Records without latency are selected
+ * first, so they get measured.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class EwmaSelector extends AbstractServiceSelector {
+
+  /**
+   * The default weight of the last latency.
+   */
+  public static final double DEFAULT_ALPHA = 0.2;
+
+  private final double alpha;
+
+  public EwmaSelector(double alpha) {
+    if (alpha <= 0 || alpha > 1) {
+      throw new IllegalArgumentException("The smoothing factor must be in ]0, 1]");
+    }
+    this.alpha = alpha;
+  }
+
+  @Override
+  protected void update(RecordStats stats, long latency, boolean failed) {
+    stats.addLatency(latency, alpha);
+  }
+
+  @Override
+  protected Record doSelect(List<Record> records, String key) {
+    int size = records.size();
+    int start = ThreadLocalRandom.current().nextInt(size);
+    Record selected = null;
+    double min = Double.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      Record record = records.get((start + i) % size);
+      double score = score(record);
+      if (score < min) {
+        min = score;
+        selected = record;
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * @return the score of the record, the lower the better.
+   */
+  double score(Record record) {
+    RecordStats stats = peek(record);
+    if (stats == null || Double.isNaN(stats.ewma())) {
+      return 0;
+    }
+    return stats.ewma() * (stats.inFlight.get() + 1);
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A consistent hash ring. Each node (a record) is placed on the ring several times (virtual nodes), and a key is
+ * routed to the first node following its hash on the ring. When a node is removed, only the keys routed to this node
+ * move.
+ * <p>
+ * The ring is stored in sorted arrays, so lookups are binary searches that do not allocate. Adding or removing a node
+ * creates new arrays (merging or filtering the existing ones), and publishes them atomically: lookups never lock.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class HashRing {
+
+  private final int virtualNodes;
+  private volatile Snapshot snapshot = new Snapshot(new long[0], new String[0], Collections.emptyMap());
+
+  /**
+   * Creates a new instance of {@link HashRing}.
+   *
+   * @param virtualNodes the number of virtual nodes per node
+   */
+  public HashRing(int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("The number of virtual nodes must be at least 1");
+    }
+    this.virtualNodes = virtualNodes;
+  }
+
+  /**
+   * The immutable content of the ring.
+   */
+  private static class Snapshot {
+    private final long[] hashes;
+    private final String[] owners;
+    private final Map<String, Record> nodes;
+
+    private Snapshot(long[] hashes, String[] owners, Map<String, Record> nodes) {
+      this.hashes = hashes;
+      this.owners = owners;
+      this.nodes = nodes;
+    }
+  }
+
+  /**
+   * Computes the node identifier of a record: its name and location. Unlike the registration id, it is available in
+   * the announcements, and is kept when the service is published again. The location fields are sorted, so the
+   * identifier does not depend on their order (which may change when the record is encoded and decoded).
+   *
+   * @param record the record
+   * @return the node identifier
+   */
+  public static String node(Record record) {
+    StringBuilder builder = new StringBuilder().append(record.getName()).append('@');
+    if (record.getLocation() != null) {
+      append(builder, record.getLocation());
+    }
+    return builder.toString();
+  }
+
+  private static void append(StringBuilder builder, JsonObject json) {
+    List<String> fields = new ArrayList<>(json.fieldNames());
+    Collections.sort(fields);
+    builder.append('{');
+    for (String field : fields) {
+      Object value = json.getValue(field);
+      builder.append(field).append('=');
+      if (value instanceof JsonObject) {
+        append(builder, (JsonObject) value);
+      } else {
+        builder.append(value);
+      }
+      builder.append(';');
+    }
+    builder.append('}');
+  }
+
+  /**
+   * Adds a node to the ring, or replaces its record if the node is already in the ring.
+   *
+   * @param node   the node identifier
+   * @param record the record
+   * @return {@code true} if the node has been added, {@code false} if replaced
+   */
+  public synchronized boolean add(String node, Record record) {
+    Snapshot current = snapshot;
+    Map<String, Record> nodes = new HashMap<>(current.nodes);
+    if (nodes.put(node, record) != null) {
+      // Same positions, just replace the record
+      snapshot = new Snapshot(current.hashes, current.owners, Collections.unmodifiableMap(nodes));
+      return false;
+    }
+
+    long[] added = new long[virtualNodes];
+    for (int i = 0; i < virtualNodes; i++) {
+      added[i] = hash(node + "#" + i);
+    }
+    Arrays.sort(added);
+
+    // Merge the sorted arrays
+    int size = current.hashes.length;
+    long[] hashes = new long[size + virtualNodes];
+    String[] owners = new String[size + virtualNodes];
+    int i = 0;
+    int j = 0;
+    for (int k = 0; k < hashes.length; k++) {
+      if (j == virtualNodes || (i < size && current.hashes[i] <= added[j])) {
+        hashes[k] = current.hashes[i];
+        owners[k] = current.owners[i];
+        i++;
+      } else {
+        hashes[k] = added[j];
+        owners[k] = node;
+        j++;
+      }
+    }
+    snapshot = new Snapshot(hashes, owners, Collections.unmodifiableMap(nodes));
+    return true;
+  }
+
+  /**
+   * Removes a node from the ring.
+   *
+   * @param node the node identifier
+   * @return {@code true} if the node was in the ring
+   */
+  public synchronized boolean remove(String node) {
+    Snapshot current = snapshot;
+    if (!current.nodes.containsKey(node)) {
+      return false;
+    }
+    Map<String, Record> nodes = new HashMap<>(current.nodes);
+    nodes.remove(node);
+
+    int size = current.hashes.length - virtualNodes;
+    long[] hashes = new long[size];
+    String[] owners = new String[size];
+    int k = 0;
+    for (int i = 0; i < current.hashes.length; i++) {
+      if (!current.owners[i].equals(node)) {
+        hashes[k] = current.hashes[i];
+        owners[k] = current.owners[i];
+        k++;
+      }
+    }
+    snapshot = new Snapshot(hashes, owners, Collections.unmodifiableMap(nodes));
+    return true;
+  }
+
+  /**
+   * Gets the record associated with the given key.
+   *
+   * @param key the key
+   * @return the record, {@code null} if the ring is empty
+   */
+  public Record get(String key) {
+    return get(hash(key));
+  }
+
+  /**
+   * Gets the record associated with the given hash.
+   *
+   * @param hash the hash
+   * @return the record, {@code null} if the ring is empty
+   */
+  public Record get(long hash) {
+    Snapshot current = snapshot;
+    if (current.hashes.length == 0) {
+      return null;
+    }
+    int index = Arrays.binarySearch(current.hashes, hash);
+    if (index < 0) {
+      index = -index - 1;
+      if (index == current.hashes.length) {
+        index = 0;
+      }
+    }
+    return current.nodes.get(current.owners[index]);
+  }
+
+  /**
+   * Checks whether the ring contains the given node.
+   *
+   * @param node the node identifier
+   * @return {@code true} if the ring contains the node
+   */
+  public boolean contains(String node) {
+    return snapshot.nodes.containsKey(node);
+  }
+
+  /**
+   * @return the node identifiers and records of the ring.
+   */
+  public Map<String, Record> nodes() {
+    return snapshot.nodes;
+  }
+
+  /**
+   * @return the records of the ring.
+   */
+  public List<Record> records() {
+    return new ArrayList<>(snapshot.nodes.values());
+  }
+
+  /**
+   * @return the number of nodes.
+   */
+  public int size() {
+    return snapshot.nodes.size();
+  }
+
+  /**
+   * Computes the hash of a string (FNV-1a, followed by the Murmur3 finalizer to spread the bits). It does not
+   * allocate.
+   *
+   * @param value the string
+   * @return the hash
+   */
+  public static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selects the records according to their latency (see {@link EwmaSelector}), and ejects the outliers for a while:
+ * <ul>
+ * <li>records failing {@code consecutive-failures} times in a row,</li>
+ * <li>records whose latency is greater than {@code latency-factor} times the average latency of the other records
+ * (when at least 3 records have been measured).</li>
+ * </ul>
+ * An ejected record is not selected until its ejection time has elapsed. The ejection time doubles on each successive
+ * ejection, up to {@code max-ejection-time}, and is reset once the record has behaved for this maximum time. When
+ * a record comes back, its latency is measured again. At most half of the records are ejected because of their
+ * latency, and if all the records are ejected, they are all considered.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class LatencyAwareSelector extends EwmaSelector {
+
+  private final int consecutiveFailures;
+  private final double latencyFactor;
+  private final long ejectionTime;
+  private final long maxEjectionTime;
+
+  public LatencyAwareSelector(JsonObject configuration) {
+    super(configuration.getDouble("alpha", DEFAULT_ALPHA));
+    this.consecutiveFailures = configuration.getInteger("consecutive-failures", 5);
+    this.latencyFactor = configuration.getDouble("latency-factor", 3.0);
+    this.ejectionTime = configuration.getLong("ejection-time", 1000L);
+    this.maxEjectionTime = configuration.getLong("max-ejection-time", 60000L);
+  }
+
+  @Override
+  protected void update(RecordStats stats, long latency, boolean failed) {
+    super.update(stats, latency, failed);
+    if (failed) {
+      if (stats.consecutiveFailures.incrementAndGet() >= consecutiveFailures) {
+        eject(stats);
+      }
+    } else {
+      stats.consecutiveFailures.set(0);
+      if (stats.ejectedUntil != 0 && System.currentTimeMillis() - stats.ejectedUntil > maxEjectionTime) {
+        // Behaved since the last ejection, forget the previous ejections
+        stats.ejections.set(0);
+      }
+    }
+  }
+
+  private void eject(RecordStats stats) {
+    long now = System.currentTimeMillis();
+    synchronized (stats) {
+      if (stats.ejectedUntil > now) {
+        // Already ejected
+        return;
+      }
+      int count = Math.min(stats.ejections.incrementAndGet(), 30);
+      long duration = Math.min(ejectionTime << (count - 1), maxEjectionTime);
+      stats.ejectedUntil = now + (duration < 0 ? maxEjectionTime : duration);
+      stats.consecutiveFailures.set(0);
+      // Measure the latency again when it comes back
+      stats.resetLatency();
+    }
+  }
+
+  @Override
+  protected Record doSelect(List<Record> records, String key) {
+    long now = System.currentTimeMillis();
+    ejectSlowRecords(records, now);
+
+    int size = records.size();
+    Record selected = null;
+    double min = Double.MAX_VALUE;
+    int start = ThreadLocalRandom.current().nextInt(size);
+    for (int i = 0; i < size; i++) {
+      Record record = records.get((start + i) % size);
+      if (isEjected(record, now)) {
+        continue;
+      }
+      double score = score(record);
+      if (score < min) {
+        min = score;
+        selected = record;
+      }
+    }
+    // All the records are ejected, consider them anyway
+    return selected != null ? selected : super.doSelect(records, key);
+  }
+
+  @Override
+  boolean isAvailable(Record record) {
+    return !isEjected(record, System.currentTimeMillis());
+  }
+
+  private boolean isEjected(Record record, long now) {
+    RecordStats stats = peek(record);
+    return stats != null && stats.ejectedUntil > now;
+  }
+
+  /**
+   * Ejects the records much slower than the others, without allocating.
+   */
+  private void ejectSlowRecords(List<Record> records, long now) {
+    if (latencyFactor <= 0) {
+      return;
+    }
+    int measured = 0;
+    int ejected = 0;
+    double sum = 0;
+    for (Record record : records) {
+      RecordStats stats = peek(record);
+      if (stats == null) {
+        continue;
+      }
+      if (stats.ejectedUntil > now) {
+        ejected++;
+      } else if (!Double.isNaN(stats.ewma())) {
+        measured++;
+        sum += stats.ewma();
+      }
+    }
+    if (measured < 3) {
+      return;
+    }
+    for (Record record : records) {
+      if ((ejected + 1) * 2 > records.size()) {
+        return;
+      }
+      RecordStats stats = peek(record);
+      if (stats == null || stats.ejectedUntil > now) {
+        continue;
+      }
+      double ewma = stats.ewma();
+      if (!Double.isNaN(ewma) && ewma > latencyFactor * (sum - ewma) / (measured - 1)) {
+        eject(stats);
+        ejected++;
+      }
+    }
+  }
+}
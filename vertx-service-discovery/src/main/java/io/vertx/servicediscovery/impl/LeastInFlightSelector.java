@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selects the record with the least in-flight requests. The scan starts at a random position, so ties are broken
+ * randomly.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class LeastInFlightSelector extends AbstractServiceSelector {
+
+  @Override
+  protected Record doSelect(List<Record> records, String key) {
+    int size = records.size();
+    int start = ThreadLocalRandom.current().nextInt(size);
+    Record selected = null;
+    int min = Integer.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      Record record = records.get((start + i) % size);
+      int inFlight = inFlight(record);
+      if (inFlight < min) {
+        min = inFlight;
+        selected = record;
+      }
+    }
+    return selected;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceSelector;
+import io.vertx.servicediscovery.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Prefers the records published from the same node, then from the same zone, and delegates the selection among them
+ * to another selector. A level is skipped when none of its records can be selected: {@code DOWN} or
+ * {@code OUT_OF_SERVICE}, or not available for the delegate (such as the records ejected by the
+ * {@link LatencyAwareSelector}).
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class LocalitySelector implements ServiceSelector {
+
+  /**
+   * The metadata storing the node from which a record has been published.
+   */
+  public static final String NODE = "service.node";
+
+  /**
+   * The metadata storing the zone from which a record has been published.
+   */
+  public static final String ZONE = "service.zone";
+
+  private final String node;
+  private final String zone;
+  private final ServiceSelector delegate;
+
+  public LocalitySelector(String node, String zone, ServiceSelector delegate) {
+    Objects.requireNonNull(delegate);
+    this.node = node;
+    this.zone = zone;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Record select(List<Record> records) {
+    return select(records, null);
+  }
+
+  @Override
+  public Record select(List<Record> records, String key) {
+    if (records.isEmpty()) {
+      return null;
+    }
+    if (node != null) {
+      List<Record> local = healthy(records, NODE, node);
+      if (!local.isEmpty()) {
+        return delegate.select(local, key);
+      }
+    }
+    if (zone != null) {
+      List<Record> local = healthy(records, ZONE, zone);
+      if (!local.isEmpty()) {
+        return delegate.select(local, key);
+      }
+    }
+    return delegate.select(records, key);
+  }
+
+  private List<Record> healthy(List<Record> records, String metadata, String value) {
+    List<Record> result = new ArrayList<>();
+    for (Record record : records) {
+      if (record.getMetadata() != null && value.equals(record.getMetadata().getString(metadata))
+          && isHealthy(record)) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  private boolean isHealthy(Record record) {
+    if (record.getStatus() == Status.DOWN || record.getStatus() == Status.OUT_OF_SERVICE) {
+      return false;
+    }
+    return !(delegate instanceof AbstractServiceSelector) || ((AbstractServiceSelector) delegate).isAvailable(record);
+  }
+
+  @Override
+  public void onStart(Record record) {
+    delegate.onStart(record);
+  }
+
+  @Override
+  public void onComplete(Record record, long latency, boolean failed) {
+    delegate.onComplete(record, latency, failed);
+  }
+}
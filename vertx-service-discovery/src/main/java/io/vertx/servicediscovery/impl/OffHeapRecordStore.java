@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Stores encoded records outside of the Java heap.
+ * <p>
+ * Records are written in slots allocated in direct {@link ByteBuffer} slabs. Slot sizes are powers of two (from 64
+ * bytes), each slot starting with the length of the encoded record. Freed slots are kept in a free list per size, and
+ * reused by the next allocations of the same size. Records larger than a slab get their own dedicated slab.
+ * <p>
+ * The on-heap index maps the registration ids (UUIDs) to the slot addresses using open addressing on primitive
+ * arrays, so each record costs three {@code long} on the heap. An address packs the slab index (24 bits), the size
+ * class (8 bits) and the offset in the slab (32 bits).
+ * <p>
+ * Instances are {@link Shareable} so they can be shared among the backends of the same vert.x instance. Accesses are
+ * guarded by a read-write lock.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+class OffHeapRecordStore implements Shareable {
+
+  private static final int MIN_SLOT_SHIFT = 6;
+  private static final long EMPTY = -1;
+  private static final long TOMBSTONE = -2;
+
+  private final int slabSize;
+  private final List<ByteBuffer> slabs = new ArrayList<>();
+  private int current = -1;
+
+  private final long[][] free = new long[32][];
+  private final int[] freeCount = new int[32];
+
+  private long[] msb;
+  private long[] lsb;
+  private long[] addresses;
+  private int size;
+  private int used;
+  private long allocated;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Creates a new store.
+   *
+   * @param slabSize the size of the slabs in bytes, must be a power of two greater or equal to 64
+   */
+  OffHeapRecordStore(int slabSize) {
+    if (slabSize < (1 << MIN_SLOT_SHIFT) || Integer.bitCount(slabSize) != 1) {
+      throw new IllegalArgumentException("The slab size must be a power of two greater or equal to 64");
+    }
+    this.slabSize = slabSize;
+    resize(16);
+  }
+
+  /**
+   * Stores (or replaces) a record.
+   *
+   * @param id      the registration id
+   * @param encoded the encoded record
+   */
+  void put(UUID id, byte[] encoded) {
+    lock.writeLock().lock();
+    try {
+      int index = find(id);
+      if (index >= 0) {
+        long address = addresses[index];
+        if (sizeClass(address) == sizeClassFor(encoded.length)) {
+          write(address, encoded);
+          return;
+        }
+        release(address);
+        addresses[index] = write(allocate(sizeClassFor(encoded.length)), encoded);
+        return;
+      }
+
+      if ((used + 1) * 4 > addresses.length * 3) {
+        resize(size * 2 > addresses.length / 2 ? addresses.length * 2 : addresses.length);
+      }
+      long address = write(allocate(sizeClassFor(encoded.length)), encoded);
+      insert(id, address);
+      size++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gets a record.
+   *
+   * @param id the registration id
+   * @return the encoded record, {@code null} if not found
+   */
+  byte[] get(UUID id) {
+    lock.readLock().lock();
+    try {
+      int index = find(id);
+      return index < 0 ? null : read(addresses[index]);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a record. Its slot is reused by the next allocation of the same size.
+   *
+   * @param id the registration id
+   * @return the encoded record, {@code null} if not found
+   */
+  byte[] remove(UUID id) {
+    lock.writeLock().lock();
+    try {
+      int index = find(id);
+      if (index < 0) {
+        return null;
+      }
+      long address = addresses[index];
+      byte[] encoded = read(address);
+      release(address);
+      addresses[index] = TOMBSTONE;
+      size--;
+      return encoded;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Applies a function on each encoded record, without copying it on the heap. The function receives a read-only
+   * buffer containing the encoded record. This buffer must not be used once the function returns, as the slot may be
+   * reused.
+   *
+   * @param function the function, returning {@code null} to skip the record
+   * @param <T>      the type of result
+   * @return the non-{@code null} results
+   */
+  <T> List<T> collect(Function<ByteBuffer, T> function) {
+    lock.readLock().lock();
+    try {
+      List<T> results = new ArrayList<>();
+      for (long address : addresses) {
+        if (address >= 0) {
+          T result = function.apply(slice(address));
+          if (result != null) {
+            results.add(result);
+          }
+        }
+      }
+      return results;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return the number of records.
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * @return metrics about the store: number of records, slabs, off-heap bytes reserved and allocated to slots, and
+   * number of free slots.
+   */
+  JsonObject metrics() {
+    lock.readLock().lock();
+    try {
+      long reserved = 0;
+      for (ByteBuffer slab : slabs) {
+        reserved += slab.capacity();
+      }
+      int freeSlots = 0;
+      for (int count : freeCount) {
+        freeSlots += count;
+      }
+      return new JsonObject()
+          .put("records", size)
+          .put("slabs", slabs.size())
+          .put("reserved-bytes", reserved)
+          .put("allocated-bytes", allocated)
+          .put("free-slots", freeSlots)
+          .put("index-capacity", addresses.length);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private long allocate(int sizeClass) {
+    if (freeCount[sizeClass] > 0) {
+      return free[sizeClass][--freeCount[sizeClass]];
+    }
+
+    int slotSize = 1 << (sizeClass + MIN_SLOT_SHIFT);
+    allocated += slotSize;
+    if (slotSize > slabSize) {
+      // Dedicated slab, kept at the end of the list. The current slab remains the same.
+      slabs.add(ByteBuffer.allocateDirect(slotSize));
+      return address(slabs.size() - 1, sizeClass, 0);
+    }
+
+    if (current == -1 || slabs.get(current).remaining() < slotSize) {
+      slabs.add(ByteBuffer.allocateDirect(slabSize));
+      current = slabs.size() - 1;
+    }
+    ByteBuffer slab = slabs.get(current);
+    int offset = slab.position();
+    slab.position(offset + slotSize);
+    return address(current, sizeClass, offset);
+  }
+
+  private void release(long address) {
+    int sizeClass = sizeClass(address);
+    long[] stack = free[sizeClass];
+    if (stack == null) {
+      stack = free[sizeClass] = new long[16];
+    } else if (freeCount[sizeClass] == stack.length) {
+      stack = free[sizeClass] = Arrays.copyOf(stack, stack.length * 2);
+    }
+    stack[freeCount[sizeClass]++] = address;
+  }
+
+  private long write(long address, byte[] encoded) {
+    ByteBuffer slot = slabs.get(slab(address)).duplicate();
+    slot.position(offset(address));
+    slot.putInt(encoded.length).put(encoded);
+    return address;
+  }
+
+  private byte[] read(long address) {
+    ByteBuffer slot = slabs.get(slab(address)).duplicate();
+    slot.position(offset(address));
+    byte[] encoded = new byte[slot.getInt()];
+    slot.get(encoded);
+    return encoded;
+  }
+
+  private ByteBuffer slice(long address) {
+    ByteBuffer slot = slabs.get(slab(address)).asReadOnlyBuffer();
+    slot.position(offset(address));
+    int length = slot.getInt();
+    slot.limit(slot.position() + length);
+    return slot.slice();
+  }
+
+  private int find(UUID id) {
+    long most = id.getMostSignificantBits();
+    long least = id.getLeastSignificantBits();
+    int mask = addresses.length - 1;
+    for (int i = hash(most, least) & mask; ; i = (i + 1) & mask) {
+      long address = addresses[i];
+      if (address == EMPTY) {
+        return -1;
+      }
+      if (address != TOMBSTONE && msb[i] == most && lsb[i] == least) {
+        return i;
+      }
+    }
+  }
+
+  private void insert(UUID id, long address) {
+    insert(id.getMostSignificantBits(), id.getLeastSignificantBits(), address);
+  }
+
+  private void insert(long most, long least, long address) {
+    int mask = addresses.length - 1;
+    int i = hash(most, least) & mask;
+    while (addresses[i] >= 0) {
+      i = (i + 1) & mask;
+    }
+    if (addresses[i] == EMPTY) {
+      used++;
+    }
+    msb[i] = most;
+    lsb[i] = least;
+    addresses[i] = address;
+  }
+
+  private void resize(int capacity) {
+    long[] oldMsb = msb;
+    long[] oldLsb = lsb;
+    long[] oldAddresses = addresses;
+
+    msb = new long[capacity];
+    lsb = new long[capacity];
+    addresses = new long[capacity];
+    Arrays.fill(addresses, EMPTY);
+    used = 0;
+
+    if (oldAddresses != null) {
+      for (int i = 0; i < oldAddresses.length; i++) {
+        if (oldAddresses[i] >= 0) {
+          insert(oldMsb[i], oldLsb[i], oldAddresses[i]);
+        }
+      }
+    }
+  }
+
+  private static int hash(long most, long least) {
+    long h = most ^ least;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  private static int sizeClassFor(int length) {
+    int needed = length + 4;
+    int shift = 32 - Integer.numberOfLeadingZeros(needed - 1);
+    return Math.max(shift, MIN_SLOT_SHIFT) - MIN_SLOT_SHIFT;
+  }
+
+  private static long address(int slab, int sizeClass, int offset) {
+    return ((long) slab << 40) | ((long) sizeClass << 32) | (offset & 0xFFFFFFFFL);
+  }
+
+  private static int slab(long address) {
+    return (int) (address >>> 40);
+  }
+
+  private static int sizeClass(long address) {
+    return (int) ((address >>> 32) & 0xFF);
+  }
+
+  private static int offset(long address) {
+    return (int) address;
+  }
+}
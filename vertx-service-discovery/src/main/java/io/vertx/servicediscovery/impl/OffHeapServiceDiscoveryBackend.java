@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.spi.ServiceDiscoveryBackend;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * A backend storing the records outside of the Java heap, reducing the GC pressure for very large registries.
+ * <p>
+ * Records are stored in their encoded form in direct buffers (see {@link OffHeapRecordStore}). They are decoded only
+ * when they are looked up, straight from the direct buffers. Filters are applied while reading the records (see
+ * {@link #getRecords(Function, Handler)}), so only the accepted records are kept on the heap. Like the
+ * {@link DefaultServiceDiscoveryBackend} in
+ * non-clustered mode, the records are shared among the service discovery instances created with the same vert.x
+ * instance.
+ * <p>
+ * This backend is selected by setting the {@code backend-name} entry of the backend configuration to the name of
+ * this class. The {@code slab-size} entry configures the size of the direct buffers (1MB by default).
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class OffHeapServiceDiscoveryBackend implements ServiceDiscoveryBackend {
+
+  private OffHeapRecordStore store;
+
+  @Override
+  public void init(Vertx vertx, JsonObject config) {
+    LocalMap<String, OffHeapRecordStore> stores = vertx.sharedData().getLocalMap("service.registry.off-heap");
+    synchronized (OffHeapServiceDiscoveryBackend.class) {
+      store = stores.get("records");
+      if (store == null) {
+        store = new OffHeapRecordStore(config.getInteger("slab-size", 1024 * 1024));
+        stores.put("records", store);
+      }
+    }
+  }
+
+  @Override
+  public void store(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    UUID uuid = UUID.randomUUID();
+    if (record.getRegistration() != null) {
+      throw new IllegalArgumentException("The record has already been registered");
+    }
+
+    record.setRegistration(uuid.toString());
+    store.put(uuid, encode(record));
+    resultHandler.handle(Future.succeededFuture(record));
+  }
+
+  @Override
+  public void remove(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
+    remove(record.getRegistration(), resultHandler);
+  }
+
+  @Override
+  public void remove(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    Objects.requireNonNull(uuid, "No registration id in the record");
+    UUID id = parse(uuid);
+    byte[] removed = id == null ? null : store.remove(id);
+    if (removed == null) {
+      resultHandler.handle(Future.failedFuture("Record '" + uuid + "' not found"));
+    } else {
+      resultHandler.handle(Future.succeededFuture(decode(removed)));
+    }
+  }
+
+  @Override
+  public void update(Record record, Handler<AsyncResult<Void>> resultHandler) {
+    Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
+    UUID id = parse(record.getRegistration());
+    if (id == null) {
+      resultHandler.handle(Future.failedFuture("Invalid registration id '" + record.getRegistration() + "'"));
+      return;
+    }
+    store.put(id, encode(record));
+    resultHandler.handle(Future.succeededFuture());
+  }
+
+  @Override
+  public void getRecords(Handler<AsyncResult<List<Record>>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(store.collect(OffHeapServiceDiscoveryBackend::decode)));
+  }
+
+  @Override
+  public void getRecords(Function<Record, Boolean> filter, Handler<AsyncResult<List<Record>>> resultHandler) {
+    resultHandler.handle(Future.succeededFuture(store.collect(encoded -> {
+      Record record = decode(encoded);
+      return filter.apply(record) ? record : null;
+    })));
+  }
+
+  @Override
+  public void getRecord(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    UUID id = parse(uuid);
+    byte[] encoded = id == null ? null : store.get(id);
+    resultHandler.handle(Future.succeededFuture(encoded == null ? null : decode(encoded)));
+  }
+
+  /**
+   * @return metrics about the off-heap store.
+   */
+  @Override
+  public JsonObject metrics() {
+    return store.metrics();
+  }
+
+  private static byte[] encode(Record record) {
+    return record.toJson().encode().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static Record decode(byte[] encoded) {
+    return new Record(new JsonObject(new String(encoded, StandardCharsets.UTF_8)));
+  }
+
+  private static Record decode(ByteBuffer encoded) {
+    return new Record(new JsonObject(StandardCharsets.UTF_8.decode(encoded).toString()));
+  }
+
+  private static UUID parse(String uuid) {
+    try {
+      return UUID.fromString(uuid);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.spi.ServiceDiscoveryBackend;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * A backend storing the records in a local map (like the {@link DefaultServiceDiscoveryBackend} in non-clustered
+ * mode), and persisting them on disk, so the records survive a restart.
+ * <p>
+ * Each mutation is appended to a write-ahead log. The log is periodically compacted into a snapshot. Both are
+ * restored when the backend is initialized. This backend is selected by setting the {@code backend-name} entry of the
+ * backend configuration to the name of this class. The configuration supports:
+ * <ul>
+ * <li>{@code directory}: the directory in which the log and snapshot are stored, {@code .vertx/discovery} by
+ * default</li>
+ * <li>{@code compaction-interval}: the time in milliseconds between two compactions, 60000 by default</li>
+ * <li>{@code sync}: whether or not each log entry is flushed to the storage device before acknowledging the
+ * operation, {@code false} by default</li>
+ * </ul>
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class PersistentServiceDiscoveryBackend implements ServiceDiscoveryBackend {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PersistentServiceDiscoveryBackend.class);
+
+  private Vertx vertx;
+  private Map<String, String> registry;
+  private RegistryLog log;
+  private String path;
+  private long timer = -1;
+
+  @Override
+  public void init(Vertx vertx, JsonObject config) {
+    this.vertx = vertx;
+    this.registry = new LocalMapWrapper<>(vertx.sharedData().<String, String>getLocalMap("service.registry"));
+
+    File directory = new File(config.getString("directory", ".vertx/discovery")).getAbsoluteFile();
+    this.path = directory.getPath();
+    LocalMap<String, RegistryLog> logs = vertx.sharedData().getLocalMap("service.registry.logs");
+    synchronized (PersistentServiceDiscoveryBackend.class) {
+      log = logs.get(path);
+      if (log == null) {
+        long begin = System.currentTimeMillis();
+        log = new RegistryLog(directory, registry, config.getBoolean("sync", false));
+        logs.put(path, log);
+        LOGGER.info("Service registry restored from " + path + " (" + registry.size() + " records in "
+            + (System.currentTimeMillis() - begin) + " ms)");
+      }
+      log.acquire();
+    }
+
+    timer = vertx.setPeriodic(config.getLong("compaction-interval", 60000L), l -> compact(ar -> {
+      if (ar.failed()) {
+        LOGGER.warn("Cannot compact the service registry log", ar.cause());
+      }
+    }));
+  }
+
+  /**
+   * Compacts the log: writes a new snapshot and resets the log.
+   *
+   * @param completionHandler the completion handler
+   */
+  void compact(Handler<AsyncResult<Void>> completionHandler) {
+    vertx.<Void>executeBlocking(future -> {
+      log.compact();
+      future.complete();
+    }, false, completionHandler);
+  }
+
+  @Override
+  public void store(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    String uuid = UUID.randomUUID().toString();
+    if (record.getRegistration() != null) {
+      throw new IllegalArgumentException("The record has already been registered");
+    }
+
+    record.setRegistration(uuid);
+    String encoded = record.toJson().encode();
+    vertx.<Record>executeBlocking(future -> {
+      log.put(uuid, encoded);
+      future.complete(record);
+    }, resultHandler);
+  }
+
+  @Override
+  public void remove(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
+    remove(record.getRegistration(), resultHandler);
+  }
+
+  @Override
+  public void remove(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    Objects.requireNonNull(uuid, "No registration id in the record");
+    vertx.<Record>executeBlocking(future -> {
+      String removed = log.remove(uuid);
+      if (removed == null) {
+        future.fail("Record '" + uuid + "' not found");
+      } else {
+        future.complete(new Record(new JsonObject(removed)));
+      }
+    }, resultHandler);
+  }
+
+  @Override
+  public void update(Record record, Handler<AsyncResult<Void>> resultHandler) {
+    Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
+    String encoded = record.toJson().encode();
+    vertx.<Void>executeBlocking(future -> {
+      log.put(record.getRegistration(), encoded);
+      future.complete();
+    }, resultHandler);
+  }
+
+  @Override
+  public void getRecords(Handler<AsyncResult<List<Record>>> resultHandler) {
+    vertx.<List<Record>>executeBlocking(future -> future.complete(new ArrayList<>(registry.values()).stream()
+        .map(s -> new Record(new JsonObject(s)))
+        .collect(Collectors.toList())), resultHandler);
+  }
+
+  @Override
+  public void getRecord(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    vertx.<Record>executeBlocking(future -> {
+      String value = registry.get(uuid);
+      future.complete(value == null ? null : new Record(new JsonObject(value)));
+    }, resultHandler);
+  }
+
+  @Override
+  public void close() {
+    if (timer != -1) {
+      vertx.cancelTimer(timer);
+      timer = -1;
+    }
+    LocalMap<String, RegistryLog> logs = vertx.sharedData().getLocalMap("service.registry.logs");
+    synchronized (PersistentServiceDiscoveryBackend.class) {
+      if (log.release()) {
+        logs.remove(path);
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two random records, and selects the one with the least in-flight requests.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class PowerOfTwoChoicesSelector extends AbstractServiceSelector {
+
+  @Override
+  protected Record doSelect(List<Record> records, String key) {
+    int size = records.size();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;
+    }
+    Record a = records.get(first);
+    Record b = records.get(second);
+    return inFlight(a) <= inFlight(b) ? a : b;
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selects a random record.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class RandomSelector extends AbstractServiceSelector {
+
+  @Override
+  protected Record doSelect(List<Record> records, String key) {
+    return records.get(ThreadLocalRandom.current().nextInt(records.size()));
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The statistics of a record, as tracked by the {@link io.vertx.servicediscovery.ServiceSelector} implementations.
+ * All fields are updated without locking.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+class RecordStats {
+
+  /**
+   * The number of in-flight requests.
+   */
+  final AtomicInteger inFlight = new AtomicInteger();
+
+  /**
+   * The moving average of the latency (in nanoseconds), stored as the bits of a double. {@code NaN} until the first
+   * request completes.
+   */
+  final AtomicLong ewma = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+  /**
+   * The last time (in ms) the record has been used.
+   */
+  volatile long lastUsed = System.currentTimeMillis();
+
+  /**
+   * The number of consecutive failed requests.
+   */
+  final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+  /**
+   * The number of times the record has been ejected recently, used to compute the ejection time.
+   */
+  final AtomicInteger ejections = new AtomicInteger();
+
+  /**
+   * The time (in ms) until which the record is ejected, 0 if it has never been ejected.
+   */
+  volatile long ejectedUntil;
+
+  /**
+   * @return the moving average of the latency, {@code NaN} if unknown.
+   */
+  double ewma() {
+    return Double.longBitsToDouble(ewma.get());
+  }
+
+  /**
+   * Forgets the latency, so the record is measured again.
+   */
+  void resetLatency() {
+    ewma.set(Double.doubleToRawLongBits(Double.NaN));
+  }
+
+  /**
+   * Adds a sample to the moving average of the latency.
+   *
+   * @param latency the latency
+   * @param alpha   the weight of the sample
+   */
+  void addLatency(long latency, double alpha) {
+    long bits;
+    double updated;
+    do {
+      bits = ewma.get();
+      double current = Double.longBitsToDouble(bits);
+      updated = Double.isNaN(current) ? latency : current + alpha * (latency - current);
+    } while (!ewma.compareAndSet(bits, Double.doubleToRawLongBits(updated)));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Shares the service references retrieved for the same registration and configuration. The underlying references are
+ * counted, and released when the last holder releases its reference.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+class ReferenceCache {
+
+  private final Map<String, Shared> references = new HashMap<>();
+
+  /**
+   * Computes the key identifying the underlying reference. The configuration fields are sorted, so the key does not
+   * depend on their order.
+   *
+   * @param record        the record, must have a registration
+   * @param configuration the configuration
+   * @return the key
+   */
+  static String key(Record record, JsonObject configuration) {
+    StringBuilder builder = new StringBuilder()
+        .append(record.getRegistration()).append('/').append(record.getType()).append('/');
+    append(builder, configuration);
+    return builder.toString();
+  }
+
+  private static void append(StringBuilder builder, Object value) {
+    if (value instanceof JsonObject) {
+      JsonObject json = (JsonObject) value;
+      List<String> fields = new ArrayList<>(json.fieldNames());
+      Collections.sort(fields);
+      builder.append('{');
+      for (String field : fields) {
+        builder.append(field).append('=');
+        append(builder, json.getValue(field));
+        builder.append(';');
+      }
+      builder.append('}');
+    } else if (value instanceof JsonArray) {
+      builder.append('[');
+      for (Object item : (JsonArray) value) {
+        append(builder, item);
+        builder.append(';');
+      }
+      builder.append(']');
+    } else if (value instanceof String) {
+      // Quoted, so a string is not confused with a number or a boolean
+      builder.append('"').append(value).append('"');
+    } else {
+      builder.append(value);
+    }
+  }
+
+  /**
+   * Gets the underlying reference for the given key, creating it if needed, and increments its counter.
+   *
+   * @param key     the key
+   * @param creator creates the reference if there is no reference for the given key
+   * @return the underlying reference
+   */
+  synchronized ServiceReference acquire(String key, Supplier<ServiceReference> creator) {
+    Shared shared = references.get(key);
+    if (shared == null) {
+      shared = new Shared(creator.get());
+      references.put(key, shared);
+    }
+    shared.count++;
+    return shared.reference;
+  }
+
+  /**
+   * Decrements the counter of the underlying reference, and releases it when it's not used anymore.
+   *
+   * @param key the key
+   */
+  void release(String key) {
+    ServiceReference toRelease = null;
+    synchronized (this) {
+      Shared shared = references.get(key);
+      if (shared != null && --shared.count == 0) {
+        references.remove(key);
+        toRelease = shared.reference;
+      }
+    }
+    if (toRelease != null) {
+      toRelease.release();
+    }
+  }
+
+  /**
+   * @return the number of underlying references
+   */
+  synchronized int size() {
+    return references.size();
+  }
+
+  /**
+   * Releases all the underlying references.
+   */
+  void clear() {
+    List<Shared> toRelease;
+    synchronized (this) {
+      toRelease = new ArrayList<>(references.values());
+      references.clear();
+    }
+    toRelease.forEach(shared -> shared.reference.release());
+  }
+
+  private static class Shared {
+    private final ServiceReference reference;
+    private int count;
+
+    private Shared(ServiceReference reference) {
+      this.reference = reference;
+    }
+  }
+}
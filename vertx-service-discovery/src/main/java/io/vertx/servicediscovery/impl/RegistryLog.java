@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.shareddata.Shareable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the content of a registry (map of registration id to encoded record) in a directory using a write-ahead
+ * log and a snapshot.
+ * <p>
+ * Each mutation is appended to the log before being applied to the map. Periodically, the log is compacted: the
+ * content of the map is written into a new snapshot, and the log is reset. On creation, the snapshot is loaded and
+ * the log replayed. Both files are read using memory-mapped buffers, and records are kept in their encoded form, so
+ * restoring a large registry does not require any JSON parsing.
+ * <p>
+ * The log entries have the following format: {@code [op:byte][id length:int][id][value length:int][value]} where
+ * {@code op} is either {@link #PUT} or {@link #REMOVE} (the value is empty for removals). The snapshot has the
+ * following format: {@code [magic:int][count:int]} followed by {@code count} {@code [id length:int][id][value
+ * length:int][value]} entries.
+ * <p>
+ * Instances are {@link Shareable} so they can be shared among the backends using the same directory within a vert.x
+ * instance. All the mutations are serialized using the monitor lock. Compactions are serialized using another lock,
+ * so the backends sharing the log can trigger them concurrently without blocking the mutations while the snapshot is
+ * written.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+class RegistryLog implements Shareable {
+
+  static final String SNAPSHOT = "registry.snapshot";
+  static final String LOG = "registry.log";
+  static final String ROTATED_LOG = "registry.log.old";
+
+  private static final int MAGIC = 0x53445230;
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  private final Path snapshot;
+  private final Path log;
+  private final Path rotated;
+  private final Map<String, String> registry;
+  private final boolean sync;
+
+  // Serializes the compactions, held while the snapshot is written
+  private final Object compaction = new Object();
+
+  private FileChannel channel;
+  private int entries;
+  private int users;
+  private boolean closed;
+
+  /**
+   * Creates the log, and restores the content of the given registry from the snapshot and log files.
+   *
+   * @param directory the directory containing the snapshot and log files, created if it does not exist
+   * @param registry  the registry
+   * @param sync      whether or not each append must be flushed to the storage device
+   */
+  RegistryLog(File directory, Map<String, String> registry, boolean sync) {
+    this.registry = registry;
+    this.sync = sync;
+    this.snapshot = new File(directory, SNAPSHOT).toPath();
+    this.log = new File(directory, LOG).toPath();
+    this.rotated = new File(directory, ROTATED_LOG).toPath();
+
+    try {
+      Files.createDirectories(directory.toPath());
+      restore();
+      channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot restore the registry from " + directory.getAbsolutePath(), e);
+    }
+  }
+
+  synchronized void acquire() {
+    users++;
+  }
+
+  /**
+   * Releases the log. When the last user releases it, the log is closed. It is not compacted, as it would block the
+   * caller while the snapshot is written: the log is replayed on restore.
+   *
+   * @return {@code true} if the log has been closed
+   */
+  synchronized boolean release() {
+    users--;
+    if (users > 0) {
+      return false;
+    }
+    closed = true;
+    try {
+      if (sync) {
+        channel.force(false);
+      }
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+
+  /**
+   * Appends the insertion (or modification) of a record to the log, and applies it to the registry.
+   *
+   * @param id    the registration id
+   * @param value the encoded record
+   */
+  synchronized void put(String id, String value) {
+    append(PUT, id, value);
+    registry.put(id, value);
+  }
+
+  /**
+   * Appends the removal of a record to the log, and applies it to the registry.
+   *
+   * @param id the registration id
+   * @return the encoded record, {@code null} if there were no record with the given id
+   */
+  synchronized String remove(String id) {
+    if (!registry.containsKey(id)) {
+      return null;
+    }
+    append(REMOVE, id, "");
+    return registry.remove(id);
+  }
+
+  /**
+   * @return the number of entries appended to the log since the last compaction.
+   */
+  synchronized int size() {
+    return entries;
+  }
+
+  /**
+   * Writes the content of the registry into a new snapshot and resets the log. To limit the time during which the
+   * mutations are blocked, the current log is rotated and the registry content copied while holding the lock, then
+   * the snapshot is written without the lock. If the process stops before the end of the compaction, the rotated log
+   * is replayed on restore. Concurrent compactions are serialized, so a rotated log is only deleted once its snapshot
+   * has been written. Does nothing once the log has been closed.
+   */
+  void compact() {
+    synchronized (compaction) {
+      List<Map.Entry<String, String>> copy;
+      synchronized (this) {
+        if (entries == 0 || closed) {
+          return;
+        }
+        try {
+          channel.close();
+          Files.move(log, rotated, StandardCopyOption.REPLACE_EXISTING);
+          channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND);
+          entries = 0;
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot rotate the registry log", e);
+        }
+        copy = new ArrayList<>(registry.entrySet());
+      }
+
+      try {
+        writeSnapshot(copy);
+        Files.deleteIfExists(rotated);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot write the registry snapshot", e);
+      }
+    }
+  }
+
+  private void append(byte op, String id, String value) {
+    byte[] key = id.getBytes(StandardCharsets.UTF_8);
+    byte[] content = value.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + key.length + 4 + content.length);
+    buffer.put(op).putInt(key.length).put(key).putInt(content.length).put(content);
+    buffer.flip();
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      if (sync) {
+        channel.force(false);
+      }
+      entries++;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot append to the registry log", e);
+    }
+  }
+
+  private void writeSnapshot(List<Map.Entry<String, String>> content) throws IOException {
+    Path tmp = snapshot.resolveSibling(SNAPSHOT + ".tmp");
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+      buffer.putInt(MAGIC).putInt(content.size());
+      for (Map.Entry<String, String> entry : content) {
+        byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] value = entry.getValue().getBytes(StandardCharsets.UTF_8);
+        int length = 4 + key.length + 4 + value.length;
+        if (buffer.remaining() < length) {
+          drain(out, buffer);
+          if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+          }
+        }
+        buffer.putInt(key.length).put(key).putInt(value.length).put(value);
+      }
+      drain(out, buffer);
+      out.force(true);
+    }
+    Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void restore() throws IOException {
+    if (Files.exists(snapshot)) {
+      MappedByteBuffer buffer = map(snapshot);
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("Invalid registry snapshot " + snapshot);
+      }
+      int count = buffer.getInt();
+      for (int i = 0; i < count; i++) {
+        registry.put(read(buffer), read(buffer));
+      }
+    }
+    boolean interrupted = Files.exists(rotated);
+    replay(rotated);
+    replay(log);
+
+    if (interrupted) {
+      // A compaction has been interrupted, complete it before appending to the log again.
+      writeSnapshot(new ArrayList<>(registry.entrySet()));
+      Files.deleteIfExists(log);
+      Files.deleteIfExists(rotated);
+      entries = 0;
+    }
+  }
+
+  private void replay(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return;
+    }
+    MappedByteBuffer buffer = map(file);
+    int valid = 0;
+    try {
+      while (buffer.hasRemaining()) {
+        byte op = buffer.get();
+        String id = read(buffer);
+        String value = read(buffer);
+        if (op == PUT) {
+          registry.put(id, value);
+        } else {
+          registry.remove(id);
+        }
+        valid = buffer.position();
+        entries++;
+      }
+    } catch (RuntimeException e) {
+      // The last entry has not been written completely, ignore it.
+      try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        truncate.truncate(valid);
+      }
+    }
+  }
+
+  private static MappedByteBuffer map(Path file) throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+    }
+  }
+
+  private static String read(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalStateException("Invalid entry length " + length);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
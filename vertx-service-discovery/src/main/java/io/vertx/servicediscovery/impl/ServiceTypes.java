@@ -19,7 +19,10 @@ package io.vertx.servicediscovery.impl;
 import io.vertx.servicediscovery.Record;
 import io.vertx.servicediscovery.spi.ServiceType;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.ServiceLoader;
 
@@ -45,9 +48,16 @@ public class ServiceTypes {
   }
 
   private static void load() {
+    if (types != null && !types.isEmpty()) {
+      return;
+    }
     synchronized (ServiceTypes.class) {
-      if (types == null || !types.iterator().hasNext()) {
-        types = ServiceLoader.load(ServiceType.class);
+      if (types == null || types.isEmpty()) {
+        // The service loader iterator instantiates the implementations lazily, and is not thread-safe, so the
+        // implementations are loaded once and stored in an immutable list.
+        List<ServiceType> list = new ArrayList<>();
+        ServiceLoader.load(ServiceType.class).forEach(list::add);
+        types = Collections.unmodifiableList(list);
       }
     }
   }
@@ -57,7 +67,7 @@ public class ServiceTypes {
     return types.iterator();
   }
 
-  private static ServiceLoader<ServiceType> types;
+  private static volatile List<ServiceType> types;
 
   public static ServiceType get(String type) {
     load();
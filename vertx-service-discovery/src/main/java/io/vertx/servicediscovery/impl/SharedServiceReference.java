@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceReference;
+
+import java.util.function.Supplier;
+
+/**
+ * The service reference given to each holder of a shared reference. It delegates to the underlying reference, and
+ * releasing it decrements the underlying reference counter.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+class SharedServiceReference implements ServiceReference {
+
+  private static final String RELEASED = "The service reference has been released";
+
+  private final DiscoveryImpl discovery;
+  private final ReferenceCache cache;
+  private final String key;
+  private final Supplier<ServiceReference> creator;
+  private volatile ServiceReference reference;
+  private volatile boolean released;
+  // Set when released because idle, the next access acquires the underlying reference again
+  private volatile boolean evicted;
+  private volatile boolean accessed;
+
+  SharedServiceReference(DiscoveryImpl discovery, ReferenceCache cache, String key,
+                         Supplier<ServiceReference> creator) {
+    this.discovery = discovery;
+    this.cache = cache;
+    this.key = key;
+    this.creator = creator;
+    this.reference = cache.acquire(key, creator);
+  }
+
+  @Override
+  public Record record() {
+    return reference.record();
+  }
+
+  @Override
+  public <T> T get() {
+    if (!accessed) {
+      accessed = true;
+    }
+    return acquired().get();
+  }
+
+  @Override
+  public <T> void get(Handler<AsyncResult<T>> resultHandler) {
+    if (isReleased()) {
+      resultHandler.handle(Future.failedFuture(new IllegalStateException(RELEASED)));
+      return;
+    }
+    if (!accessed) {
+      accessed = true;
+    }
+    acquired().get(resultHandler);
+  }
+
+  private ServiceReference acquired() {
+    if (isReleased()) {
+      // The underlying reference may have been released, it would create an untracked service object
+      throw new IllegalStateException(RELEASED);
+    }
+    if (evicted) {
+      synchronized (this) {
+        if (evicted) {
+          // Released because idle, but the holder still uses it: acquire it again and track it
+          evicted = false;
+          released = false;
+          reference = cache.acquire(key, creator);
+          discovery.rebind(this);
+        }
+      }
+    }
+    return reference;
+  }
+
+  @Override
+  public <T> T cached() {
+    return reference.cached();
+  }
+
+  @Override
+  public void reportSuccess(long latency) {
+    reference.reportSuccess(latency);
+  }
+
+  @Override
+  public void reportFailure(long latency) {
+    reference.reportFailure(latency);
+  }
+
+  /**
+   * @return whether or not the reference has been released by its holder (and not just evicted because idle)
+   */
+  private boolean isReleased() {
+    if (!released || evicted) {
+      return false;
+    }
+    // Checked again under the lock, as an eviction releases the reference before marking it evicted
+    synchronized (this) {
+      return released && !evicted;
+    }
+  }
+
+  /**
+   * @return whether or not the service object has been accessed since the last call to this method
+   */
+  boolean resetAccessed() {
+    if (accessed) {
+      accessed = false;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Releases the reference because it has not been accessed for a while. The holder may still use it, the next access
+   * acquires the underlying reference again.
+   *
+   * @return whether or not the reference was bound to the service discovery
+   */
+  synchronized boolean evict() {
+    if (released) {
+      return false;
+    }
+    boolean unbound = discovery.release(this);
+    evicted = true;
+    return unbound;
+  }
+
+  @Override
+  public void release() {
+    synchronized (this) {
+      evicted = false;
+      if (released) {
+        return;
+      }
+      released = true;
+    }
+    discovery.unbind(this);
+    cache.release(key);
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel tracking deadlines (such as the leases of the records). The time is divided in ticks, and the
+ * wheel has a fixed number of slots: a deadline is stored in the slot of its tick (modulo the number of slots), with
+ * the number of rounds to wait. Scheduling and cancelling a deadline are O(1), and advancing the wheel by one tick only
+ * visits the entries of one slot, whatever the number of entries.
+ * <p>
+ * A deadline can be pushed back without locking (by updating {@link Entry#deadline}): the entry is moved to its new
+ * slot when its previous slot is visited. This makes renewals (heartbeats) cheap, as a lease is generally renewed
+ * several times before expiring.
+ * <p>
+ * The wheel is not bound to a clock, {@link #advance(long)} is called with the current time.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class TimingWheel {
+
+  /**
+   * An entry of the wheel.
+   */
+  public static class Entry {
+    private final String key;
+    private volatile long deadline;
+    private volatile boolean cancelled;
+    private long rounds;
+
+    private Entry(String key, long deadline) {
+      this.key = key;
+      this.deadline = deadline;
+    }
+
+    /**
+     * @return the key of the entry.
+     */
+    public String key() {
+      return key;
+    }
+
+    /**
+     * @return the deadline of the entry.
+     */
+    public long deadline() {
+      return deadline;
+    }
+
+    /**
+     * Pushes back the deadline of the entry. The deadline must not be moved earlier.
+     *
+     * @param deadline the new deadline
+     */
+    public void renew(long deadline) {
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the entry, it is removed from the wheel when its slot is visited.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /**
+     * @return whether or not the entry has been cancelled.
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+  private final long tick;
+  private final long start;
+  private final List<Entry>[] slots;
+  // The next tick to process
+  private long ticks;
+  private int size;
+
+  /**
+   * Creates a new instance of {@link TimingWheel}.
+   *
+   * @param tick  the duration of a tick
+   * @param slots the number of slots
+   * @param start the current time
+   */
+  @SuppressWarnings("unchecked")
+  public TimingWheel(long tick, int slots, long start) {
+    if (tick < 1) {
+      throw new IllegalArgumentException("The tick duration must be at least 1");
+    }
+    if (slots < 1) {
+      throw new IllegalArgumentException("The number of slots must be at least 1");
+    }
+    this.tick = tick;
+    this.start = start;
+    this.slots = (List<Entry>[]) new List<?>[slots];
+    for (int i = 0; i < slots; i++) {
+      this.slots[i] = new ArrayList<>();
+    }
+  }
+
+  /**
+   * Schedules a deadline.
+   *
+   * @param key      the key of the entry
+   * @param deadline the deadline
+   * @return the entry, to renew or cancel the deadline
+   */
+  public synchronized Entry schedule(String key, long deadline) {
+    Entry entry = new Entry(key, deadline);
+    insert(entry);
+    size++;
+    return entry;
+  }
+
+  /**
+   * Advances the wheel up to the given time, and returns the entries whose deadline has passed. These entries are
+   * removed from the wheel, as are the cancelled entries.
+   *
+   * @param now the current time
+   * @return the expired entries, empty if none
+   */
+  public synchronized List<Entry> advance(long now) {
+    List<Entry> expired = new ArrayList<>();
+    long last = (now - start) / tick;
+    while (ticks <= last) {
+      int index = (int) (ticks % slots.length);
+      List<Entry> slot = slots[index];
+      if (slot.isEmpty()) {
+        ticks++;
+        continue;
+      }
+      List<Entry> kept = new ArrayList<>();
+      List<Entry> moved = new ArrayList<>();
+      for (Entry entry : slot) {
+        if (entry.cancelled) {
+          size--;
+        } else if (entry.rounds > 0) {
+          entry.rounds--;
+          kept.add(entry);
+        } else if (entry.deadline > now) {
+          // Renewed
+          moved.add(entry);
+        } else {
+          size--;
+          expired.add(entry);
+        }
+      }
+      slots[index] = kept;
+      ticks++;
+      moved.forEach(this::insert);
+    }
+    return expired;
+  }
+
+  /**
+   * @return the number of entries in the wheel, including the cancelled entries not removed yet.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  private void insert(Entry entry) {
+    // The tick at the end of which the deadline has passed, not before the next tick to process
+    long target = Math.max(ticks, (entry.deadline - start + tick - 1) / tick);
+    entry.rounds = (target - ticks) / slots.length;
+    slots[(int) (target % slots.length)].add(entry);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * A {@link MessageConsumer} that is never registered, returned by the service discovery implementations not
+ * supporting a stream of messages. It never receives messages, and its completion handler is called with the given
+ * failure.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class UnregisteredMessageConsumer<T> implements MessageConsumer<T> {
+
+  private final Throwable failure;
+
+  /**
+   * Creates a new instance of {@link UnregisteredMessageConsumer}.
+   *
+   * @param failure the reason why the consumer cannot be registered
+   */
+  public UnregisteredMessageConsumer(Throwable failure) {
+    this.failure = failure;
+  }
+
+  @Override
+  public MessageConsumer<T> exceptionHandler(Handler<Throwable> handler) {
+    return this;
+  }
+
+  @Override
+  public MessageConsumer<T> handler(Handler<Message<T>> handler) {
+    return this;
+  }
+
+  @Override
+  public MessageConsumer<T> pause() {
+    return this;
+  }
+
+  @Override
+  public MessageConsumer<T> resume() {
+    return this;
+  }
+
+  @Override
+  public MessageConsumer<T> endHandler(Handler<Void> endHandler) {
+    return this;
+  }
+
+  @Override
+  public ReadStream<T> bodyStream() {
+    throw new UnsupportedOperationException("The consumer is not registered");
+  }
+
+  @Override
+  public boolean isRegistered() {
+    return false;
+  }
+
+  @Override
+  public String address() {
+    return null;
+  }
+
+  @Override
+  public MessageConsumer<T> setMaxBufferedMessages(int maxBufferedMessages) {
+    return this;
+  }
+
+  @Override
+  public int getMaxBufferedMessages() {
+    return 0;
+  }
+
+  @Override
+  public void completionHandler(Handler<AsyncResult<Void>> completionHandler) {
+    completionHandler.handle(Future.failedFuture(failure));
+  }
+
+  @Override
+  public void unregister() {
+    // Not registered.
+  }
+
+  @Override
+  public void unregister(Handler<AsyncResult<Void>> completionHandler) {
+    if (completionHandler != null) {
+      completionHandler.handle(Future.succeededFuture());
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Selects a random record, proportionally to its weight. The weight is read from the {@code weight} entry of the
+ * metadata (1 by default).
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class WeightedSelector extends AbstractServiceSelector {
+
+  @Override
+  protected Record doSelect(List<Record> records, String key) {
+    int total = 0;
+    for (Record record : records) {
+      total += weight(record);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (total <= 0) {
+      return records.get(random.nextInt(records.size()));
+    }
+    int value = random.nextInt(total);
+    for (Record record : records) {
+      value -= weight(record);
+      if (value < 0) {
+        return record;
+      }
+    }
+    return records.get(records.size() - 1);
+  }
+
+  private static int weight(Record record) {
+    return Math.max(0, record.getMetadata().getInteger("weight", 1));
+  }
+}
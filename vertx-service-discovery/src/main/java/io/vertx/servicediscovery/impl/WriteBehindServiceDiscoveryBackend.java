@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.spi.ServiceDiscoveryBackend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ServiceDiscoveryBackend} decorator delaying the updates sent to the wrapped backend.
+ * <p>
+ * Updates are acknowledged once staged locally, and flushed periodically to the wrapped backend. Successive updates
+ * of the same record are coalesced: only the last state is written. A registration is written at most once per
+ * batch, and a batch starts only when the previous one has completed, so the writes of a registration reach the
+ * wrapped backend in order. Reads see the staged updates.
+ * <p>
+ * Stores are written through, as the registration id is assigned by the wrapped backend. By default, removals wait
+ * until all the staged updates have been flushed ({@code flush-on-remove}), so the acknowledgement of a removal
+ * guarantees that all the previous writes have been applied. When disabled, the staged update of the removed
+ * record is discarded and the removal is sent immediately. In both cases, if a write of the removed record is in
+ * flight, the removal is sent once this write has completed, and a failed write of a removed record is not retried,
+ * so a removed record is never written back. A removal only fails if the write of its own record has failed.
+ * <p>
+ * A failed write is retried on the next flushes, unless a more recent state of the record has been staged in the
+ * meantime. After {@code max-retries} failed retries, the update is dropped (and counted in the {@code dropped}
+ * metric).
+ * <p>
+ * This decorator is enabled by adding a {@code write-behind} object to the backend configuration. This object
+ * supports:
+ * <ul>
+ * <li>{@code flush-interval}: the time in milliseconds between two flushes, 100 by default</li>
+ * <li>{@code max-batch-size}: the maximum number of records written per batch. When this number of updates is
+ * staged, a flush is triggered immediately. 100 by default</li>
+ * <li>{@code flush-on-remove}: whether or not the staged updates are flushed before a removal, {@code true} by
+ * default</li>
+ * <li>{@code max-retries}: the number of times a failed write is retried before dropping the update, 10 by
+ * default</li>
+ * </ul>
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class WriteBehindServiceDiscoveryBackend implements ServiceDiscoveryBackend {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindServiceDiscoveryBackend.class);
+
+  private final ServiceDiscoveryBackend delegate;
+
+  private final Map<String, Record> staged = new LinkedHashMap<>();
+  // Notified with the write failures per registration
+  private final List<Handler<Map<String, Throwable>>> waiters = new ArrayList<>();
+  private boolean flushing;
+  // The registrations of the batch being written, and the removals waiting for their write to complete
+  private final Set<String> inFlight = new HashSet<>();
+  private final Map<String, Handler<Void>> deferredRemovals = new HashMap<>();
+  // The number of failed writes of the staged updates, per registration
+  private final Map<String, Integer> retries = new HashMap<>();
+
+  private final AtomicLong updates = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  private Vertx vertx;
+  private int maxBatchSize;
+  private boolean flushOnRemove;
+  private int maxRetries;
+  private long timer = -1;
+
+  /**
+   * Creates a new instance of {@link WriteBehindServiceDiscoveryBackend}.
+   *
+   * @param delegate the wrapped backend
+   */
+  public WriteBehindServiceDiscoveryBackend(ServiceDiscoveryBackend delegate) {
+    this.delegate = Objects.requireNonNull(delegate);
+  }
+
+  @Override
+  public String name() {
+    return delegate.name();
+  }
+
+  @Override
+  public void init(Vertx vertx, JsonObject config) {
+    init(vertx, config, ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS);
+  }
+
+  @Override
+  public void init(Vertx vertx, JsonObject config, String address) {
+    delegate.init(vertx, config, address);
+    this.vertx = vertx;
+    JsonObject conf = config.getJsonObject("write-behind", new JsonObject());
+    maxBatchSize = conf.getInteger("max-batch-size", 100);
+    flushOnRemove = conf.getBoolean("flush-on-remove", true);
+    maxRetries = conf.getInteger("max-retries", 10);
+    timer = vertx.setPeriodic(conf.getLong("flush-interval", 100L), l -> flush(null));
+  }
+
+  @Override
+  public void store(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    delegate.store(record, resultHandler);
+  }
+
+  @Override
+  public void remove(Record record, Handler<AsyncResult<Record>> resultHandler) {
+    Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
+    remove(record.getRegistration(), resultHandler);
+  }
+
+  @Override
+  public void remove(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    Objects.requireNonNull(uuid, "No registration id in the record");
+    if (flushOnRemove) {
+      flushAndThen(failed -> {
+        // Only the failure of the removed record matters
+        Throwable failure = failed.get(uuid);
+        if (failure != null) {
+          resultHandler.handle(Future.failedFuture(failure));
+        } else {
+          removeAfterInFlightWrite(uuid, resultHandler);
+        }
+      });
+    } else {
+      removeAfterInFlightWrite(uuid, resultHandler);
+    }
+  }
+
+  /**
+   * Discards the staged update of the record, and sends the removal to the wrapped backend, once the write of the
+   * record in flight (if any) has completed.
+   */
+  private void removeAfterInFlightWrite(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    Handler<Void> removal = v -> delegate.remove(uuid, resultHandler);
+    synchronized (this) {
+      staged.remove(uuid);
+      retries.remove(uuid);
+      if (inFlight.contains(uuid)) {
+        deferredRemovals.merge(uuid, removal, (first, second) -> v -> {
+          first.handle(null);
+          second.handle(null);
+        });
+        return;
+      }
+    }
+    removal.handle(null);
+  }
+
+  @Override
+  public void update(Record record, Handler<AsyncResult<Void>> resultHandler) {
+    Objects.requireNonNull(record.getRegistration(), "No registration id in the record");
+    // Copy the record, as the caller may modify it before the flush.
+    Record copy = new Record(record.toJson());
+    boolean full;
+    synchronized (this) {
+      staged.put(copy.getRegistration(), copy);
+      // A new state, retried from scratch
+      retries.remove(copy.getRegistration());
+      full = staged.size() >= maxBatchSize;
+    }
+    updates.incrementAndGet();
+    resultHandler.handle(Future.succeededFuture());
+    if (full) {
+      flush(null);
+    }
+  }
+
+  @Override
+  public void getRecords(Handler<AsyncResult<List<Record>>> resultHandler) {
+    delegate.getRecords(ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(ar);
+        return;
+      }
+      Map<String, Record> pending;
+      synchronized (this) {
+        if (staged.isEmpty()) {
+          resultHandler.handle(ar);
+          return;
+        }
+        pending = new LinkedHashMap<>(staged);
+      }
+      List<Record> records = new ArrayList<>(ar.result().size());
+      for (Record record : ar.result()) {
+        Record update = pending.remove(record.getRegistration());
+        records.add(update != null ? new Record(update.toJson()) : record);
+      }
+      for (Record update : pending.values()) {
+        records.add(new Record(update.toJson()));
+      }
+      resultHandler.handle(Future.succeededFuture(records));
+    });
+  }
+
+  @Override
+  public void getRecord(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+    Record update;
+    synchronized (this) {
+      update = staged.get(uuid);
+    }
+    if (update != null) {
+      resultHandler.handle(Future.succeededFuture(new Record(update.toJson())));
+    } else {
+      delegate.getRecord(uuid, resultHandler);
+    }
+  }
+
+  /**
+   * Flushes the staged updates. If a batch is already being written, the flush happens when it completes.
+   *
+   * @param completionHandler called when all the updates staged before the call have been written (or failed), may
+   *                          be {@code null}
+   */
+  public void flush(Handler<AsyncResult<Void>> completionHandler) {
+    if (completionHandler == null) {
+      flushAndThen(null);
+    } else {
+      flushAndThen(failed -> completionHandler.handle(failed.isEmpty()
+          ? Future.succeededFuture() : Future.failedFuture(failed.values().iterator().next())));
+    }
+  }
+
+  /**
+   * Flushes the staged updates, and calls the given handler with the failed writes (per registration) once all the
+   * updates staged before the call have been written (or failed).
+   */
+  private void flushAndThen(Handler<Map<String, Throwable>> completionHandler) {
+    List<Record> batch;
+    List<Handler<Map<String, Throwable>>> completed;
+    synchronized (this) {
+      if (completionHandler != null) {
+        waiters.add(completionHandler);
+      }
+      if (flushing) {
+        // Will be flushed when the current batch completes.
+        return;
+      }
+      if (staged.isEmpty()) {
+        completed = new ArrayList<>(waiters);
+        waiters.clear();
+        batch = null;
+      } else {
+        batch = new ArrayList<>(Math.min(staged.size(), maxBatchSize));
+        Iterator<Record> iterator = staged.values().iterator();
+        while (iterator.hasNext() && batch.size() < maxBatchSize) {
+          Record record = iterator.next();
+          batch.add(record);
+          inFlight.add(record.getRegistration());
+          iterator.remove();
+        }
+        // The waiters are notified once all the staged updates are written
+        completed = null;
+        flushing = true;
+      }
+    }
+
+    if (batch == null) {
+      completed.forEach(handler -> handler.handle(Collections.emptyMap()));
+      return;
+    }
+
+    batches.incrementAndGet();
+    AtomicInteger remaining = new AtomicInteger(batch.size());
+    Map<String, Throwable> failed = new ConcurrentHashMap<>();
+    for (Record record : batch) {
+      String registration = record.getRegistration();
+      delegate.update(record, ar -> {
+        Handler<Void> removal;
+        // Whether the failed write is retried, or dropped after too many retries
+        boolean retried = false;
+        boolean drop = false;
+        synchronized (this) {
+          inFlight.remove(registration);
+          removal = deferredRemovals.remove(registration);
+          if (ar.succeeded() || removal != null) {
+            retries.remove(registration);
+          } else if (!staged.containsKey(registration)) {
+            // Retry later, unless a more recent state has been staged in the meantime
+            retried = retries.merge(registration, 1, Integer::sum) <= maxRetries;
+            drop = !retried;
+            if (retried) {
+              staged.put(registration, record);
+            } else {
+              retries.remove(registration);
+            }
+          }
+        }
+        if (ar.failed()) {
+          failures.incrementAndGet();
+          failed.put(registration, ar.cause());
+          if (retried) {
+            LOGGER.warn("Cannot write the record " + registration + ", will retry", ar.cause());
+          } else if (drop) {
+            dropped.incrementAndGet();
+            LOGGER.error("Cannot write the record " + registration + ", dropping the update after " + maxRetries
+                + " retries", ar.cause());
+          }
+        } else {
+          writes.incrementAndGet();
+        }
+        if (removal != null) {
+          removal.handle(null);
+        }
+        if (remaining.decrementAndGet() == 0) {
+          onBatchCompleted(failed);
+        }
+      });
+    }
+  }
+
+  private void onBatchCompleted(Map<String, Throwable> failed) {
+    List<Handler<Map<String, Throwable>>> completed = null;
+    boolean again;
+    synchronized (this) {
+      flushing = false;
+      if (!failed.isEmpty()) {
+        // Do not retry immediately, the staged updates are retried on the next periodic flush.
+        completed = new ArrayList<>(waiters);
+        waiters.clear();
+        again = false;
+      } else {
+        again = !waiters.isEmpty() || staged.size() >= maxBatchSize;
+      }
+    }
+    if (completed != null) {
+      completed.forEach(handler -> handler.handle(failed));
+    }
+    if (again) {
+      flush(null);
+    }
+  }
+
+  @Override
+  public void renew(String uuid, Handler<AsyncResult<Void>> resultHandler) {
+    delegate.renew(uuid, resultHandler);
+  }
+
+  /**
+   * @return metrics about the write-behind: number of staged updates, updates received, writes sent to the wrapped
+   * backend, batches, failed writes and updates dropped after too many failed writes. The number of coalesced updates
+   * is the difference between the received updates and the writes. The metrics of the wrapped backend are available
+   * in {@code backend}.
+   */
+  @Override
+  public synchronized JsonObject metrics() {
+    return new JsonObject()
+        .put("staged", staged.size())
+        .put("updates", updates.get())
+        .put("writes", writes.get())
+        .put("batches", batches.get())
+        .put("failures", failures.get())
+        .put("dropped", dropped.get())
+        .put("backend", delegate.metrics());
+  }
+
+  @Override
+  public void close() {
+    if (timer != -1) {
+      vertx.cancelTimer(timer);
+      timer = -1;
+    }
+    // Best effort, write what's staged before closing the wrapped backend.
+    flush(ar -> delegate.close());
+  }
+}
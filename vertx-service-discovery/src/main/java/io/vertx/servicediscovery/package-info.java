@@ -141,6 +141,28 @@
  *
  * Notice that the discovery does not require vert.x clustering. In single-node mode, the map is a local map. It can
  * be populated with {@link io.vertx.servicediscovery.spi.ServiceImporter}s.
+ *
+ * In single-node mode, the records are lost when the application stops. To keep them, set the `backend-name` entry
+ * of the backend configuration to `io.vertx.servicediscovery.impl.PersistentServiceDiscoveryBackend`. This backend
+ * appends each modification to a log stored in the `directory` set in the backend configuration
+ * (`.vertx/discovery` by default), compacts it periodically (every `compaction-interval` ms) into a snapshot, and
+ * restores the records on startup.
+ *
+ * For very large registries, the `io.vertx.servicediscovery.impl.OffHeapServiceDiscoveryBackend` backend stores the
+ * encoded records outside of the Java heap (in direct buffers of `slab-size` bytes), and decodes them only when they
+ * are looked up. The lookup filters are applied while reading the records, so only the matching records are kept on
+ * the heap. This reduces the memory used on the heap, and so the GC pressure.
+ *
+ * When the backend is remote (such as Redis), each update costs a round trip. Adding a `write-behind` object to the
+ * backend configuration acknowledges the updates as soon as they are staged locally, and writes them to the backend
+ * periodically (every `flush-interval` ms), in batches of at most `max-batch-size` records. Successive updates of the
+ * same record are coalesced. By default, the staged updates are flushed before a removal (`flush-on-remove`). A
+ * failed write is retried at most `max-retries` times (10 by default), the update being dropped afterwards.
+ *
+ * To reduce the number of lookups reaching a remote backend, add a `cache` object to the backend configuration. The
+ * records are then kept in a local cache of at most `max-size` records, the least recently used ones being evicted.
+ * The list of all the records is also cached, unless it contains more than `max-size` records.
+ * The cache is invalidated by the announcements, and the entries expire after `ttl` ms.
  * 
  * == Creating a service discovery instance
  * 
@@ -185,6 +207,64 @@
  * {@link examples.Examples#example3(ServiceDiscovery, Record)}
  * ----
  * 
+ * A publisher crashing without un-publishing its records leaves them in the registry. To avoid this, publish the
+ * record with a lease (a duration in milliseconds), and renew it periodically with `heartbeat`. When the lease
+ * expires, the record is un-published and announced as `DOWN`:
+ *
+ * [source]
+ * ----
+ * discovery.publish(record, 5000, ar -> {
+ *   String registration = ar.result().getRegistration();
+ *   vertx.setPeriodic(1000, l -> discovery.heartbeat(registration, x -> { }));
+ * });
+ * ----
+ *
+ * A single service discovery instance among the ones sharing the announce address, the _reaper_ (elected using a
+ * cluster-wide lock), tracks the leases (in a timing wheel, so renewing and expiring leases is cheap even with many
+ * records) and un-publishes the expired records. The heartbeats are sent to the reaper, so `heartbeat` can be called
+ * on any instance. The lease duration is stored in the record metadata (`service.lease.ttl`): when the reaper is
+ * closed or its node leaves the cluster, another instance becomes the reaper and tracks the leases of the published
+ * records. So, a record expires even if its publisher has crashed.
+ *
+ * A {@link io.vertx.servicediscovery.HealthChecker} probes the published services periodically (HTTP `GET` for the
+ * HTTP endpoints, a message for the event bus services, a TCP connection for the other locations with a host and a
+ * port). Records failing their probes are set `OUT_OF_SERVICE` (and marked with the `health.marked` metadata entry),
+ * and so are not returned by the lookups anymore, until they pass their probes again. Thanks to the marker, any health
+ * checker sets them back `UP`, even after a restart, while the records put out of service by someone else are left
+ * alone:
+ *
+ * [source]
+ * ----
+ * HealthChecker checker = new HealthChecker(vertx, discovery, new JsonObject().put("interval", 5000)).start();
+ * ----
+ *
+ * Updating a record rewrites it in the backend and announces it entirely, which is too heavy for fields changing
+ * every second (such as the load of a service). Such volatile fields are updated with `updateHotMetadata`: they are
+ * broadcast as small deltas to the service discovery instances, and merged into the metadata of the records returned
+ * by the lookups. They are dropped when the record is un-published or announced `DOWN`. The load-balanced HTTP client
+ * applies them to its endpoints directly:
+ *
+ * [source]
+ * ----
+ * discovery.updateHotMetadata(registration, new JsonObject().put("load", 0.7), ar -> { });
+ * ----
+ *
+ * Bursts of updates of the same record (a flapping status, metadata refreshed several times in a row...) can be
+ * coalesced by setting {@link io.vertx.servicediscovery.ServiceDiscoveryOptions#setUpdateDebounceWindow(long)}: only
+ * the latest state of the record received during the window is written and announced, and the handlers of all the
+ * updates are called once it has been written. `flushUpdates` writes the pending updates immediately, and a pending
+ * update is dropped (its handlers being failed) when the record is un-published. On `close`, the pending updates are
+ * written before closing the exporters and the backend.
+ *
+ * An update announces the whole record, including its location and all its metadata. When
+ * {@link io.vertx.servicediscovery.ServiceDiscoveryOptions#setDeltaAnnouncements(boolean)} is enabled, updates are
+ * also announced as deltas containing the registration, a revision and only the changed fields, on the announce
+ * address suffixed with `.deltas` (`vertx.discovery.announce.deltas` by default). The service discovery instances
+ * apply them to the latest state of the record they know, and read the record when this state is not the one the
+ * delta has been computed from (a missed revision, or a concurrent update by another instance). Updates are announced
+ * once written to the backend. Consumers only interested in the changes can listen to this address instead of the
+ * announce address, and use {@link io.vertx.servicediscovery.utils.RecordDeltas} to apply the deltas.
+ *
  * == Looking for service
  * 
  * On the consumer side, the first thing to do is to lookup for records. You can search for a single record or all
@@ -236,6 +316,11 @@
  * 
  * Don't forget to release the reference once done.
  *
+ * Creating some service objects is expensive (a JDBC client creates a connection pool, an event bus service proxy is
+ * created by reflection). In Java, the {@link io.vertx.servicediscovery.ServiceReference#get(io.vertx.core.Handler)}
+ * method retrieves the service object asynchronously, creating these objects in a worker thread. The convenient
+ * methods provided by the service types (such as `getJDBCClient`) use it.
+ *
  * The service reference represents a binding with the service provider.
  *
  * When retrieving a service reference you can pass a {@link io.vertx.core.json.JsonObject} used to configure the
@@ -246,7 +331,89 @@
  * ----
  * {@link examples.Examples#example51(ServiceDiscovery, Record, io.vertx.core.json.JsonObject)}
  * ----
+ *
+ * By default, each reference creates its own service object. So, for instance, retrieving a reference on a HTTP
+ * endpoint for each request creates a new HTTP client (and connection pool) every time. When
+ * {@link io.vertx.servicediscovery.ServiceDiscoveryOptions#setSharedReferences(boolean)} is enabled, the references
+ * retrieved for the same registration and configuration share the same service object. The service object is closed
+ * when the last of these references is released.
+ *
+ * In Java, the service types also provide memoized lookups (such as `HttpEndpoint.memoizeClient` or
+ * `EventBusService.memoizeProxy`). A {@link io.vertx.servicediscovery.types.MemoizedLookup} keeps a single reference
+ * for its filter, and so can be called for each request. The reference is released when the record is updated or
+ * un-published (the next call looks up the record again), and when the lookup is closed.
+ *
+ * When a record is un-published (or set to `DOWN`), the references bound to it are not released automatically. To be
+ * notified, register a handler with
+ * {@link io.vertx.servicediscovery.ServiceDiscovery#departureHandler(io.vertx.core.Handler)}.
+ * When {@link io.vertx.servicediscovery.ServiceDiscoveryOptions#setReleaseOnDeparture(boolean)} is enabled, these
+ * references are also released. Departures are detected from the announcements, and the records are also checked
+ * periodically (every `departureCheckInterval` ms) in case an announcement is missed.
+ *
+ * References are kept until they are released. To release the references that are not used anymore, set
+ * {@link io.vertx.servicediscovery.ServiceDiscoveryOptions#setIdleReferenceTimeout(long)}: the references whose
+ * service object has not been retrieved (using `get`) for this duration are released. Calling `get` on such a
+ * reference binds it again, and retrieves a new service object.
  * 
+ * === Selecting a record among several records
+ *
+ * When several records provide the same service (several instances of a HTTP endpoint, replicas of a data source...),
+ * a {@link io.vertx.servicediscovery.ServiceSelector} chooses one of them. It works with any type of service. In Java,
+ * the following selectors are available: round-robin, random, least in-flight requests, power of two choices, weighted
+ * (by the `weight` metadata), exponentially weighted moving average of the latency, and consistent hashing (to route a
+ * key to the same record as long as it is available).
+ *
+ * [source, java]
+ * ----
+ * ServiceSelector selector = ServiceSelector.leastInFlight();
+ * selector.select(discovery, new JsonObject().put("name", "my-service"), null, ar -> {
+ *   Record record = ar.result();
+ *   // ...
+ *   selector.onStart(record);
+ *   // Send the request, and once completed:
+ *   selector.onComplete(record, latency, failed);
+ * });
+ * ----
+ *
+ * The in-flight requests and latencies are reported by the consumer using `onStart` and `onComplete`. Selectors are
+ * thread-safe and can be shared among event loops.
+ *
+ * The `latencyAware` selector prefers the records with a low latency, and temporarily ejects the outliers: the records
+ * failing several times in a row, or much slower than the others. The ejection time doubles each time a record is
+ * ejected again. Instead of calling `onComplete`, consumers can report the outcome of their requests on the service
+ * reference (`reportSuccess` and `reportFailure`). The feedback is forwarded to the selectors registered with
+ * `registerServiceSelector`.
+ *
+ * To route keys (for instance cache keys) to the records matching a filter, a
+ * {@link io.vertx.servicediscovery.ConsistentHashRing} maintains a consistent hash ring with virtual nodes. The ring is
+ * updated incrementally from the announcements, and a key stays routed to the same record as long as this record is
+ * available. Looking up a key does not allocate.
+ *
+ * When the `zone` is set in the {@link io.vertx.servicediscovery.ServiceDiscoveryOptions}, the published records are
+ * stamped with the node (`service.node` metadata) and the zone (`service.zone` metadata) they come from. The
+ * `locality` selector uses this metadata to prefer the records from the same node, then from the same zone, and
+ * falls back to the other records when none of them is healthy:
+ *
+ * [source]
+ * ----
+ * ServiceSelector selector = ServiceSelector.locality(discovery, ServiceSelector.latencyAware());
+ * ----
+ *
+ * Idempotent requests can be hedged to cut the tail latency: when no response has been received after a delay (a
+ * percentile of the measured latencies), a backup request is sent to another record, and the first response is used.
+ * A {@link io.vertx.servicediscovery.types.Hedging} instance computes the delay and limits the number of backup
+ * requests (to 5% of the requests by default). It is used by the `hedgedRequest` method of the load-balanced HTTP
+ * client, and by `EventBusService.hedge` for service proxies:
+ *
+ * [source]
+ * ----
+ * Hedging hedging = new Hedging(vertx).setPercentile(95);
+ * EventBusService.<HelloService, String>hedge(discovery, new JsonObject().put("name", "hello"),
+ *     ServiceSelector.roundRobin(), hedging, (hello, handler) -> hello.hello(name, handler), ar -> {
+ *       // The first result
+ *     });
+ * ----
+ *
  * == Types of services
  * 
  * A said above, the service discovery has the service type concept to manage the heterogeneity of the
@@ -343,6 +510,12 @@
  * {@link io.vertx.servicediscovery.ServiceDiscovery#releaseServiceObject(ServiceDiscovery, java.lang.Object)},
  * as you don't hold the service reference.
  *
+ * `getClient` uses a single endpoint. In Java, a {@link io.vertx.servicediscovery.types.LoadBalancedHttpClient}
+ * spreads the requests among all the HTTP endpoints matching a filter, using a
+ * {@link io.vertx.servicediscovery.ServiceSelector}. It tracks the matching endpoints using the announcements,
+ * and retries the requests on another endpoint when the connection fails. It is created using
+ * `HttpEndpoint.getLoadBalancedClient`, and must be closed to release the references on the endpoints.
+ *
  * === Event bus services
  *
  * Event bus services are service proxies. They implement async-RPC services on top of the event bus. When retrieved
@@ -351,6 +524,9 @@
  *
  * Notice that service proxies (service implementations and service interfaces) are developed in Java.
  *
+ * The service interfaces, client classes and their constructors are cached, so retrieving the service object of an
+ * already resolved service does not load classes. Each reference gets its own proxy, as a proxy can be closed.
+ *
  * ==== Publishing an event bus service
  *
  * To publish an event bus service, you need to create a {@link io.vertx.servicediscovery.Record}:
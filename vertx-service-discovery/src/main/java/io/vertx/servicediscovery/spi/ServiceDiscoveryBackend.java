@@ -17,6 +17,7 @@
 package io.vertx.servicediscovery.spi;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
@@ -24,6 +25,8 @@ import io.vertx.servicediscovery.Record;
 import io.vertx.servicediscovery.impl.DefaultServiceDiscoveryBackend;
 
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * By default the service discovery uses a distributed map to store the records. But this backend can be replaced. To
@@ -51,6 +54,19 @@ public interface ServiceDiscoveryBackend {
    */
   void init(Vertx vertx, JsonObject config);
 
+  /**
+   * Initializes the backend, passing the address on which the service discovery announces the service arrivals,
+   * departures and modifications. Backends removing records on their own (for instance when their lease expires)
+   * announce these removals on this address. By default it calls {@link #init(Vertx, JsonObject)}.
+   *
+   * @param vertx    the vert.x instance
+   * @param config   the configuration if any.
+   * @param announce the announce address of the service discovery
+   */
+  default void init(Vertx vertx, JsonObject config, String announce) {
+    init(vertx, config);
+  }
+
   /**
    * Stores a record.
    *
@@ -90,6 +106,25 @@ public interface ServiceDiscoveryBackend {
    */
   void getRecords(Handler<AsyncResult<List<Record>>> resultHandler);
 
+  /**
+   * Gets the records accepted by the given filter. Backends able to apply the filter while reading the records (to
+   * avoid materializing the records that are not accepted) override this method. By default, it retrieves all the
+   * records and filters them.
+   *
+   * @param filter        the filter, must be cheap and non-blocking as it may be called while the backend is locked
+   * @param resultHandler the result handler
+   */
+  default void getRecords(Function<Record, Boolean> filter, Handler<AsyncResult<List<Record>>> resultHandler) {
+    getRecords(ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      } else {
+        resultHandler.handle(Future.succeededFuture(
+            ar.result().stream().filter(filter::apply).collect(Collectors.toList())));
+      }
+    });
+  }
+
   /**
    * Get the record with the given uuid.
    *
@@ -98,4 +133,31 @@ public interface ServiceDiscoveryBackend {
    */
   void getRecord(String uuid, Handler<AsyncResult<Record>> resultHandler);
 
+  /**
+   * Renews the lease of a record, for backends expiring the records they store. By default, leases are not supported
+   * and the operation fails with an {@link UnsupportedOperationException}.
+   *
+   * @param uuid          the uuid / registration id
+   * @param resultHandler the completion handler, failed if the record does not exist anymore
+   */
+  default void renew(String uuid, Handler<AsyncResult<Void>> resultHandler) {
+    resultHandler.handle(Future.failedFuture(new UnsupportedOperationException("Leases are not supported")));
+  }
+
+  /**
+   * @return metrics about the backend, the content depends on the implementation. By default it returns an empty
+   * object.
+   */
+  default JsonObject metrics() {
+    return new JsonObject();
+  }
+
+  /**
+   * Closes the backend, releasing the resources (timers, connections...) it may hold. Called when the service
+   * discovery is closed. By default it does nothing.
+   */
+  default void close() {
+    // Do nothing by default.
+  }
+
 }
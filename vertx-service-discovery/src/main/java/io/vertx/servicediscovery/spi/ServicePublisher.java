@@ -1,7 +1,9 @@
 package io.vertx.servicediscovery.spi;
 
+import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.VertxGen;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.servicediscovery.Record;
 
@@ -30,4 +32,39 @@ public interface ServicePublisher {
    */
   void unpublish(String id, Handler<AsyncResult<Void>> resultHandler);
 
+  /**
+   * Publishes a record with a lease: unless renewed using {@link #heartbeat(String, Handler)}, the record is
+   * un-published (and announced as {@code DOWN}) once the lease expires. The leases are tracked by a single service
+   * discovery instance (elected among the instances sharing the registry), and the lease duration is stored in the
+   * record metadata: the record expires even if the publishing instance is gone, and the heartbeats can be sent to
+   * any instance.
+   * <p>
+   * By default, leases are not supported and the operation fails with an {@link UnsupportedOperationException}.
+   *
+   * @param record        the record
+   * @param ttl           the duration of the lease in milliseconds, renewed by each heartbeat
+   * @param resultHandler handler called when the operation has completed (successfully or not). In case of success,
+   *                      the passed record has a registration id required to renew the lease, modify and un-register
+   *                      the service.
+   */
+  @GenIgnore
+  default void publish(Record record, long ttl, Handler<AsyncResult<Record>> resultHandler) {
+    resultHandler.handle(Future.failedFuture(new UnsupportedOperationException("Leases are not supported")));
+  }
+
+  /**
+   * Renews the lease of a record published with {@link #publish(Record, long, Handler)}. The lease is extended by its
+   * duration from now.
+   * <p>
+   * By default, leases are not supported and the operation fails with an {@link UnsupportedOperationException}.
+   *
+   * @param registration  the registration id
+   * @param resultHandler handler called when the operation has completed, failed if the record has no lease (not
+   *                      published with a lease, expired or un-published)
+   */
+  @GenIgnore
+  default void heartbeat(String registration, Handler<AsyncResult<Void>> resultHandler) {
+    resultHandler.handle(Future.failedFuture(new UnsupportedOperationException("Leases are not supported")));
+  }
+
 }
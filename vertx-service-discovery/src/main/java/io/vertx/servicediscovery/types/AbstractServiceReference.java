@@ -16,6 +16,8 @@
 
 package io.vertx.servicediscovery.types;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.servicediscovery.ServiceDiscovery;
 import io.vertx.servicediscovery.Record;
@@ -25,7 +27,7 @@ import io.vertx.servicediscovery.impl.DiscoveryImpl;
 /**
  * A class to simplify the implementation of service reference.
  * It stores the service object once retrieved. This class handles the synchronization, so callbacks are called with
- * the monitor lock to avoid concurrent accesses.
+ * the monitor lock to avoid concurrent accesses. Once retrieved, the service object is read without locking.
  *
  * @param <T> the type of service object
  * @author <a href="http://escoffier.me">Clement Escoffier</a>
@@ -34,7 +36,17 @@ public abstract class AbstractServiceReference<T> implements ServiceReference {
 
   private final ServiceDiscovery discovery;
 
-  protected T service;
+  /**
+   * The service object, {@code null} if not retrieved or released. Written with the monitor lock held, and read
+   * without it (the field is volatile to publish the service object safely).
+   */
+  protected volatile T service;
+
+  // Set on each access, reset by the service discovery to detect idle references
+  private volatile boolean accessed;
+
+  // Set when released because idle, the next retrieval binds the reference again
+  private boolean evicted;
 
   private final Record record;
 
@@ -59,7 +71,8 @@ public abstract class AbstractServiceReference<T> implements ServiceReference {
    * @return the cached service object, {@code null} if none
    */
   @Override
-  public synchronized <X> X cached() {
+  @SuppressWarnings("unchecked")
+  public <X> X cached() {
     return (X) service;
   }
 
@@ -70,11 +83,58 @@ public abstract class AbstractServiceReference<T> implements ServiceReference {
    * @return the service object
    */
   @Override
-  public synchronized <X> X get() {
+  @SuppressWarnings("unchecked")
+  public <X> X get() {
+    if (!accessed) {
+      // Only write when needed, to avoid invalidating the cache line on every access
+      accessed = true;
+    }
+    T svc = service;
+    if (svc == null) {
+      svc = retrieveIfNeeded();
+    }
+    return (X) svc;
+  }
+
+  private synchronized T retrieveIfNeeded() {
+    if (evicted) {
+      // Released because idle, but the holder still uses it: track it again
+      evicted = false;
+      ((DiscoveryImpl) discovery).rebind(this);
+    }
+    // Double-checked, the service object may have been retrieved while waiting for the lock
     if (service == null) {
       service = retrieve();
     }
-    return cached();
+    return service;
+  }
+
+  /**
+   * Gets the service object asynchronously. If already retrieved, the handler is called immediately with the cached
+   * value. Otherwise, if {@link #isRetrievalBlocking()} returns {@code true}, {@link #retrieve()} is called in a
+   * worker thread, and the handler is called in the caller context.
+   *
+   * @param resultHandler the handler receiving the service object
+   * @param <X>           the type of result
+   */
+  @Override
+  public <X> void get(Handler<AsyncResult<X>> resultHandler) {
+    if (service != null || !isRetrievalBlocking()) {
+      ServiceReference.super.get(resultHandler);
+    } else {
+      vertx.<X>executeBlocking(future -> future.complete(get()), false, resultHandler);
+    }
+  }
+
+  /**
+   * Whether or not {@link #retrieve()} may block, or is too expensive to be called on an event loop thread. If so,
+   * the asynchronous {@link #get(Handler)} calls it in a worker thread. Service objects bound to the context creating
+   * them (such as HTTP clients) must not be created in a worker thread. {@code false} by default.
+   *
+   * @return {@code true} if the retrieval is blocking
+   */
+  protected boolean isRetrievalBlocking() {
+    return false;
   }
 
   /**
@@ -93,16 +153,54 @@ public abstract class AbstractServiceReference<T> implements ServiceReference {
     // Do nothing by default.
   }
 
+  /**
+   * Checks whether the service object has been accessed (using {@link #get()}) since the last call to this method.
+   * Used by the service discovery to evict idle references.
+   *
+   * @return {@code true} if the service object has been accessed
+   */
+  public boolean resetAccessed() {
+    if (accessed) {
+      accessed = false;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Releases the reference because it has not been accessed for a while. Unlike {@link #release()}, the holder may
+   * still use the reference: the next {@link #get()} binds it again to the service discovery and retrieves a new
+   * service object.
+   *
+   * @return whether or not the reference was bound to the service discovery
+   */
+  public synchronized boolean evict() {
+    boolean released = ((DiscoveryImpl) discovery).release(this);
+    evicted = true;
+    return released;
+  }
+
   @Override
   public Record record() {
     return record;
   }
 
+  @Override
+  public void reportSuccess(long latency) {
+    ((DiscoveryImpl) discovery).feedback(record, latency, false);
+  }
+
+  @Override
+  public void reportFailure(long latency) {
+    ((DiscoveryImpl) discovery).feedback(record, latency, true);
+  }
+
   /**
    * If the service object has been retrieved, calls {@link #close} and release the reference. Otherwise, does nothing.
    */
   @Override
   public synchronized void release() {
+    evicted = false;
     ((DiscoveryImpl) discovery).unbind(this);
     if (service != null) {
       close();
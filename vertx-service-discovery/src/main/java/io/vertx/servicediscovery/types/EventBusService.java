@@ -25,9 +25,11 @@ import io.vertx.core.json.JsonObject;
 import io.vertx.servicediscovery.ServiceDiscovery;
 import io.vertx.servicediscovery.Record;
 import io.vertx.servicediscovery.ServiceReference;
+import io.vertx.servicediscovery.ServiceSelector;
 import io.vertx.servicediscovery.spi.ServiceType;
 
 import java.util.Objects;
+import java.util.function.BiConsumer;
 
 /**
  * {@link ServiceType} for event bus services (service proxies).
@@ -121,7 +123,7 @@ public interface EventBusService extends ServiceType {
           resultHandler.handle(Future.failedFuture("Cannot find service matching with " + filter));
         } else {
           ServiceReference service = discovery.getReference(ar.result());
-          resultHandler.handle(Future.succeededFuture(service.get()));
+          service.get(resultHandler);
         }
       }
     });
@@ -161,7 +163,7 @@ public interface EventBusService extends ServiceType {
         } else {
           ServiceReference service = discovery.getReferenceWithConfiguration(ar.result(),
               new JsonObject().put("client.class", proxyClass));
-          resultHandler.handle(Future.succeededFuture(service.get()));
+          service.get(resultHandler);
         }
       }
     });
@@ -182,4 +184,88 @@ public interface EventBusService extends ServiceType {
     JsonObject filter = new JsonObject().put("service.interface", itf);
     getProxy(discovery, filter, resultHandler);
   }
+
+  /**
+   * Same as {@link #getProxy(ServiceDiscovery, JsonObject, Handler)}, but memoizes the lookup: the returned
+   * {@link MemoizedLookup} keeps the reference (and so the proxy) until the record changes or goes down. It can be
+   * called on every invocation. Close it to release the reference.
+   *
+   * @param discovery the service discovery instance
+   * @param filter    the filter to select the service
+   * @param <T>       the service interface
+   * @return the memoized lookup
+   */
+  @GenIgnore
+  static <T> MemoizedLookup<T> memoizeProxy(ServiceDiscovery discovery, JsonObject filter) {
+    return new MemoizedLookup<>(discovery, filter, null);
+  }
+
+  /**
+   * Same as {@link #memoizeProxy(ServiceDiscovery, JsonObject)}, using a filter based on the service interface.
+   *
+   * @param discovery the service discovery instance
+   * @param itf       the service interface
+   * @param <T>       the service interface
+   * @return the memoized lookup
+   */
+  @GenIgnore
+  static <T> MemoizedLookup<T> memoizeProxy(ServiceDiscovery discovery, Class<T> itf) {
+    return memoizeProxy(discovery, new JsonObject().put("service.interface", itf.getName()));
+  }
+
+  /**
+   * Same as {@link #memoizeProxy(ServiceDiscovery, JsonObject)}, wrapping the proxy into the given client class.
+   *
+   * @param discovery  the service discovery instance
+   * @param filter     the filter to select the service
+   * @param proxyClass the client class
+   * @param <T>        the type of client
+   * @return the memoized lookup
+   */
+  @GenIgnore
+  static <T> MemoizedLookup<T> memoizeProxy(ServiceDiscovery discovery, JsonObject filter, String proxyClass) {
+    return new MemoizedLookup<>(discovery, filter, new JsonObject().put("client.class", proxyClass));
+  }
+
+  /**
+   * Invokes an idempotent operation on one of the service proxies matching the filter, and hedges it: if no response
+   * is received in time, the operation is also invoked on another matching service, and the first result is used.
+   * The result of the other invocation is ignored, as event bus requests cannot be cancelled. The records are looked
+   * up on each call, and the references released once the invocation completes.
+   *
+   * @param discovery     the service discovery instance
+   * @param filter        the filter to select the services, optional
+   * @param selector      the selector choosing the services
+   * @param hedging       the hedging policy, generally shared by the application
+   * @param call          the function invoking the operation on a proxy
+   * @param resultHandler the handler receiving the first result, or the failure
+   * @param <T>           the service interface
+   * @param <R>           the type of result
+   */
+  @GenIgnore
+  static <T, R> void hedge(ServiceDiscovery discovery, JsonObject filter, ServiceSelector selector, Hedging hedging,
+                           BiConsumer<T, Handler<AsyncResult<R>>> call, Handler<AsyncResult<R>> resultHandler) {
+    Objects.requireNonNull(call);
+    discovery.getRecords(record -> TYPE.equals(record.getType()) && (filter == null || record.match(filter)), ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+        return;
+      }
+      hedging.<R>execute(ar.result(), selector, null, (record, handler) -> {
+        ServiceReference reference = discovery.getReference(record);
+        reference.<T>get(proxy -> {
+          if (proxy.failed()) {
+            discovery.release(reference);
+            handler.handle(Future.failedFuture(proxy.cause()));
+          } else {
+            call.accept(proxy.result(), result -> {
+              discovery.release(reference);
+              handler.handle(result);
+            });
+          }
+        });
+        return null;
+      }, resultHandler);
+    });
+  }
 }
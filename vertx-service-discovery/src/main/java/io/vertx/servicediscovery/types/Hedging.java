@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.types;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceSelector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedges requests among several records: the request is sent to a first record, and if no response is received after
+ * a delay, a second (backup) request is sent to another record. The first response is used, and the other request is
+ * cancelled. Only hedge idempotent requests, as both records may process the request.
+ * <p>
+ * The delay is a percentile (95th by default) of the latencies of the last successful requests, bounded by
+ * {@link #setMinDelay(long)} and {@link #setMaxDelay(long)}. Until enough latencies have been measured, the maximum
+ * delay is used. The number of backup requests is limited by a budget shared by all the requests using this instance:
+ * each request earns a fraction ({@link #setBudget(double)}) of a backup request, and a few backup requests can be
+ * sent in a burst.
+ * <p>
+ * {@link LoadBalancedHttpClient#hedgedRequest} hedges HTTP requests, and
+ * {@link EventBusService#hedge(io.vertx.servicediscovery.ServiceDiscovery, io.vertx.core.json.JsonObject,
+ * ServiceSelector, Hedging, java.util.function.BiConsumer, Handler)} hedges calls on service proxies. Other types of
+ * services can use {@link #execute(List, ServiceSelector, String, Attempt, Handler)} directly. This class is
+ * thread-safe, a single instance is generally shared by the application.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class Hedging {
+
+  /**
+   * Sends a request to a record.
+   *
+   * @param <T> the type of response
+   */
+  @FunctionalInterface
+  public interface Attempt<T> {
+
+    /**
+     * Sends the request to the given record. The handler must be called once, with the response or the failure.
+     *
+     * @param record  the record
+     * @param handler the handler receiving the response
+     * @return an action cancelling the request, {@code null} if the request cannot be cancelled (its response is then
+     * ignored)
+     */
+    Runnable send(Record record, Handler<AsyncResult<T>> handler);
+  }
+
+  private static final int WINDOW = 1024;
+  private static final int MIN_SAMPLES = 20;
+  private static final int REFRESH_PERIOD = 32;
+  // The budget is counted in thousandths of backup request
+  private static final long UNIT = 1000;
+  private static final long MAX_BURST = 10 * UNIT;
+
+  private final Vertx vertx;
+  private final long[] samples = new long[WINDOW];
+  private final AtomicLong sampled = new AtomicLong();
+  private final AtomicLong tokens = new AtomicLong(MAX_BURST);
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong wins = new AtomicLong();
+  private volatile double percentile = 95;
+  private volatile long minDelay = 1;
+  private volatile long maxDelay = 1000;
+  private volatile double budget = 0.05;
+  private volatile long delay = -1;
+
+  /**
+   * Creates a new instance of {@link Hedging}.
+   *
+   * @param vertx the vert.x instance
+   */
+  public Hedging(Vertx vertx) {
+    Objects.requireNonNull(vertx);
+    this.vertx = vertx;
+  }
+
+  /**
+   * Sets the percentile of the latency after which the backup request is sent. 95 by default.
+   *
+   * @param percentile the percentile, between 0 (excluded) and 100 (included)
+   * @return the current instance
+   */
+  public Hedging setPercentile(double percentile) {
+    if (percentile <= 0 || percentile > 100) {
+      throw new IllegalArgumentException("The percentile must be in ]0, 100]");
+    }
+    this.percentile = percentile;
+    this.delay = -1;
+    return this;
+  }
+
+  /**
+   * Sets the minimum delay (in ms) before sending the backup request. 1 ms by default.
+   *
+   * @param minDelay the minimum delay in milliseconds, at least 1
+   * @return the current instance
+   */
+  public Hedging setMinDelay(long minDelay) {
+    if (minDelay < 1) {
+      throw new IllegalArgumentException("The minimum delay must be at least 1 ms");
+    }
+    this.minDelay = minDelay;
+    this.delay = -1;
+    return this;
+  }
+
+  /**
+   * Sets the maximum delay (in ms) before sending the backup request, also used until enough latencies have been
+   * measured. 1 second by default.
+   *
+   * @param maxDelay the maximum delay in milliseconds, at least 1
+   * @return the current instance
+   */
+  public Hedging setMaxDelay(long maxDelay) {
+    if (maxDelay < 1) {
+      throw new IllegalArgumentException("The maximum delay must be at least 1 ms");
+    }
+    this.maxDelay = maxDelay;
+    this.delay = -1;
+    return this;
+  }
+
+  /**
+   * Sets the budget of backup requests, as a ratio of the number of requests. 0.05 by default: at most one request
+   * out of twenty is hedged (in addition to a burst of 10 backup requests).
+   *
+   * @param budget the budget, between 0 and 1
+   * @return the current instance
+   */
+  public Hedging setBudget(double budget) {
+    if (budget < 0 || budget > 1) {
+      throw new IllegalArgumentException("The budget must be in [0, 1]");
+    }
+    this.budget = budget;
+    return this;
+  }
+
+  /**
+   * @return the current delay (in ms) before sending the backup request.
+   */
+  public long delay() {
+    long current = delay;
+    if (current < 0) {
+      current = computeDelay();
+      delay = current;
+    }
+    return current;
+  }
+
+  /**
+   * @return the number of backup requests sent.
+   */
+  public long hedges() {
+    return hedges.get();
+  }
+
+  /**
+   * @return the number of backup requests whose response has been used.
+   */
+  public long wins() {
+    return wins.get();
+  }
+
+  /**
+   * Sends a request to one of the given records, selected by the selector, and hedges it to another record if no
+   * response is received in time.
+   *
+   * @param records the records able to handle the request
+   * @param selector the selector choosing the records, notified of the outcome of each request
+   * @param key     the selection key, optional
+   * @param attempt the function sending the request to a record
+   * @param handler the handler receiving the first response, or the failure if all the requests have failed
+   * @param <T>     the type of response
+   */
+  public <T> void execute(List<Record> records, ServiceSelector selector, String key, Attempt<T> attempt,
+                          Handler<AsyncResult<T>> handler) {
+    Objects.requireNonNull(records);
+    Objects.requireNonNull(selector);
+    Objects.requireNonNull(attempt);
+    Objects.requireNonNull(handler);
+    Record primary = records.isEmpty() ? null : selector.select(records, key);
+    if (primary == null) {
+      handler.handle(Future.failedFuture("No matching record"));
+      return;
+    }
+    earn();
+    Execution<T> execution = new Execution<>(records, selector, key, attempt, handler);
+    execution.send(primary, false);
+    if (records.size() > 1) {
+      execution.schedule(delay());
+    }
+  }
+
+  private void earn() {
+    long amount = (long) (budget * UNIT);
+    if (amount > 0) {
+      tokens.getAndUpdate(current -> Math.min(MAX_BURST, current + amount));
+    }
+  }
+
+  private boolean spend() {
+    long current;
+    do {
+      current = tokens.get();
+      if (current < UNIT) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(current, current - UNIT));
+    return true;
+  }
+
+  private void sample(long latency) {
+    long count = sampled.getAndIncrement();
+    samples[(int) (count % WINDOW)] = latency;
+    if ((count + 1) % REFRESH_PERIOD == 0 || count + 1 == MIN_SAMPLES) {
+      delay = -1;
+    }
+  }
+
+  private long computeDelay() {
+    long count = Math.min(sampled.get(), WINDOW);
+    if (count < MIN_SAMPLES) {
+      return maxDelay;
+    }
+    long[] sorted = Arrays.copyOf(samples, (int) count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    long millis = TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+    return Math.max(minDelay, Math.min(maxDelay, millis));
+  }
+
+  /**
+   * A request sent to a record.
+   */
+  private static class Sent {
+    private final Record record;
+    private final long begin = System.nanoTime();
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private volatile Runnable cancel;
+
+    private Sent(Record record) {
+      this.record = record;
+    }
+  }
+
+  /**
+   * The execution of a request, with its backup request.
+   */
+  private class Execution<T> {
+    private final List<Record> records;
+    private final ServiceSelector selector;
+    private final String key;
+    private final Attempt<T> attempt;
+    private final Handler<AsyncResult<T>> handler;
+    private final List<Sent> sent = new ArrayList<>(2);
+    private final AtomicBoolean done = new AtomicBoolean();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile long timer = -1;
+
+    private Execution(List<Record> records, ServiceSelector selector, String key, Attempt<T> attempt,
+                      Handler<AsyncResult<T>> handler) {
+      this.records = records;
+      this.selector = selector;
+      this.key = key;
+      this.attempt = attempt;
+      this.handler = handler;
+    }
+
+    private void schedule(long delay) {
+      timer = vertx.setTimer(delay, id -> hedge());
+      if (done.get()) {
+        // Completed while the timer was being set
+        vertx.cancelTimer(timer);
+      }
+    }
+
+    private void hedge() {
+      if (done.get()) {
+        return;
+      }
+      List<Record> others = new ArrayList<>(records.size());
+      synchronized (this) {
+        for (Record record : records) {
+          if (sent.stream().noneMatch(s -> s.record == record)) {
+            others.add(record);
+          }
+        }
+      }
+      if (others.isEmpty() || !spend()) {
+        return;
+      }
+      Record backup = selector.select(others, key);
+      if (backup != null) {
+        hedges.incrementAndGet();
+        send(backup, true);
+      }
+    }
+
+    private void send(Record record, boolean backup) {
+      Sent s = new Sent(record);
+      synchronized (this) {
+        sent.add(s);
+      }
+      pending.incrementAndGet();
+      selector.onStart(record);
+      s.cancel = attempt.send(record, ar -> {
+        if (!s.completed.compareAndSet(false, true)) {
+          // Cancelled
+          return;
+        }
+        long latency = System.nanoTime() - s.begin;
+        selector.onComplete(record, latency, ar.failed());
+        int remaining = pending.decrementAndGet();
+        if (ar.succeeded()) {
+          sample(latency);
+          if (done.compareAndSet(false, true)) {
+            if (backup) {
+              wins.incrementAndGet();
+            }
+            complete();
+            handler.handle(ar);
+          }
+        } else if (remaining == 0 && done.compareAndSet(false, true)) {
+          complete();
+          handler.handle(ar);
+        }
+      });
+      if (done.get()) {
+        // Completed while sending, the request is not needed anymore
+        cancel(s);
+      }
+    }
+
+    private void complete() {
+      if (timer >= 0) {
+        vertx.cancelTimer(timer);
+      }
+      List<Sent> copy;
+      synchronized (this) {
+        copy = new ArrayList<>(sent);
+      }
+      copy.forEach(this::cancel);
+    }
+
+    private void cancel(Sent s) {
+      if (s.completed.compareAndSet(false, true)) {
+        selector.onComplete(s.record, System.nanoTime() - s.begin, false);
+        pending.decrementAndGet();
+        Runnable action = s.cancel;
+        if (action != null) {
+          action.run();
+        }
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package io.vertx.servicediscovery.types;
 
+import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.VertxGen;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
@@ -24,6 +25,7 @@ import io.vertx.core.http.HttpClient;
 import io.vertx.core.json.JsonObject;
 import io.vertx.servicediscovery.ServiceDiscovery;
 import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceSelector;
 import io.vertx.servicediscovery.spi.ServiceType;
 
 import java.util.Objects;
@@ -122,7 +124,46 @@ public interface HttpEndpoint extends ServiceType {
       if (ar.failed() || ar.result() == null) {
         resultHandler.handle(Future.failedFuture("No matching record"));
       } else {
-        resultHandler.handle(Future.succeededFuture(discovery.getReference(ar.result()).get()));
+        discovery.getReference(ar.result()).get(resultHandler);
+      }
+    });
+  }
+
+  /**
+   * Same as {@link #getClient(ServiceDiscovery, JsonObject, Handler)}, but memoizes the lookup: the returned
+   * {@link MemoizedLookup} keeps the reference (and so the {@link HttpClient}) until the record changes or goes down.
+   * It can be called on every request. Close it to release the reference.
+   *
+   * @param discovery The service discovery instance
+   * @param filter    The filter, optional
+   * @return the memoized lookup
+   */
+  @GenIgnore
+  static MemoizedLookup<HttpClient> memoizeClient(ServiceDiscovery discovery, JsonObject filter) {
+    return new MemoizedLookup<>(discovery, filter, null);
+  }
+
+  /**
+   * Creates a {@link LoadBalancedHttpClient} spreading the requests among all the HTTP endpoints matching the filter.
+   * The handler is called once the matching endpoints have been retrieved.
+   *
+   * @param discovery     The service discovery instance
+   * @param filter        The filter, optional
+   * @param configuration The configuration of the HTTP clients, optional
+   * @param selector      The selector choosing the endpoint of each request
+   * @param resultHandler The result handler
+   */
+  @GenIgnore
+  static void getLoadBalancedClient(ServiceDiscovery discovery, JsonObject filter, JsonObject configuration,
+                                    ServiceSelector selector,
+                                    Handler<AsyncResult<LoadBalancedHttpClient>> resultHandler) {
+    LoadBalancedHttpClient client = new LoadBalancedHttpClient(discovery, filter, configuration, selector);
+    client.refresh(ar -> {
+      if (ar.failed()) {
+        client.close();
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      } else {
+        resultHandler.handle(Future.succeededFuture(client));
       }
     });
   }
@@ -66,7 +66,7 @@ public interface JDBCDataSource extends DataSource {
       if (ar.failed() || ar.result() == null) {
         resultHandler.handle(Future.failedFuture("No matching record"));
       } else {
-        resultHandler.handle(Future.succeededFuture(discovery.getReference(ar.result()).get()));
+        discovery.getReference(ar.result()).get(resultHandler);
       }
     });
   }
@@ -86,8 +86,7 @@ public interface JDBCDataSource extends DataSource {
       if (ar.failed() || ar.result() == null) {
         resultHandler.handle(Future.failedFuture("No matching record"));
       } else {
-        resultHandler.handle(Future.succeededFuture(
-            discovery.getReferenceWithConfiguration(ar.result(), consumerConfiguration).get()));
+        discovery.getReferenceWithConfiguration(ar.result(), consumerConfiguration).get(resultHandler);
       }
     });
   }
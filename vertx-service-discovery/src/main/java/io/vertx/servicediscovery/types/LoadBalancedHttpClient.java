@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.types;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.VertxException;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.ServiceReference;
+import io.vertx.servicediscovery.ServiceSelector;
+import io.vertx.servicediscovery.impl.DiscoveryImpl;
+import io.vertx.servicediscovery.utils.RecordDeltas;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A HTTP client spreading the requests among all the HTTP endpoints matching a filter.
+ * <p>
+ * The set of endpoints is kept up to date using the announcements: endpoints are added when published, and removed
+ * when un-published or not {@code UP} anymore. The hot metadata deltas (see
+ * {@link ServiceDiscovery#updateHotMetadata(String, JsonObject, Handler)}) are applied to the endpoint records. Each
+ * endpoint has its own {@link HttpClient} (and so its own connection pool), retrieved from a service reference. The
+ * endpoint receiving a request is chosen by a {@link ServiceSelector}, notified of the outcome of each request. The
+ * request URI is used as selection key (to route requests per URI with {@link ServiceSelector#consistentHash()}).
+ * <p>
+ * When the connection to an endpoint fails (it cannot be established, is reset, closed or times out), the endpoint
+ * is ejected for {@link #setEjectionTime(long)} milliseconds and the request is sent to another endpoint (up to
+ * {@link #setMaxAttempts(int)} attempts). Requests are retried when the connection could not be established, as the
+ * endpoint has not received them. Idempotent requests (such as {@code GET} or {@code PUT}) are also retried when the
+ * connection is lost while waiting for the response. Idempotent requests can also be hedged, see
+ * {@link #hedgedRequest(HttpMethod, String, MultiMap, Buffer, Hedging, Handler)}.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class LoadBalancedHttpClient {
+
+  // The failure reported by the HTTP client when the connection is closed before the response
+  private static final String CONNECTION_CLOSED = "Connection was closed";
+
+  /**
+   * A HTTP endpoint, and its client.
+   */
+  public static class Endpoint {
+    private final Record record;
+    private final ServiceReference reference;
+    private final HttpClient client;
+    private volatile long ejectedUntil;
+
+    private Endpoint(Record record, ServiceReference reference) {
+      this.record = record;
+      this.reference = reference;
+      this.client = reference.get();
+    }
+
+    /**
+     * @return an endpoint sharing the client of this endpoint, for the given (updated) record.
+     */
+    private Endpoint with(Record updated) {
+      Endpoint endpoint = new Endpoint(updated, reference);
+      endpoint.ejectedUntil = ejectedUntil;
+      return endpoint;
+    }
+
+    /**
+     * @return the record of the endpoint.
+     */
+    public Record record() {
+      return record;
+    }
+
+    private boolean isEjected(long now) {
+      return ejectedUntil > now;
+    }
+  }
+
+  private final ServiceDiscovery discovery;
+  private final JsonObject filter;
+  private final JsonObject configuration;
+  private final ServiceSelector selector;
+  private final MessageConsumer<JsonObject> announcements;
+  private final MessageConsumer<JsonObject> hotMetadataDeltas;
+  private final AtomicInteger refreshes = new AtomicInteger();
+  private volatile List<Endpoint> endpoints = Collections.emptyList();
+  private volatile Map<Record, Endpoint> byRecord = Collections.emptyMap();
+  private volatile int maxAttempts = 3;
+  private volatile long ejectionTime = 5000;
+  private volatile long timeout;
+  private boolean closed;
+
+  /**
+   * Creates a new instance of {@link LoadBalancedHttpClient}. The endpoints are retrieved asynchronously, use
+   * {@link HttpEndpoint#getLoadBalancedClient(ServiceDiscovery, JsonObject, JsonObject, ServiceSelector, Handler)} to
+   * get a client once the endpoints are known.
+   *
+   * @param discovery     the service discovery instance
+   * @param filter        the filter selecting the HTTP endpoints, optional
+   * @param configuration the configuration of the HTTP clients (HTTP client options), optional
+   * @param selector      the selector choosing the endpoint of each request
+   */
+  public LoadBalancedHttpClient(ServiceDiscovery discovery, JsonObject filter, JsonObject configuration,
+                                ServiceSelector selector) {
+    Objects.requireNonNull(discovery);
+    Objects.requireNonNull(selector);
+    this.discovery = discovery;
+    this.filter = filter;
+    this.configuration = configuration == null ? new JsonObject() : configuration;
+    this.selector = selector;
+    this.announcements = discovery.announcements(this::onAnnounce);
+    this.hotMetadataDeltas = discovery.hotMetadataDeltas(this::onHotMetadata);
+    scheduleRefresh();
+  }
+
+  /**
+   * Sets the maximum number of attempts of a request. When the connection to an endpoint fails, the request is sent
+   * to another endpoint until this number of attempts is reached. 3 by default.
+   *
+   * @param maxAttempts the maximum number of attempts, at least 1
+   * @return the current instance
+   */
+  public LoadBalancedHttpClient setMaxAttempts(int maxAttempts) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("The number of attempts must be at least 1");
+    }
+    this.maxAttempts = maxAttempts;
+    return this;
+  }
+
+  /**
+   * Sets the time (in ms) during which an endpoint is not selected after a connection failure. 5 seconds by default.
+   *
+   * @param ejectionTime the ejection time in milliseconds
+   * @return the current instance
+   */
+  public LoadBalancedHttpClient setEjectionTime(long ejectionTime) {
+    this.ejectionTime = ejectionTime;
+    return this;
+  }
+
+  /**
+   * Sets the timeout (in ms) of the requests, 0 (no timeout) by default.
+   *
+   * @param timeout the timeout in milliseconds
+   * @return the current instance
+   */
+  public LoadBalancedHttpClient setTimeout(long timeout) {
+    this.timeout = timeout;
+    return this;
+  }
+
+  /**
+   * @return the endpoints currently known.
+   */
+  public List<Endpoint> endpoints() {
+    return endpoints;
+  }
+
+  /**
+   * Sends a request without body.
+   *
+   * @param method          the HTTP method
+   * @param uri             the request URI
+   * @param responseHandler the handler receiving the response, or the failure
+   */
+  public void request(HttpMethod method, String uri, Handler<AsyncResult<HttpClientResponse>> responseHandler) {
+    request(method, uri, null, null, responseHandler);
+  }
+
+  /**
+   * Sends a request.
+   *
+   * @param method          the HTTP method
+   * @param uri             the request URI
+   * @param headers         the request headers, optional
+   * @param body            the request body, optional
+   * @param responseHandler the handler receiving the response, or the failure
+   */
+  public void request(HttpMethod method, String uri, MultiMap headers, Buffer body,
+                      Handler<AsyncResult<HttpClientResponse>> responseHandler) {
+    Objects.requireNonNull(method);
+    Objects.requireNonNull(uri);
+    Objects.requireNonNull(responseHandler);
+    send(method, uri, headers, body, 1, responseHandler);
+  }
+
+  private void send(HttpMethod method, String uri, MultiMap headers, Buffer body, int attempt,
+                    Handler<AsyncResult<HttpClientResponse>> responseHandler) {
+    Endpoint endpoint = select(uri);
+    if (endpoint == null) {
+      responseHandler.handle(Future.failedFuture("No matching record"));
+      return;
+    }
+
+    selector.onStart(endpoint.record);
+    long begin = System.nanoTime();
+    AtomicBoolean completed = new AtomicBoolean();
+    HttpClientRequest request = endpoint.client.request(method, uri, response -> {
+      if (completed.compareAndSet(false, true)) {
+        selector.onComplete(endpoint.record, System.nanoTime() - begin, response.statusCode() >= 500);
+        responseHandler.handle(Future.succeededFuture(response));
+      }
+    });
+    request.exceptionHandler(err -> {
+      if (completed.compareAndSet(false, true)) {
+        selector.onComplete(endpoint.record, System.nanoTime() - begin, true);
+        if (isConnectionFailure(err)) {
+          endpoint.ejectedUntil = System.currentTimeMillis() + ejectionTime;
+          if (attempt < maxAttempts && (isConnectFailure(err) || isIdempotent(method))) {
+            send(method, uri, headers, body, attempt + 1, responseHandler);
+            return;
+          }
+        }
+        responseHandler.handle(Future.failedFuture(err));
+      }
+    });
+    if (timeout > 0) {
+      request.setTimeout(timeout);
+    }
+    if (headers != null) {
+      request.headers().addAll(headers);
+    }
+    if (body != null) {
+      request.end(body);
+    } else {
+      request.end();
+    }
+  }
+
+  /**
+   * Sends an idempotent request, hedged by the given {@link Hedging}: if no response is received in time, a backup
+   * request is sent to another endpoint, and the first response is used. The other request is reset (with HTTP/1.x,
+   * its connection is closed).
+   *
+   * @param method          the HTTP method
+   * @param uri             the request URI
+   * @param headers         the request headers, optional
+   * @param body            the request body, optional
+   * @param hedging         the hedging policy, generally shared by several clients
+   * @param responseHandler the handler receiving the first response, or the failure
+   */
+  public void hedgedRequest(HttpMethod method, String uri, MultiMap headers, Buffer body, Hedging hedging,
+                            Handler<AsyncResult<HttpClientResponse>> responseHandler) {
+    Objects.requireNonNull(method);
+    Objects.requireNonNull(uri);
+    Objects.requireNonNull(hedging);
+    Objects.requireNonNull(responseHandler);
+    // Resolve the endpoints from a consistent list, as the backup request may be sent after an update
+    List<Endpoint> list = endpoints;
+    Map<Record, Endpoint> index = new IdentityHashMap<>();
+    list.forEach(endpoint -> index.put(endpoint.record, endpoint));
+    hedging.execute(candidates(list), selector, uri, (record, handler) -> {
+      Endpoint endpoint = index.get(record);
+      HttpClientRequest request = endpoint.client.request(method, uri,
+          response -> handler.handle(Future.succeededFuture(response)));
+      request.exceptionHandler(err -> {
+        if (isConnectionFailure(err)) {
+          endpoint.ejectedUntil = System.currentTimeMillis() + ejectionTime;
+        }
+        handler.handle(Future.failedFuture(err));
+      });
+      if (timeout > 0) {
+        request.setTimeout(timeout);
+      }
+      if (headers != null) {
+        request.headers().addAll(headers);
+      }
+      if (body != null) {
+        request.end(body);
+      } else {
+        request.end();
+      }
+      return () -> cancel(request);
+    }, responseHandler);
+  }
+
+  /**
+   * Checks whether the connection to the endpoint could not be established, so the request has not been sent.
+   */
+  static boolean isConnectFailure(Throwable err) {
+    for (Throwable cause = err; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ConnectException || cause instanceof UnknownHostException
+          || cause instanceof NoRouteToHostException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the failure is a connection-level failure: the connection could not be established, or has been
+   * reset, closed, or timed out. Unlike the failures reported by the application (such as a malformed response), they
+   * denote an unhealthy or unreachable endpoint.
+   */
+  static boolean isConnectionFailure(Throwable err) {
+    for (Throwable cause = err; cause != null; cause = cause.getCause()) {
+      if (cause instanceof IOException || cause instanceof TimeoutException
+          || (cause instanceof VertxException && CONNECTION_CLOSED.equals(cause.getMessage()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isIdempotent(HttpMethod method) {
+    switch (method) {
+      case GET:
+      case HEAD:
+      case OPTIONS:
+      case TRACE:
+      case PUT:
+      case DELETE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static void cancel(HttpClientRequest request) {
+    try {
+      try {
+        request.reset();
+      } catch (UnsupportedOperationException e) {
+        // HTTP/1.x requests cannot be reset, close the connection instead
+        request.connection().close();
+      }
+    } catch (IllegalStateException e) {
+      // Not connected yet, the response will be ignored
+    }
+  }
+
+  private Endpoint select(String uri) {
+    List<Endpoint> list = endpoints;
+    if (list.isEmpty()) {
+      return null;
+    }
+    Map<Record, Endpoint> index = byRecord;
+    Endpoint selected = index.get(selector.select(candidates(list), uri));
+    // The endpoints may have been updated concurrently
+    return selected != null ? selected : list.get(0);
+  }
+
+  private List<Record> candidates(List<Endpoint> list) {
+    long now = System.currentTimeMillis();
+    List<Record> candidates = new ArrayList<>(list.size());
+    for (Endpoint endpoint : list) {
+      if (!endpoint.isEjected(now)) {
+        candidates.add(endpoint.record);
+      }
+    }
+    // If all the endpoints are ejected, try them anyway
+    if (candidates.isEmpty()) {
+      list.forEach(endpoint -> candidates.add(endpoint.record));
+    }
+    return candidates;
+  }
+
+  /**
+   * Closes the client, releasing the references on the endpoints.
+   */
+  public synchronized void close() {
+    closed = true;
+    announcements.unregister();
+    hotMetadataDeltas.unregister();
+    endpoints.forEach(endpoint -> discovery.release(endpoint.reference));
+    endpoints = Collections.emptyList();
+    byRecord = Collections.emptyMap();
+  }
+
+  private boolean accept(Record record) {
+    return HttpEndpoint.TYPE.equals(record.getType()) && (filter == null || record.match(filter));
+  }
+
+  private void onAnnounce(Record announced) {
+    if (!HttpEndpoint.TYPE.equals(announced.getType())) {
+      return;
+    }
+    // Publications match the filter, un-publications and updates may concern a known endpoint
+    if (accept(announced) || endpoints.stream().anyMatch(endpoint ->
+        endpoint.record.getRegistration().equals(announced.getRegistration())
+            || DiscoveryImpl.matches(endpoint.record, announced))) {
+      scheduleRefresh();
+    }
+  }
+
+  private void scheduleRefresh() {
+    // Coalesce the refreshes requested while one is in progress
+    if (refreshes.getAndIncrement() == 0) {
+      refreshScheduled();
+    }
+  }
+
+  private void refreshScheduled() {
+    int requested = refreshes.get();
+    refresh(ar -> {
+      if (refreshes.addAndGet(-requested) > 0) {
+        refreshScheduled();
+      }
+    });
+  }
+
+  /**
+   * Retrieves the matching records and updates the set of endpoints.
+   *
+   * @param completionHandler called once the endpoints are updated
+   */
+  void refresh(Handler<AsyncResult<Void>> completionHandler) {
+    discovery.getRecords(this::accept, ar -> {
+      if (ar.succeeded()) {
+        update(ar.result());
+        completionHandler.handle(Future.succeededFuture());
+      } else {
+        completionHandler.handle(Future.failedFuture(ar.cause()));
+      }
+    });
+  }
+
+  private synchronized void update(List<Record> records) {
+    if (closed) {
+      return;
+    }
+    Map<String, Endpoint> current = new HashMap<>();
+    for (Endpoint endpoint : endpoints) {
+      current.put(endpoint.record.getRegistration(), endpoint);
+    }
+    List<Endpoint> updated = new ArrayList<>(records.size());
+    for (Record record : records) {
+      Endpoint endpoint = current.get(record.getRegistration());
+      if (endpoint != null && Objects.equals(endpoint.record.getLocation(), record.getLocation())) {
+        // Same location, keep the client
+        current.remove(record.getRegistration());
+        updated.add(endpoint.record.toJson().equals(record.toJson()) ? endpoint : endpoint.with(record));
+      } else {
+        updated.add(new Endpoint(record, discovery.getReferenceWithConfiguration(record, configuration)));
+      }
+    }
+    publish(updated);
+    // Release the endpoints that are gone or have changed
+    current.values().forEach(endpoint -> discovery.release(endpoint.reference));
+  }
+
+  private void publish(List<Endpoint> updated) {
+    Map<Record, Endpoint> index = new IdentityHashMap<>();
+    updated.forEach(endpoint -> index.put(endpoint.record, endpoint));
+    byRecord = index;
+    endpoints = Collections.unmodifiableList(updated);
+  }
+
+  /**
+   * Applies a hot metadata delta (such as a new weight) to the record of an endpoint, without looking up the records.
+   */
+  private synchronized void onHotMetadata(JsonObject delta) {
+    JsonObject fields = delta.getJsonObject("fields");
+    String registration = delta.getString("registration");
+    if (closed || fields == null || registration == null) {
+      return;
+    }
+    List<Endpoint> updated = new ArrayList<>(endpoints);
+    for (int i = 0; i < updated.size(); i++) {
+      Endpoint endpoint = updated.get(i);
+      if (registration.equals(endpoint.record.getRegistration())) {
+        JsonObject metadata = RecordDeltas.merge(endpoint.record.getMetadata(), fields);
+        updated.set(i, endpoint.with(new Record(endpoint.record).setMetadata(metadata)));
+        publish(updated);
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.types;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.ServiceReference;
+import io.vertx.servicediscovery.Status;
+import io.vertx.servicediscovery.impl.DiscoveryImpl;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Memoizes the lookup of a service object. The first call to {@link #get(Handler)} looks for a record matching the
+ * filter and gets a reference on it. Subsequent calls reuse the same reference, so they do not lookup the record nor
+ * create a new service object. The reference is released when the record is updated or goes down (as notified by the
+ * announcements), the next call looks up the record again.
+ * <p>
+ * Instances can be shared and used on hot code paths (for instance on every request). The reference is released when
+ * the lookup is closed.
+ *
+ * @param <T> the type of service object
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class MemoizedLookup<T> {
+
+  private final ServiceDiscovery discovery;
+  private final JsonObject filter;
+  private final JsonObject configuration;
+  private final MessageConsumer<JsonObject> announcements;
+  private final AtomicReference<ServiceReference> current = new AtomicReference<>();
+  private volatile boolean closed;
+
+  /**
+   * Creates a new instance of {@link MemoizedLookup}.
+   *
+   * @param discovery     the service discovery instance
+   * @param filter        the filter selecting the record, optional
+   * @param configuration the configuration of the service reference, optional
+   */
+  public MemoizedLookup(ServiceDiscovery discovery, JsonObject filter, JsonObject configuration) {
+    Objects.requireNonNull(discovery);
+    this.discovery = discovery;
+    this.filter = filter;
+    this.configuration = configuration == null ? new JsonObject() : configuration;
+    this.announcements = discovery.announcements(this::onAnnounce);
+  }
+
+  /**
+   * Gets the service object. If a reference has already been retrieved and is still valid, its service object is
+   * returned. Otherwise, it looks for a matching record. The async result is marked as failed if there are no matching
+   * records, if the lookup fails or if this lookup has been closed.
+   *
+   * @param resultHandler the result handler
+   */
+  public void get(Handler<AsyncResult<T>> resultHandler) {
+    if (closed) {
+      resultHandler.handle(Future.failedFuture(new IllegalStateException("Lookup closed")));
+      return;
+    }
+    ServiceReference reference = current.get();
+    if (reference != null) {
+      reference.get(resultHandler);
+      return;
+    }
+    discovery.getRecord(filter, ar -> {
+      if (ar.failed()) {
+        resultHandler.handle(Future.failedFuture(ar.cause()));
+      } else if (ar.result() == null) {
+        resultHandler.handle(Future.failedFuture("Cannot find service matching with " + filter));
+      } else {
+        ServiceReference created = discovery.getReferenceWithConfiguration(ar.result(), configuration);
+        if (!closed && current.compareAndSet(null, created)) {
+          created.get(resultHandler);
+        } else {
+          // Closed, or another lookup completed concurrently
+          discovery.release(created);
+          get(resultHandler);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return the reference currently memoized, {@code null} if none.
+   */
+  public ServiceReference reference() {
+    return current.get();
+  }
+
+  /**
+   * Releases the memoized reference. The next call to {@link #get(Handler)} looks up the record again.
+   */
+  public void invalidate() {
+    ServiceReference reference = current.getAndSet(null);
+    if (reference != null) {
+      discovery.release(reference);
+    }
+  }
+
+  /**
+   * Closes the lookup, releasing the memoized reference and stopping listening for announcements.
+   */
+  public void close() {
+    closed = true;
+    announcements.unregister();
+    invalidate();
+  }
+
+  private void onAnnounce(Record announced) {
+    ServiceReference reference = current.get();
+    if (reference == null) {
+      return;
+    }
+    Record record = reference.record();
+    boolean stale;
+    if (announced.getRegistration() == null) {
+      // Publication or un-publication, the registration is not announced
+      stale = announced.getStatus() == Status.DOWN && DiscoveryImpl.matches(record, announced);
+    } else {
+      // Update, the record has changed if its content is not the same
+      stale = announced.getRegistration().equals(record.getRegistration())
+          && (announced.getStatus() != Status.UP || !announced.toJson().equals(record.toJson()));
+    }
+    if (stale && current.compareAndSet(reference, null)) {
+      discovery.release(reference);
+    }
+  }
+}
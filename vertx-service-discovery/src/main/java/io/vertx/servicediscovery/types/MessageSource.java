@@ -133,7 +133,7 @@ public interface MessageSource extends ServiceType {
       if (ar.failed() || ar.result() == null) {
         resultHandler.handle(Future.failedFuture("No matching record"));
       } else {
-        resultHandler.handle(Future.succeededFuture(discovery.getReference(ar.result()).get()));
+        discovery.getReference(ar.result()).get(resultHandler);
       }
     });
   }
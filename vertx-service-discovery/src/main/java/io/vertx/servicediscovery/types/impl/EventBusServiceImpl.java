@@ -29,12 +29,25 @@ import io.vertx.serviceproxy.ProxyHelper;
 
 import java.lang.reflect.Constructor;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Implementation of {@link EventBusService}.
+ * <p>
+ * Creating a service object requires loading the service interface and client classes, creating the proxy and
+ * instantiating the client class by reflection. The resolved classes and client constructors are cached per class
+ * name. Each reference creates its own service object: proxies can be closed (methods annotated with
+ * {@code @ProxyClose}), so they are not shared between references (use the shared references of the service discovery
+ * to share them).
+ *
  * @author <a href="http://escoffier.me">Clement Escoffier</a>
  */
 public class EventBusServiceImpl implements EventBusService {
 
+  private final ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Constructor<?>> constructors = new ConcurrentHashMap<>();
+
   @Override
   public String name() {
     return TYPE;
@@ -48,6 +61,30 @@ public class EventBusServiceImpl implements EventBusService {
     return new EventBusServiceReference(vertx, discovery, record, configuration);
   }
 
+  private Class<?> load(String className) {
+    Class<?> clazz = classes.get(className);
+    if (clazz == null) {
+      clazz = ClassLoaderUtils.load(className, this.getClass().getClassLoader());
+      if (clazz != null) {
+        classes.putIfAbsent(className, clazz);
+      }
+    }
+    return clazz;
+  }
+
+  private Constructor<?> constructor(String className) throws NoSuchMethodException {
+    Constructor<?> constructor = constructors.get(className);
+    if (constructor == null) {
+      Class<?> client = load(className);
+      if (client == null) {
+        throw new IllegalStateException("Cannot load class " + className);
+      }
+      constructor = client.getConstructor(Object.class);
+      constructors.putIfAbsent(className, constructor);
+    }
+    return constructor;
+  }
+
   /**
    * Implementation of {@link ServiceReference} for event bus service proxies.
    */
@@ -70,15 +107,22 @@ public class EventBusServiceImpl implements EventBusService {
       Objects.requireNonNull(serviceInterface);
     }
 
+    /**
+     * Loading the classes is too expensive for the event loop, unless they have already been loaded.
+     */
+    @Override
+    protected boolean isRetrievalBlocking() {
+      return !classes.containsKey(serviceInterface) || (clientClass != null && !constructors.containsKey(clientClass));
+    }
 
     /**
-     * Build the service proxy and return it. If already built, it returns the cached one.
+     * Build the service proxy and return it.
      *
      * @return the proxy
      */
     @Override
     public synchronized Object retrieve() {
-      Class itf = ClassLoaderUtils.load(serviceInterface, this.getClass().getClassLoader());
+      Class<?> itf = load(serviceInterface);
       if (itf == null) {
         throw new IllegalStateException("Cannot load class " + clientClass);
       } else {
@@ -87,19 +131,18 @@ public class EventBusServiceImpl implements EventBusService {
             deliveryOptions);
 
         // 2) if we have a client class, create an instance with the proxy
+        Object service;
         if (clientClass != null) {
           try {
-            Class client = ClassLoaderUtils.load(clientClass, this.getClass().getClassLoader());
-            Constructor constructor = client.getConstructor(Object.class);
-            return constructor.newInstance(proxy);
+            service = constructor(clientClass).newInstance(proxy);
           } catch (Exception e) {
             throw new RuntimeException(e);
           }
         } else {
-          return proxy;
+          service = proxy;
         }
+        return service;
       }
     }
   }
 }
-
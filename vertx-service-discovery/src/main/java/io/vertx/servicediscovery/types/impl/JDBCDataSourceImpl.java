@@ -59,6 +59,14 @@ public class JDBCDataSourceImpl implements JDBCDataSource {
       this.config = config;
     }
 
+    /**
+     * Creating the client creates the connection pool, so it must not run on the event loop.
+     */
+    @Override
+    protected boolean isRetrievalBlocking() {
+      return true;
+    }
+
     @Override
     public JDBCClient retrieve() {
       JsonObject result = record().getMetadata().copy();
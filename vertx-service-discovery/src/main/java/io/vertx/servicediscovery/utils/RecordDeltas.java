@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.utils;
+
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Computes and applies the deltas announced when a record is updated (if the delta announcements are enabled, on the
+ * announce address suffixed with {@code .deltas}). A delta contains the registration of the record, its revision,
+ * the digests of the state it applies to ({@code base}) and of the resulting state ({@code digest}), and the changed
+ * fields:
+ * <pre>
+ *   {
+ *     "registration" : "...",
+ *     "revision" : 3,
+ *     "base" : -4265328467409146279,
+ *     "digest" : 2947563301872640167,
+ *     "changes" : { "status" : "DOWN", "metadata" : { "load" : 0.7 } }
+ *   }
+ * </pre>
+ * The changed fields contain their new value, {@code null} if the field has been removed. The metadata are compared
+ * field by field, so only the changed metadata are announced. A delta of revision {@code n} follows the revision
+ * {@code n - 1} of the record known by its sender. As several service discovery instances may update the same record
+ * concurrently, their revisions may diverge: a delta must only be applied to the state matching its {@code base}
+ * digest (see {@link #appliesTo(JsonObject, JsonObject)}), the record being read from the backend otherwise.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class RecordDeltas {
+
+  public static final String REGISTRATION = "registration";
+  public static final String REVISION = "revision";
+  public static final String CHANGES = "changes";
+  public static final String BASE = "base";
+  public static final String DIGEST = "digest";
+
+  private static final String METADATA = "metadata";
+
+  /**
+   * Checks whether the given announcement is a delta.
+   *
+   * @param announcement the announcement
+   * @return {@code true} if the announcement is a delta, {@code false} if it's a record
+   */
+  public static boolean isDelta(JsonObject announcement) {
+    return announcement.getValue(CHANGES) instanceof JsonObject;
+  }
+
+  /**
+   * Gets the revision of an announcement.
+   *
+   * @param announcement the announcement (delta or record)
+   * @return the revision, {@code 0} if not set
+   */
+  public static long revision(JsonObject announcement) {
+    Object revision = announcement.getValue(REVISION);
+    return revision instanceof Number ? ((Number) revision).longValue() : 0;
+  }
+
+  /**
+   * Creates a delta.
+   *
+   * @param registration the registration of the record
+   * @param revision     the revision of the record once the delta is applied
+   * @param changes      the changed fields
+   * @return the delta
+   */
+  public static JsonObject create(String registration, long revision, JsonObject changes) {
+    Objects.requireNonNull(registration);
+    Objects.requireNonNull(changes);
+    return new JsonObject().put(REGISTRATION, registration).put(REVISION, revision).put(CHANGES, changes);
+  }
+
+  /**
+   * Creates the delta between two states of a record, including their digests.
+   *
+   * @param registration the registration of the record
+   * @param revision     the revision of the record once the delta is applied
+   * @param previous     the state of the record the delta applies to
+   * @param current      the state of the record once the delta is applied
+   * @return the delta
+   */
+  public static JsonObject create(String registration, long revision, JsonObject previous, JsonObject current) {
+    return create(registration, revision, diff(previous, current))
+        .put(BASE, digest(previous))
+        .put(DIGEST, digest(current));
+  }
+
+  /**
+   * Checks whether a delta can be applied to the given state of a record, i.e. whether it has been computed from this
+   * state. Deltas without {@code base} digest are assumed to apply.
+   *
+   * @param delta  the delta
+   * @param record the JSON representation of the record
+   * @return {@code true} if the delta applies to the record
+   */
+  public static boolean appliesTo(JsonObject delta, JsonObject record) {
+    Long base = delta.getLong(BASE);
+    return base == null || base == digest(record);
+  }
+
+  /**
+   * Checks whether the given state of a record is the result of a delta, i.e. whether the delta has already been
+   * applied.
+   *
+   * @param delta  the delta
+   * @param record the JSON representation of the record
+   * @return {@code true} if the record is in the state resulting from the delta, {@code false} if unknown
+   */
+  public static boolean isAppliedTo(JsonObject delta, JsonObject record) {
+    Long digest = delta.getLong(DIGEST);
+    return digest != null && digest == digest(record);
+  }
+
+  /**
+   * Computes the digest of the JSON representation of a record (a 64-bit FNV-1a hash of its canonical form). The
+   * registration and the revision are not included, and the digest does not depend on the order of the fields.
+   *
+   * @param record the JSON representation of the record
+   * @return the digest
+   */
+  public static long digest(JsonObject record) {
+    JsonObject state = record;
+    if (record.containsKey(REGISTRATION) || record.containsKey(REVISION)) {
+      state = record.copy();
+      state.remove(REGISTRATION);
+      state.remove(REVISION);
+    }
+    StringBuilder builder = new StringBuilder();
+    canonical(state, builder);
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < builder.length(); i++) {
+      hash ^= builder.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Computes the changed fields between two JSON representations of a record. The registration is not compared.
+   *
+   * @param previous the previous state of the record
+   * @param current  the current state of the record
+   * @return the changed fields, empty if the record has not changed
+   */
+  public static JsonObject diff(JsonObject previous, JsonObject current) {
+    JsonObject changes = new JsonObject();
+    Set<String> fields = new HashSet<>(previous.fieldNames());
+    fields.addAll(current.fieldNames());
+    fields.remove(REGISTRATION);
+    fields.remove(REVISION);
+    for (String field : fields) {
+      Object before = previous.getValue(field);
+      Object after = current.getValue(field);
+      if (METADATA.equals(field) && before instanceof JsonObject && after instanceof JsonObject) {
+        JsonObject metadata = diffFields((JsonObject) before, (JsonObject) after);
+        if (!metadata.isEmpty()) {
+          changes.put(field, metadata);
+        }
+      } else if (!Objects.equals(before, after)) {
+        changes.put(field, after);
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Applies changed fields to the JSON representation of a record.
+   *
+   * @param record  the record, not modified
+   * @param changes the changed fields, as computed by {@link #diff(JsonObject, JsonObject)}
+   * @return the updated copy of the record
+   */
+  public static JsonObject apply(JsonObject record, JsonObject changes) {
+    JsonObject updated = record.copy();
+    for (String field : changes.fieldNames()) {
+      Object value = changes.getValue(field);
+      if (METADATA.equals(field) && value instanceof JsonObject) {
+        updated.put(field, merge(updated.getJsonObject(field), (JsonObject) value));
+      } else if (value == null) {
+        updated.remove(field);
+      } else {
+        updated.put(field, value);
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Merges changed fields into a JSON object, a {@code null} value removing the field.
+   *
+   * @param json   the JSON object, not modified, may be {@code null}
+   * @param fields the changed fields
+   * @return the updated copy of the JSON object
+   */
+  public static JsonObject merge(JsonObject json, JsonObject fields) {
+    JsonObject updated = json == null ? new JsonObject() : json.copy();
+    for (String field : fields.fieldNames()) {
+      Object value = fields.getValue(field);
+      if (value == null) {
+        updated.remove(field);
+      } else {
+        updated.put(field, value);
+      }
+    }
+    return updated;
+  }
+
+  private static void canonical(Object value, StringBuilder builder) {
+    if (value instanceof JsonObject) {
+      JsonObject json = (JsonObject) value;
+      builder.append('{');
+      new TreeSet<>(json.fieldNames()).forEach(field -> {
+        builder.append(Json.encode(field)).append(':');
+        canonical(json.getValue(field), builder);
+        builder.append(',');
+      });
+      builder.append('}');
+    } else if (value instanceof JsonArray) {
+      builder.append('[');
+      for (Object item : (JsonArray) value) {
+        canonical(item, builder);
+        builder.append(',');
+      }
+      builder.append(']');
+    } else {
+      builder.append(Json.encode(value));
+    }
+  }
+
+  private static JsonObject diffFields(JsonObject previous, JsonObject current) {
+    JsonObject changes = new JsonObject();
+    for (String field : previous.fieldNames()) {
+      if (!current.containsKey(field)) {
+        changes.putNull(field);
+      }
+    }
+    for (String field : current.fieldNames()) {
+      Object value = current.getValue(field);
+      if (!previous.containsKey(field) || !Objects.equals(previous.getValue(field), value)) {
+        changes.put(field, value);
+      }
+    }
+    return changes;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.impl.DiscoveryImpl;
+import io.vertx.servicediscovery.impl.HashRing;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks the behavior of the {@link ConsistentHashRing} and of the underlying {@link HashRing}.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class ConsistentHashRingTest {
+
+  private Vertx vertx;
+  private ServiceDiscovery discovery;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    discovery = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+  }
+
+  @After
+  public void tearDown() {
+    discovery.close();
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close((v) -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  private static Record record(int i) {
+    return HttpEndpoint.createRecord("cache", "host-" + i, 8080, "/");
+  }
+
+  @Test
+  public void testIncrementalUpdatesOnlyMoveTheKeysOfTheRemovedNode() {
+    HashRing ring = new HashRing(200);
+    assertThat(ring.get("key")).isNull();
+    for (int i = 0; i < 10; i++) {
+      assertThat(ring.add(HashRing.node(record(i)), record(i))).isTrue();
+    }
+    assertThat(ring.size()).isEqualTo(10);
+
+    Map<String, String> routes = new HashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      routes.put("key-" + i, ring.get("key-" + i).getLocation().getString("host"));
+    }
+    // All the nodes get a share of the keys
+    assertThat(routes.values().stream().distinct().count()).isEqualTo(10);
+
+    assertThat(ring.remove(HashRing.node(record(3)))).isTrue();
+    assertThat(ring.remove(HashRing.node(record(3)))).isFalse();
+    int moved = 0;
+    for (Map.Entry<String, String> entry : routes.entrySet()) {
+      String host = ring.get(entry.getKey()).getLocation().getString("host");
+      if (entry.getValue().equals("host-3")) {
+        assertThat(host).isNotEqualTo("host-3");
+        moved++;
+      } else {
+        assertThat(host).isEqualTo(entry.getValue());
+      }
+    }
+    // About 1/10 of the keys moved
+    assertThat(moved).isBetween(500, 1500);
+
+    // Adding the node again restores the initial routes
+    ring.add(HashRing.node(record(3)), record(3));
+    routes.forEach((key, host) -> assertThat(ring.get(key).getLocation().getString("host")).isEqualTo(host));
+
+    // Replacing the record of a node does not change the routes
+    assertThat(ring.add(HashRing.node(record(3)), record(3).setMetadata(new JsonObject().put("v", 2)))).isFalse();
+    routes.forEach((key, host) -> assertThat(ring.get(key).getLocation().getString("host")).isEqualTo(host));
+  }
+
+  @Test
+  public void testRingTrackingTheAnnouncements() {
+    Record r1 = record(1);
+    Record r2 = record(2);
+    discovery.publish(r1, ar -> { });
+    discovery.publish(r2, ar -> { });
+    discovery.publish(HttpEndpoint.createRecord("another", "host", 8080, "/"), ar -> { });
+    await().until(() -> r1.getRegistration() != null && r2.getRegistration() != null);
+
+    AtomicReference<ConsistentHashRing> reference = new AtomicReference<>();
+    ConsistentHashRing.create(discovery, new JsonObject().put("name", "cache"), 100,
+        ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    ConsistentHashRing ring = reference.get();
+    assertThat(ring.records()).hasSize(2);
+
+    Map<String, String> routes = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      routes.put("key-" + i, ring.select("key-" + i).getLocation().getString("host"));
+    }
+
+    // Publication
+    Record r3 = record(3);
+    discovery.publish(r3, ar -> { });
+    await().until(() -> ring.records().size() == 3);
+    routes.forEach((key, host) -> {
+      String selected = ring.select(key).getLocation().getString("host");
+      assertThat(selected).isIn(host, "host-3");
+    });
+
+    // Status update
+    discovery.update(new Record(r1).setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    await().until(() -> ring.records().size() == 2);
+    discovery.update(new Record(r1).setStatus(Status.UP), ar -> { });
+    await().until(() -> ring.records().size() == 3);
+
+    // Un-publication
+    discovery.unpublish(r3.getRegistration(), ar -> { });
+    await().until(() -> ring.records().size() == 2);
+    routes.forEach((key, host) -> assertThat(ring.select(key).getLocation().getString("host")).isEqualTo(host));
+
+    ring.close();
+    discovery.unpublish(r2.getRegistration(), ar -> { });
+    // No more updates once closed
+    AtomicBoolean done = new AtomicBoolean();
+    vertx.setTimer(200, l -> done.set(true));
+    await().untilAtomic(done, is(true));
+    assertThat(ring.records()).hasSize(2);
+  }
+}
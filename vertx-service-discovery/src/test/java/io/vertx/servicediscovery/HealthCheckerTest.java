@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetServer;
+import io.vertx.servicediscovery.impl.DiscoveryImpl;
+import io.vertx.servicediscovery.service.HelloService;
+import io.vertx.servicediscovery.service.HelloServiceImpl;
+import io.vertx.servicediscovery.types.EventBusService;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+import io.vertx.serviceproxy.ProxyHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks the behavior of the {@link HealthChecker}.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class HealthCheckerTest {
+
+  private Vertx vertx;
+  private ServiceDiscovery discovery;
+  private HealthChecker checker;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    discovery = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+  }
+
+  @After
+  public void tearDown() {
+    if (checker != null) {
+      checker.close();
+    }
+    discovery.close();
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close((v) -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  private HealthChecker start() {
+    checker = new HealthChecker(vertx, discovery, new JsonObject()
+        .put("interval", 100)
+        .put("timeout", 500)
+        .put("unhealthy-threshold", 2)
+        .put("healthy-threshold", 1))
+        .start();
+    return checker;
+  }
+
+  private Record publish(Record record) {
+    discovery.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+    return record;
+  }
+
+  private Record current(Record record) {
+    AtomicReference<Record> found = new AtomicReference<>();
+    discovery.getRecord(r -> r.getRegistration().equals(record.getRegistration()), true,
+        ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    return found.get();
+  }
+
+  private Status status(Record record) {
+    return current(record).getStatus();
+  }
+
+  private int visible() {
+    AtomicReference<List<Record>> found = new AtomicReference<>();
+    discovery.getRecords((JsonObject) null, ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    return found.get().size();
+  }
+
+  private HttpServer startHttpServer(int status) {
+    AtomicReference<HttpServer> server = new AtomicReference<>();
+    HttpServer created = vertx.createHttpServer()
+        .requestHandler(request -> request.response().setStatusCode(status).end());
+    created.listen(8081, ar -> server.set(ar.result()));
+    await().until(() -> server.get() != null);
+    return server.get();
+  }
+
+  private void close(HttpServer server) {
+    AtomicBoolean closed = new AtomicBoolean();
+    server.close(ar -> closed.set(true));
+    await().untilAtomic(closed, is(true));
+  }
+
+  @Test
+  public void testHttpEndpoint() {
+    HttpServer server = startHttpServer(200);
+    Record record = publish(HttpEndpoint.createRecord("http", "localhost", 8081, "/"));
+    start();
+    await().until(() -> checker.getMetrics().getLong("probes") >= 3);
+    assertThat(status(record)).isEqualTo(Status.UP);
+
+    // Down
+    close(server);
+    await().until(() -> status(record) == Status.OUT_OF_SERVICE);
+    assertThat(visible()).isEqualTo(0);
+
+    // Back, but unhealthy
+    server = startHttpServer(503);
+    long probes = checker.getMetrics().getLong("probes");
+    await().until(() -> checker.getMetrics().getLong("probes") >= probes + 3);
+    assertThat(status(record)).isEqualTo(Status.OUT_OF_SERVICE);
+
+    // Healthy again
+    close(server);
+    startHttpServer(200);
+    await().until(() -> status(record) == Status.UP);
+    assertThat(visible()).isEqualTo(1);
+    assertThat(checker.getMetrics().getLong("status-changes")).isEqualTo(2);
+  }
+
+  @Test
+  public void testMarkerIsStoredInTheRecord() {
+    HttpServer server = startHttpServer(200);
+    Record record = publish(HttpEndpoint.createRecord("http", "localhost", 8081, "/"));
+    start();
+    close(server);
+    await().until(() -> status(record) == Status.OUT_OF_SERVICE);
+    assertThat(current(record).getMetadata().getBoolean(HealthChecker.HEALTH_MARKED)).isTrue();
+
+    // Another health checker (a restart) sets the record back UP
+    checker.close();
+    startHttpServer(200);
+    start();
+    await().until(() -> status(record) == Status.UP);
+    assertThat(current(record).getMetadata().containsKey(HealthChecker.HEALTH_MARKED)).isFalse();
+  }
+
+  @Test
+  public void testRecordsInMaintenanceAreNotChecked() {
+    startHttpServer(200);
+    Record record = publish(HttpEndpoint.createRecord("http", "localhost", 8081, "/")
+        .setStatus(Status.OUT_OF_SERVICE));
+    assertThat(status(record)).isEqualTo(Status.OUT_OF_SERVICE);
+    start();
+    await().pollDelay(500, TimeUnit.MILLISECONDS).until(() -> true);
+    assertThat(checker.getMetrics().getLong("probes")).isEqualTo(0);
+    assertThat(status(record)).isEqualTo(Status.OUT_OF_SERVICE);
+  }
+
+  @Test
+  public void testEventBusService() {
+    MessageConsumer<JsonObject> consumer = ProxyHelper.registerService(HelloService.class, vertx,
+        new HelloServiceImpl(), "hello-address");
+    Record record = publish(EventBusService.createRecord("hello", "hello-address", HelloService.class));
+    start();
+    await().until(() -> checker.getMetrics().getLong("probes") >= 3);
+    assertThat(status(record)).isEqualTo(Status.UP);
+    assertThat(checker.getMetrics().getLong("failures")).isEqualTo(0);
+
+    ProxyHelper.unregisterService(consumer);
+    await().until(() -> status(record) == Status.OUT_OF_SERVICE);
+  }
+
+  @Test
+  public void testEventBusHealthAction() {
+    AtomicBoolean healthy = new AtomicBoolean(true);
+    vertx.eventBus().<JsonObject>consumer("ping-address", message -> {
+      if ("ping".equals(message.headers().get("action")) && healthy.get()) {
+        message.reply("pong");
+      } else {
+        message.fail(500, "unhealthy");
+      }
+    });
+    Record record = publish(EventBusService.createRecord("pinged", "ping-address", HelloService.class,
+        new JsonObject().put(HealthChecker.HEALTH_ACTION, "ping")));
+    start();
+    await().until(() -> checker.getMetrics().getLong("probes") >= 3);
+    assertThat(status(record)).isEqualTo(Status.UP);
+
+    healthy.set(false);
+    await().until(() -> status(record) == Status.OUT_OF_SERVICE);
+    healthy.set(true);
+    await().until(() -> status(record) == Status.UP);
+  }
+
+  @Test
+  public void testTcpLocation() {
+    AtomicReference<NetServer> server = new AtomicReference<>();
+    vertx.createNetServer().connectHandler(socket -> socket.close())
+        .listen(8082, ar -> server.set(ar.result()));
+    await().until(() -> server.get() != null);
+    Record record = publish(new Record().setName("tcp").setType("redis")
+        .setLocation(new JsonObject().put("host", "localhost").put("port", 8082)));
+    // No probe for this one
+    publish(new Record().setName("unknown").setType("unknown").setLocation(new JsonObject().put("x", 1)));
+    start();
+    await().until(() -> checker.getMetrics().getLong("probes") >= 3);
+    assertThat(status(record)).isEqualTo(Status.UP);
+
+    server.get().close();
+    await().until(() -> status(record) == Status.OUT_OF_SERVICE);
+    assertThat(visible()).isEqualTo(1);
+  }
+}
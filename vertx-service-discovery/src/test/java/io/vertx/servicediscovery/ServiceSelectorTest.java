@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.impl.DiscoveryImpl;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks the behavior of the {@link ServiceSelector} implementations.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class ServiceSelectorTest {
+
+  private static List<Record> records(int count) {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      records.add(HttpEndpoint.createRecord("service", "host-" + i, 8080, "/")
+          .setRegistration("registration-" + i));
+    }
+    return records;
+  }
+
+  private static Map<Record, Integer> select(ServiceSelector selector, List<Record> records, int count) {
+    Map<Record, Integer> hits = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      hits.merge(selector.select(records), 1, Integer::sum);
+    }
+    return hits;
+  }
+
+  @Test
+  public void testEmptyAndSingleton() {
+    List<Record> records = records(1);
+    for (ServiceSelector selector : new ServiceSelector[]{ServiceSelector.roundRobin(), ServiceSelector.random(),
+        ServiceSelector.leastInFlight(), ServiceSelector.powerOfTwoChoices(), ServiceSelector.weighted(),
+        ServiceSelector.ewma(), ServiceSelector.consistentHash()}) {
+      assertThat(selector.select(new ArrayList<>())).isNull();
+      assertThat(selector.select(records)).isSameAs(records.get(0));
+      assertThat(selector.select(records, "key")).isSameAs(records.get(0));
+    }
+  }
+
+  @Test
+  public void testRoundRobin() {
+    List<Record> records = records(3);
+    Map<Record, Integer> hits = select(ServiceSelector.roundRobin(), records, 30);
+    assertThat(hits.values()).containsOnly(10);
+  }
+
+  @Test
+  public void testRandom() {
+    List<Record> records = records(3);
+    assertThat(select(ServiceSelector.random(), records, 300)).hasSize(3);
+  }
+
+  @Test
+  public void testWeighted() {
+    List<Record> records = records(3);
+    records.get(0).getMetadata().put("weight", 0);
+    records.get(1).getMetadata().put("weight", 3);
+    Map<Record, Integer> hits = select(ServiceSelector.weighted(), records, 400);
+    assertThat(hits).doesNotContainKey(records.get(0));
+    assertThat(hits.get(records.get(1))).isGreaterThan(hits.get(records.get(2)));
+  }
+
+  @Test
+  public void testLeastInFlight() {
+    List<Record> records = records(3);
+    ServiceSelector selector = ServiceSelector.leastInFlight();
+    selector.onStart(records.get(0));
+    selector.onStart(records.get(1));
+    selector.onStart(records.get(1));
+    assertThat(select(selector, records, 20)).containsOnlyKeys(records.get(2));
+
+    selector.onStart(records.get(2));
+    selector.onStart(records.get(2));
+    assertThat(select(selector, records, 20)).containsOnlyKeys(records.get(0));
+
+    selector.onComplete(records.get(1), 1000, false);
+    selector.onComplete(records.get(1), 1000, false);
+    assertThat(select(selector, records, 20)).containsOnlyKeys(records.get(1));
+  }
+
+  @Test
+  public void testPowerOfTwoChoices() {
+    List<Record> records = records(2);
+    ServiceSelector selector = ServiceSelector.powerOfTwoChoices();
+    selector.onStart(records.get(0));
+    assertThat(select(selector, records, 20)).containsOnlyKeys(records.get(1));
+  }
+
+  @Test
+  public void testEwma() {
+    List<Record> records = records(3);
+    ServiceSelector selector = ServiceSelector.ewma();
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < records.size(); j++) {
+        Record record = records.get(j);
+        selector.onStart(record);
+        selector.onComplete(record, TimeUnit.MILLISECONDS.toNanos(j == 1 ? 1 : 50), false);
+      }
+    }
+    assertThat(select(selector, records, 20)).containsOnlyKeys(records.get(1));
+
+    // Records never measured are preferred, to get measured
+    List<Record> extended = new ArrayList<>(records);
+    extended.add(records(4).get(3));
+    assertThat(selector.select(extended)).isSameAs(extended.get(3));
+  }
+
+  @Test
+  public void testConsistentHash() {
+    List<Record> records = records(5);
+    ServiceSelector selector = ServiceSelector.consistentHash();
+    Map<String, Record> routes = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      routes.put("key-" + i, selector.select(records, "key-" + i));
+    }
+    // Stable
+    routes.forEach((key, record) -> assertThat(selector.select(records, key)).isSameAs(record));
+    assertThat(new ArrayList<>(routes.values()).stream().distinct().count()).isEqualTo(5);
+
+    // Removing a record only moves its keys
+    Record removed = records.remove(2);
+    routes.forEach((key, record) -> {
+      Record selected = selector.select(records, key);
+      if (record != removed) {
+        assertThat(selected).isSameAs(record);
+      } else {
+        assertThat(selected).isNotSameAs(removed);
+      }
+    });
+  }
+
+  @Test
+  public void testConsistentHashWithUpdatedRecords() {
+    List<Record> records = records(3);
+    ServiceSelector selector = ServiceSelector.consistentHash();
+    Map<String, Integer> routes = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      routes.put("key-" + i, records.indexOf(selector.select(records, "key-" + i)));
+    }
+
+    // A record changes (same name and location, new instance): the ring returns the new instance at the same position
+    Record updated = new Record(records.get(1).toJson()).setStatus(Status.OUT_OF_SERVICE);
+    records.set(1, updated);
+    routes.forEach((key, index) -> assertThat(selector.select(records, key)).isSameAs(records.get(index)));
+    assertThat(routes.values()).contains(1);
+  }
+
+  @Test
+  public void testConcurrentAccess() throws InterruptedException {
+    List<Record> records = records(4);
+    ServiceSelector selector = ServiceSelector.ewma();
+    int threads = 8;
+    CountDownLatch done = new CountDownLatch(threads);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (int t = 0; t < threads; t++) {
+      new Thread(() -> {
+        try {
+          for (int i = 0; i < 10000; i++) {
+            Record record = selector.select(records);
+            selector.onStart(record);
+            selector.onComplete(record, i % 100, i % 10 == 0);
+          }
+        } catch (Throwable e) {
+          failure.set(e);
+        } finally {
+          done.countDown();
+        }
+      }).start();
+    }
+    assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+    assertThat(failure.get()).isNull();
+
+    // All the requests have completed
+    ServiceSelector leastInFlight = ServiceSelector.leastInFlight();
+    records.forEach(leastInFlight::onStart);
+    records.forEach(record -> leastInFlight.onComplete(record, 0, false));
+    assertThat(select(leastInFlight, records, 400)).hasSize(4);
+  }
+
+  @Test
+  public void testSelectionFromTheServiceDiscovery() {
+    Vertx vertx = Vertx.vertx();
+    ServiceDiscovery discovery = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    List<Record> published = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      published.add(HttpEndpoint.createRecord("service", "host-" + i, 8080, "/"));
+    }
+    published.add(HttpEndpoint.createRecord("another", "host", 8080, "/"));
+    published.forEach(record -> discovery.publish(record, ar -> { }));
+    await().until(() -> published.stream().allMatch(record -> record.getRegistration() != null));
+
+    ServiceSelector selector = ServiceSelector.roundRobin();
+    List<String> hosts = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      AtomicReference<Record> selected = new AtomicReference<>();
+      selector.select(discovery, new JsonObject().put("name", "service"), null, ar -> selected.set(ar.result()));
+      await().until(() -> selected.get() != null);
+      hosts.add(selected.get().getLocation().getString("host"));
+    }
+    assertThat(hosts).containsOnly("host-0", "host-1", "host-2");
+
+    discovery.close();
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close((v) -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  @Test
+  public void testLatencyAwareEjectsFailingRecords() throws InterruptedException {
+    List<Record> records = records(3);
+    ServiceSelector selector = ServiceSelector.latencyAware(new JsonObject()
+        .put("consecutive-failures", 3).put("ejection-time", 500));
+    Record failing = records.get(0);
+    records.forEach(record -> selector.onComplete(record, 1000, false));
+    for (int i = 0; i < 3; i++) {
+      selector.onComplete(failing, 1000, true);
+    }
+    assertThat(select(selector, records, 50)).doesNotContainKey(failing);
+
+    // Once the ejection time has elapsed, the record is selected again (not measured, so preferred)
+    Thread.sleep(700);
+    assertThat(selector.select(records)).isSameAs(failing);
+
+    // Ejected again, for twice the time
+    for (int i = 0; i < 3; i++) {
+      selector.onComplete(failing, 1000, true);
+    }
+    Thread.sleep(700);
+    assertThat(select(selector, records, 50)).doesNotContainKey(failing);
+    Thread.sleep(500);
+    assertThat(selector.select(records)).isSameAs(failing);
+  }
+
+  @Test
+  public void testLatencyAwareEjectsSlowRecords() {
+    List<Record> records = records(4);
+    ServiceSelector selector = ServiceSelector.latencyAware(new JsonObject().put("ejection-time", 10000));
+    Record slow = records.get(2);
+    for (Record record : records) {
+      selector.onStart(record);
+      selector.onComplete(record, TimeUnit.MILLISECONDS.toNanos(record == slow ? 100 : 5), false);
+    }
+    // The slow record is ejected
+    assertThat(select(selector, records, 50)).doesNotContainKey(slow);
+    Record fast = selector.select(records);
+    selector.onComplete(fast, TimeUnit.MILLISECONDS.toNanos(50), false);
+    assertThat(select(selector, records, 50)).doesNotContainKey(slow).doesNotContainKey(fast);
+
+    // Never eject all the records
+    for (Record record : records) {
+      for (int i = 0; i < 5; i++) {
+        selector.onComplete(record, 0, true);
+      }
+    }
+    assertThat(selector.select(records)).isNotNull();
+  }
+
+  @Test
+  public void testFeedbackFromTheServiceReferences() {
+    Vertx vertx = Vertx.vertx();
+    ServiceDiscovery discovery = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    ServiceSelector selector = ServiceSelector.latencyAware(new JsonObject().put("consecutive-failures", 2));
+    discovery.registerServiceSelector(selector);
+
+    List<Record> published = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      published.add(HttpEndpoint.createRecord("service", "host-" + i, 8080, "/"));
+    }
+    published.forEach(record -> discovery.publish(record, ar -> { }));
+    await().until(() -> published.stream().allMatch(record -> record.getRegistration() != null));
+
+    ServiceReference reference = discovery.getReference(published.get(0));
+    reference.reportSuccess(1000);
+    reference.reportFailure(1000);
+    reference.reportFailure(1000);
+    assertThat(select(selector, published, 20)).containsOnlyKeys(published.get(1));
+    reference.release();
+
+    discovery.unregisterServiceSelector(selector);
+    ServiceReference other = discovery.getReference(published.get(1));
+    for (int i = 0; i < 5; i++) {
+      other.reportFailure(1000);
+    }
+    assertThat(select(selector, published, 20)).containsOnlyKeys(published.get(1));
+    other.release();
+
+    discovery.close();
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close((v) -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  @Test
+  public void testLocality() {
+    List<Record> records = records(5);
+    String[][] locations = {{"node-1", "zone-a"}, {"node-2", "zone-a"}, {"node-3", "zone-a"}, {"node-4", "zone-b"},
+        {"node-5", "zone-b"}};
+    for (int i = 0; i < records.size(); i++) {
+      records.get(i).getMetadata().put("service.node", locations[i][0]).put("service.zone", locations[i][1]);
+    }
+    ServiceSelector latencyAware = ServiceSelector.latencyAware(new JsonObject().put("consecutive-failures", 1));
+    ServiceSelector selector = ServiceSelector.locality("node-2", "zone-a", latencyAware);
+
+    // Same node
+    assertThat(select(selector, records, 20)).containsOnlyKeys(records.get(1));
+
+    // Same zone, when the local record is ejected or down
+    selector.onComplete(records.get(1), 1000, true);
+    assertThat(select(selector, records, 50)).containsOnlyKeys(records.get(0), records.get(2));
+    records.get(0).setStatus(Status.DOWN);
+    assertThat(select(selector, records, 20)).containsOnlyKeys(records.get(2));
+
+    // Other zones, when all the records of the zone are unhealthy
+    records.get(2).setStatus(Status.OUT_OF_SERVICE);
+    assertThat(select(selector, records, 50)).containsKeys(records.get(3), records.get(4));
+
+    // Without locality metadata, delegate
+    ServiceSelector remote = ServiceSelector.locality("node-9", "zone-z", ServiceSelector.roundRobin());
+    assertThat(select(remote, records(4), 40).values()).containsOnly(10);
+  }
+}
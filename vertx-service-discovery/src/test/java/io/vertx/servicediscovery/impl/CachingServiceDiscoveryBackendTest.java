@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class CachingServiceDiscoveryBackendTest {
+
+  private static final String ANNOUNCE = ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS;
+
+  private Vertx vertx;
+  private CountingBackend delegate;
+  private CachingServiceDiscoveryBackend backend;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    delegate = new CountingBackend();
+  }
+
+  @After
+  public void tearDown() {
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close(ar -> completed.set(ar.succeeded()));
+    await().untilAtomic(completed, is(true));
+  }
+
+  private void init(JsonObject conf) {
+    backend = new CachingServiceDiscoveryBackend(delegate, ANNOUNCE);
+    backend.init(vertx, new JsonObject().put("cache", conf));
+  }
+
+  private Record store(String name) {
+    AtomicReference<Record> reference = new AtomicReference<>();
+    backend.store(new Record().setName(name).setStatus(Status.UP)
+        .setLocation(new JsonObject().put("endpoint", name)), ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    return reference.get();
+  }
+
+  private Record get(String registration) {
+    AtomicReference<Record> reference = new AtomicReference<>();
+    AtomicBoolean done = new AtomicBoolean();
+    backend.getRecord(registration, ar -> {
+      reference.set(ar.result());
+      done.set(true);
+    });
+    await().untilAtomic(done, is(true));
+    return reference.get();
+  }
+
+  private List<Record> all() {
+    AtomicReference<List<Record>> reference = new AtomicReference<>();
+    backend.getRecords(ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    return reference.get();
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    init(new JsonObject());
+    Record record = store("my-service");
+
+    // Populated by the store
+    assertThat(get(record.getRegistration()).getName()).isEqualTo("my-service");
+    assertThat(delegate.reads.get()).isEqualTo(0);
+
+    assertThat(all()).hasSize(1);
+    assertThat(all()).hasSize(1);
+    assertThat(delegate.reads.get()).isEqualTo(1);
+
+    // Local writes update the cache
+    backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> assertThat(ar.succeeded()).isTrue());
+    await().until(() -> get(record.getRegistration()).getStatus() == Status.OUT_OF_SERVICE);
+    assertThat(all().get(0).getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+    AtomicBoolean removed = new AtomicBoolean();
+    backend.remove(record, ar -> removed.set(ar.succeeded()));
+    await().untilAtomic(removed, is(true));
+    assertThat(get(record.getRegistration())).isNull();
+    assertThat(all()).isEmpty();
+
+    JsonObject metrics = backend.metrics();
+    assertThat(metrics.getLong("hits")).isGreaterThanOrEqualTo(2);
+    assertThat(metrics.getLong("misses")).isGreaterThanOrEqualTo(3);
+  }
+
+  @Test
+  public void testHitHandlerIsCalledOutsideOfTheLock() {
+    init(new JsonObject());
+    Record record = store("my-service");
+    AtomicReference<Boolean> locked = new AtomicReference<>();
+    backend.getRecord(record.getRegistration(), ar -> locked.set(Thread.holdsLock(backend)));
+    await().until(() -> locked.get() != null);
+    assertThat(locked.get()).isFalse();
+    assertThat(delegate.reads.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() {
+    init(new JsonObject().put("max-size", 2));
+    Record record1 = store("my-service-1");
+    Record record2 = store("my-service-2");
+    get(record1.getRegistration());
+    // record2 is the least recently used
+    store("my-service-3");
+    assertThat(backend.metrics().getInteger("size")).isEqualTo(2);
+    assertThat(backend.metrics().getLong("evictions")).isEqualTo(1);
+
+    get(record1.getRegistration());
+    assertThat(delegate.reads.get()).isEqualTo(0);
+    get(record2.getRegistration());
+    assertThat(delegate.reads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testListIsBounded() {
+    init(new JsonObject().put("max-size", 3));
+    for (int i = 0; i < 3; i++) {
+      store("my-service-" + i);
+    }
+    assertThat(all()).hasSize(3);
+    assertThat(all()).hasSize(3);
+    assertThat(delegate.reads.get()).isEqualTo(1);
+    assertThat(backend.metrics().getInteger("list-size")).isEqualTo(3);
+
+    // Filtered lookups are served from the cached list, and only return copies of the accepted records
+    AtomicReference<List<Record>> found = new AtomicReference<>();
+    backend.getRecords(record -> record.getName().equals("my-service-1"), ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get()).extracting(Record::getName).containsExactly("my-service-1");
+    found.get().get(0).setName("modified");
+    assertThat(all()).extracting(Record::getName).doesNotContain("modified");
+    assertThat(delegate.reads.get()).isEqualTo(1);
+
+    // Too many records, the list is not cached anymore
+    store("my-service-3");
+    assertThat(all()).hasSize(4);
+    assertThat(all()).hasSize(4);
+    assertThat(delegate.reads.get()).isEqualTo(3);
+    assertThat(backend.metrics().getInteger("list-size")).isEqualTo(0);
+
+    // So the filters of the lookups are passed to the wrapped backend
+    found.set(null);
+    backend.getRecords(record -> record.getName().equals("my-service-3"), ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get()).extracting(Record::getName).containsExactly("my-service-3");
+    assertThat(delegate.filteredReads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testExpiration() {
+    init(new JsonObject().put("ttl", 50));
+    Record record = store("my-service");
+    await().until(() -> {
+      get(record.getRegistration());
+      return delegate.reads.get() == 1;
+    });
+  }
+
+  @Test
+  public void testInvalidationByAnnouncements() {
+    init(new JsonObject().put("ttl", 1000000));
+    Record record1 = store("my-service-1");
+    Record record2 = store("my-service-2");
+    all();
+
+    // Another node updates the record
+    Record changed = new Record(record1.toJson()).setStatus(Status.OUT_OF_SERVICE);
+    delegate.update(changed, ar -> { });
+    vertx.eventBus().publish(ANNOUNCE, changed.toJson());
+    await().until(() -> get(record1.getRegistration()).getStatus() == Status.OUT_OF_SERVICE);
+    await().until(() -> all().stream().anyMatch(r -> r.getStatus() == Status.OUT_OF_SERVICE));
+
+    // Another node removes the record, the announcement does not contain the registration
+    delegate.remove(record2, ar -> { });
+    vertx.eventBus().publish(ANNOUNCE, new Record(record2.toJson()).setRegistration(null)
+        .setStatus(Status.DOWN).toJson());
+    await().until(() -> get(record2.getRegistration()) == null);
+    await().until(() -> all().size() == 1);
+  }
+
+  private static class CountingBackend extends DefaultServiceDiscoveryBackend {
+    private final AtomicInteger reads = new AtomicInteger();
+    private final AtomicInteger filteredReads = new AtomicInteger();
+
+    @Override
+    public void getRecords(Function<Record, Boolean> filter, Handler<AsyncResult<List<Record>>> resultHandler) {
+      filteredReads.incrementAndGet();
+      super.getRecords(filter, resultHandler);
+    }
+
+    @Override
+    public void getRecords(Handler<AsyncResult<List<Record>>> resultHandler) {
+      reads.incrementAndGet();
+      super.getRecords(resultHandler);
+    }
+
+    @Override
+    public void getRecord(String uuid, Handler<AsyncResult<Record>> resultHandler) {
+      reads.incrementAndGet();
+      super.getRecord(uuid, resultHandler);
+    }
+  }
+}
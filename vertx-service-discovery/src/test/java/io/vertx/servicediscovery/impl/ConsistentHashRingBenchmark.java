@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup cost of the {@link HashRing}, and the share of keys moving when a node is removed, for several
+ * numbers of virtual nodes. This is not a unit test, run it with:
+ * <pre>
+ *   java -cp ... io.vertx.servicediscovery.impl.ConsistentHashRingBenchmark [number of nodes] [number of keys]
+ * </pre>
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class ConsistentHashRingBenchmark {
+
+  public static void main(String[] args) {
+    int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+    System.out.println("Hash ring with " + nodes + " nodes, " + keys + " keys");
+    for (int virtualNodes : new int[]{1, 10, 100, 500}) {
+      run(nodes, keys, virtualNodes);
+    }
+  }
+
+  private static void run(int nodes, int keys, int virtualNodes) {
+    HashRing ring = new HashRing(virtualNodes);
+    Record[] records = new Record[nodes];
+    long begin = System.nanoTime();
+    for (int i = 0; i < nodes; i++) {
+      records[i] = HttpEndpoint.createRecord("cache", "host-" + i + ".example.com", 8080, "/");
+      ring.add(HashRing.node(records[i]), records[i]);
+    }
+    long buildTime = System.nanoTime() - begin;
+
+    String[] names = new String[keys];
+    for (int i = 0; i < keys; i++) {
+      names[i] = "user-" + i;
+    }
+
+    // Warm up, then measure the lookups
+    Record[] routes = new Record[keys];
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < keys; i++) {
+        routes[i] = ring.get(names[i]);
+      }
+    }
+    begin = System.nanoTime();
+    for (int i = 0; i < keys; i++) {
+      routes[i] = ring.get(names[i]);
+    }
+    long lookupTime = System.nanoTime() - begin;
+
+    // Keys per node, to measure the balance
+    int max = 0;
+    int min = Integer.MAX_VALUE;
+    for (Record record : records) {
+      int count = 0;
+      for (Record route : routes) {
+        if (route == record) {
+          count++;
+        }
+      }
+      max = Math.max(max, count);
+      min = Math.min(min, count);
+    }
+
+    // Remove a node, and count the keys that moved
+    begin = System.nanoTime();
+    ring.remove(HashRing.node(records[nodes / 2]));
+    long removeTime = System.nanoTime() - begin;
+    int moved = 0;
+    for (int i = 0; i < keys; i++) {
+      if (ring.get(names[i]) != routes[i]) {
+        moved++;
+      }
+    }
+
+    System.out.println(String.format("%4d virtual nodes - build: %d ms - lookup: %d ns/op - keys per node: " +
+            "min %d, max %d (ideal %d) - remove: %d us - moved on removal: %.2f%% (ideal %.2f%%)",
+        virtualNodes, TimeUnit.NANOSECONDS.toMillis(buildTime), lookupTime / keys, min, max, keys / nodes,
+        TimeUnit.NANOSECONDS.toMicros(removeTime), 100.0 * moved / keys, 100.0 / nodes));
+  }
+}
@@ -19,6 +19,7 @@ package io.vertx.servicediscovery.impl;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.json.JsonObject;
 import io.vertx.servicediscovery.*;
 import io.vertx.servicediscovery.service.HelloService;
@@ -28,6 +29,7 @@ import io.vertx.servicediscovery.spi.ServiceImporter;
 import io.vertx.servicediscovery.spi.ServicePublisher;
 import io.vertx.servicediscovery.types.EventBusService;
 import io.vertx.servicediscovery.types.HttpEndpoint;
+import io.vertx.servicediscovery.utils.RecordDeltas;
 import io.vertx.serviceproxy.ProxyHelper;
 import org.assertj.core.api.Assertions;
 import org.junit.After;
@@ -39,7 +41,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.jayway.awaitility.Awaitility.await;
@@ -316,6 +320,7 @@ public class DiscoveryImplTest {
 
     private Map<String, Record> state = new HashMap<>();
     private boolean closed;
+    private boolean updatedAfterClose;
 
     @Override
     public void onPublish(Record record) {
@@ -324,6 +329,7 @@ public class DiscoveryImplTest {
 
     @Override
     public void onUpdate(Record record) {
+      updatedAfterClose |= closed;
       state.put(record.getRegistration(), new Record(record));
     }
 
@@ -381,4 +387,650 @@ public class DiscoveryImplTest {
     discovery.close();
     assertTrue(exporter.closed);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testSharedReferences() {
+    ServiceDiscovery shared = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions().setSharedReferences(true));
+    Record record = HttpEndpoint.createRecord("my-service", "localhost", 8080, "/")
+        .setRegistration("my-registration");
+
+    ServiceReference reference1 = shared.getReference(record);
+    ServiceReference reference2 = shared.getReference(record);
+    ServiceReference other = shared.getReferenceWithConfiguration(record,
+        new JsonObject().put("keepAlive", false));
+    assertThat(shared.bindings()).hasSize(3);
+
+    HttpClient client = reference1.get();
+    assertSame(client, reference2.get());
+    assertNotSame(client, other.get());
+
+    reference1.release();
+    reference1.release();
+    assertThat(shared.bindings()).hasSize(2);
+    // Still usable by the second holder
+    assertNotNull(client.get(8080, "localhost", "/"));
+    // The released reference cannot be used anymore
+    try {
+      reference1.get();
+      fail("The reference has been released");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    // The order of the configuration fields does not matter
+    ServiceReference ordered = shared.getReferenceWithConfiguration(record,
+        new JsonObject().put("keepAlive", false).put("maxPoolSize", 4));
+    ServiceReference reordered = shared.getReferenceWithConfiguration(record,
+        new JsonObject().put("maxPoolSize", 4).put("keepAlive", false));
+    assertSame(ordered.get(), reordered.get());
+    ordered.release();
+    reordered.release();
+
+    shared.release(reference2);
+    assertThat(shared.bindings()).hasSize(1);
+    try {
+      client.get(8080, "localhost", "/");
+      fail("The client should have been closed");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    shared.close();
+    assertThat(shared.bindings()).isEmpty();
+  }
+
+  @Test
+  public void testBindingCounts() throws InterruptedException {
+    DiscoveryImpl impl = (DiscoveryImpl) discovery;
+    Record record1 = HttpEndpoint.createRecord("my-service-1", "localhost", 8080, "/")
+        .setRegistration("registration-1");
+    Record record2 = HttpEndpoint.createRecord("my-service-2", "localhost", 8081, "/")
+        .setRegistration("registration-2");
+
+    List<Thread> threads = new ArrayList<>();
+    List<ServiceReference> kept = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread(() -> {
+        for (int j = 0; j < 1000; j++) {
+          ServiceReference reference = discovery.getReference(j % 2 == 0 ? record1 : record2);
+          if (j < 10) {
+            kept.add(reference);
+          } else {
+            discovery.release(reference);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(discovery.bindings()).hasSize(40);
+    assertThat(impl.getBindingCount("registration-1")).isEqualTo(20);
+    assertThat(impl.getBindingCount("registration-2")).isEqualTo(20);
+    assertThat(impl.getBindingCounts()).hasSize(2);
+
+    kept.forEach(ServiceReference::release);
+    assertThat(discovery.bindings()).isEmpty();
+    assertThat(impl.getBindingCount("registration-1")).isEqualTo(0);
+    assertThat(impl.getBindingCounts()).isEmpty();
+  }
+
+  @Test
+  public void testReleaseOnDeparture() {
+    ServiceDiscovery tracking = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions()
+        .setReleaseOnDeparture(true).setDepartureCheckInterval(100));
+    List<ServiceReference> departures = Collections.synchronizedList(new ArrayList<>());
+    tracking.departureHandler(departures::add);
+
+    Record record1 = HttpEndpoint.createRecord("my-service-1", "localhost", 8080, "/");
+    Record record2 = HttpEndpoint.createRecord("my-service-2", "localhost", 8081, "/");
+    AtomicBoolean published = new AtomicBoolean();
+    tracking.publish(record1, ar -> tracking.publish(record2, ar2 -> published.set(true)));
+    await().untilAtomic(published, is(true));
+
+    ServiceReference reference1 = tracking.getReference(record1);
+    ServiceReference reference2 = tracking.getReference(record2);
+    HttpClient client = reference1.get();
+    // Not published, detected by the periodic check
+    ServiceReference unknown = tracking.getReference(HttpEndpoint.createRecord("my-service-3", "localhost", 8082, "/")
+        .setRegistration("unknown-registration"));
+
+    await().until(() -> departures.contains(unknown));
+    assertThat(tracking.bindings()).containsOnly(reference1, reference2);
+
+    // Un-publication
+    tracking.unpublish(record1.getRegistration(), ar -> { });
+    await().until(() -> departures.contains(reference1));
+    assertThat(tracking.bindings()).containsOnly(reference2);
+    assertThat(reference1.<HttpClient>cached()).isNull();
+    try {
+      client.get(8080, "localhost", "/");
+      fail("The client should have been closed");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    // Status update
+    tracking.update(new Record(record2).setStatus(Status.DOWN), ar -> { });
+    await().until(() -> departures.contains(reference2));
+    assertThat(tracking.bindings()).isEmpty();
+    assertThat(departures).hasSize(3);
+
+    tracking.close();
+  }
+
+  @Test
+  public void testDepartureHandlerWithoutRelease() {
+    ServiceDiscovery tracking = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions()
+        .setDepartureCheckInterval(100));
+    AtomicInteger departures = new AtomicInteger();
+    tracking.departureHandler(reference -> departures.incrementAndGet());
+
+    Record record = HttpEndpoint.createRecord("my-service", "localhost", 8080, "/");
+    AtomicBoolean published = new AtomicBoolean();
+    tracking.publish(record, ar -> published.set(true));
+    await().untilAtomic(published, is(true));
+    ServiceReference reference = tracking.getReference(record);
+
+    tracking.unpublish(record.getRegistration(), ar -> { });
+    await().untilAtomic(departures, is(1));
+    // Notified once, and not released
+    assertThat(tracking.bindings()).containsOnly(reference);
+    vertx.setTimer(500, l -> published.set(false));
+    await().untilAtomic(published, is(false));
+    assertThat(departures.get()).isEqualTo(1);
+
+    tracking.close();
+    assertThat(tracking.bindings()).isEmpty();
+  }
+
+  @Test
+  public void testIdleReferenceEviction() throws InterruptedException {
+    DiscoveryImpl evicting = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions().setIdleReferenceTimeout(1000));
+    ServiceReference used = evicting.getReference(HttpEndpoint.createRecord("my-service-1", "localhost", 8080, "/")
+        .setRegistration("registration-1"));
+    ServiceReference idle = evicting.getReference(HttpEndpoint.createRecord("my-service-2", "localhost", 8081, "/")
+        .setRegistration("registration-2"));
+    assertThat(evicting.getReferenceMetrics().getInteger("live")).isEqualTo(2);
+    HttpClient client = idle.get();
+    assertNotNull(used.get());
+
+    long deadline = System.currentTimeMillis() + 3000;
+    while (System.currentTimeMillis() < deadline) {
+      assertNotNull(used.get());
+      Thread.sleep(10);
+    }
+
+    assertThat(evicting.bindings()).containsOnly(used);
+    JsonObject metrics = evicting.getReferenceMetrics();
+    assertThat(metrics.getInteger("live")).isEqualTo(1);
+    assertThat(metrics.getLong("evicted")).isEqualTo(1);
+    try {
+      client.get(8081, "localhost", "/");
+      fail("The client should have been closed");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    // Accessed again, the reference is bound again with a new client
+    HttpClient again = idle.get();
+    assertThat(again).isNotSameAs(client);
+    assertThat(evicting.bindings()).containsOnly(used, idle);
+    assertThat(evicting.getBindingCount("registration-2")).isEqualTo(1);
+
+    // And so released on close
+    evicting.close();
+    try {
+      again.get(8081, "localhost", "/");
+      fail("The client should have been closed");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testIdleSharedReferenceEviction() throws InterruptedException {
+    DiscoveryImpl evicting = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions().setIdleReferenceTimeout(500)
+        .setSharedReferences(true));
+    ServiceReference idle = evicting.getReference(HttpEndpoint.createRecord("my-service", "localhost", 8080, "/")
+        .setRegistration("registration-1"));
+    HttpClient client = idle.get();
+    await().until(() -> evicting.bindings().isEmpty());
+    assertThat(evicting.getReferenceMetrics().getLong("evicted")).isEqualTo(1);
+
+    // Accessed again, the underlying reference is acquired again
+    HttpClient again = idle.get();
+    assertThat(again).isNotNull().isNotSameAs(client);
+    assertThat(evicting.bindings()).containsOnly(idle);
+    assertThat(evicting.getBindingCount("registration-1")).isEqualTo(1);
+
+    evicting.release(idle);
+    assertThat(evicting.bindings()).isEmpty();
+    try {
+      again.get(8080, "localhost", "/");
+      fail("The client should have been closed");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    evicting.close();
+  }
+
+  @Test
+  public void testLocalityStamping() {
+    DiscoveryImpl stamping = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions().setName("node-1")
+        .setZone("zone-a"));
+    Record record = HttpEndpoint.createRecord("my-service", "localhost", 8080, "/");
+    Record imported = HttpEndpoint.createRecord("imported", "localhost", 8081, "/",
+        new JsonObject().put(LocalitySelector.NODE, "remote").put(LocalitySelector.ZONE, "zone-b"));
+    stamping.publish(record, ar -> { });
+    stamping.publish(imported, ar -> { });
+    await().until(() -> record.getRegistration() != null && imported.getRegistration() != null);
+
+    AtomicReference<Record> found = new AtomicReference<>();
+    stamping.getRecord(new JsonObject().put("name", "my-service"), ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get().getMetadata().getString(LocalitySelector.NODE)).isEqualTo("node-1");
+    assertThat(found.get().getMetadata().getString(LocalitySelector.ZONE)).isEqualTo("zone-a");
+    assertThat(imported.getMetadata().getString(LocalitySelector.NODE)).isEqualTo("remote");
+    assertThat(imported.getMetadata().getString(LocalitySelector.ZONE)).isEqualTo("zone-b");
+
+    // The record passed by the caller only receives its registration, a copy is stamped
+    JsonObject shared = new JsonObject().put("version", 1);
+    Record first = HttpEndpoint.createRecord("first", "localhost", 8083, "/", shared);
+    AtomicReference<Record> published = new AtomicReference<>();
+    stamping.publish(first, ar -> published.set(ar.result()));
+    await().until(() -> first.getRegistration() != null && published.get() != null);
+    assertThat(published.get().getRegistration()).isEqualTo(first.getRegistration());
+    assertThat(published.get().getMetadata().getString(LocalitySelector.NODE)).isEqualTo("node-1");
+    assertThat(first.getMetadata()).isSameAs(shared);
+    assertThat(shared.containsKey(LocalitySelector.NODE)).isFalse();
+    assertThat(shared.containsKey(LocalitySelector.ZONE)).isFalse();
+    stamping.close();
+
+    // Not stamped without zone
+    Record other = HttpEndpoint.createRecord("other", "localhost", 8082, "/");
+    discovery.publish(other, ar -> { });
+    await().until(() -> other.getRegistration() != null);
+    assertThat(other.getMetadata().containsKey(LocalitySelector.NODE)).isFalse();
+  }
+
+  @Test
+  public void testLeases() throws InterruptedException {
+    List<Record> announces = new ArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        msg -> announces.add(new Record(msg.body())));
+    Record record = HttpEndpoint.createRecord("leased", "localhost", 8080, "/");
+    Record permanent = HttpEndpoint.createRecord("permanent", "localhost", 8081, "/");
+    discovery.publish(record, 1000, ar -> { });
+    discovery.publish(permanent, ar -> { });
+    await().until(() -> record.getRegistration() != null && permanent.getRegistration() != null);
+    await().until(() -> ((DiscoveryImpl) discovery).getLeaseCount() == 1);
+
+    // Renewed
+    AtomicInteger failures = new AtomicInteger();
+    long timer = vertx.setPeriodic(100, l -> discovery.heartbeat(record.getRegistration(), ar -> {
+      if (ar.failed()) {
+        failures.incrementAndGet();
+      }
+    }));
+    Thread.sleep(2000);
+    vertx.cancelTimer(timer);
+    assertThat(failures.get()).isEqualTo(0);
+    AtomicReference<List<Record>> found = new AtomicReference<>();
+    discovery.getRecords(r -> r.getName().equals("leased") || r.getName().equals("permanent"),
+        ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get()).hasSize(2);
+
+    // Expired
+    await().until(() -> announces.stream().anyMatch(announce -> announce.getStatus() == Status.DOWN));
+    assertThat(announces.stream().filter(announce -> announce.getStatus() == Status.DOWN)
+        .map(Record::getName)).containsExactly("leased");
+    found.set(null);
+    discovery.getRecords(r -> r.getName().equals("leased") || r.getName().equals("permanent"),
+        ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get()).extracting(Record::getName).containsExactly("permanent");
+    assertThat(((DiscoveryImpl) discovery).getLeaseCount()).isEqualTo(0);
+
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    discovery.heartbeat(record.getRegistration(), ar -> failure.set(ar.cause()));
+    await().until(() -> failure.get() != null);
+
+    // Un-publishing cancels the lease
+    Record other = HttpEndpoint.createRecord("other", "localhost", 8082, "/");
+    discovery.publish(other, 200, ar -> { });
+    await().until(() -> other.getRegistration() != null);
+    discovery.unpublish(other.getRegistration(), ar -> { });
+    await().until(() -> ((DiscoveryImpl) discovery).getLeaseCount() == 0);
+  }
+
+  @Test
+  public void testLeasedRecordsExpireWhateverTheirStatus() {
+    List<Record> announces = new ArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        msg -> announces.add(new Record(msg.body())));
+    Record record = HttpEndpoint.createRecord("unhealthy", "localhost", 8080, "/");
+    discovery.publish(record, 1000, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+
+    // Put out of service (by a health checker for instance), the lease can still be renewed
+    AtomicBoolean updated = new AtomicBoolean();
+    discovery.update(new Record(record).setStatus(Status.OUT_OF_SERVICE), ar -> updated.set(ar.succeeded()));
+    await().untilAtomic(updated, is(true));
+    AtomicBoolean renewed = new AtomicBoolean();
+    discovery.heartbeat(record.getRegistration(), ar -> renewed.set(ar.succeeded()));
+    await().untilAtomic(renewed, is(true));
+
+    // And expires once the heartbeats stop
+    await().until(() -> announces.stream()
+        .anyMatch(announce -> announce.getName().equals("unhealthy") && announce.getStatus() == Status.DOWN));
+    AtomicReference<List<Record>> found = new AtomicReference<>();
+    discovery.getRecords(r -> r.getName().equals("unhealthy"), true, ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get()).isEmpty();
+  }
+
+  @Test
+  public void testLeasesAreExpiredByTheReaper() throws InterruptedException {
+    List<Record> announces = new ArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        msg -> announces.add(new Record(msg.body())));
+    await().until(() -> ((DiscoveryImpl) discovery).isReaper());
+    // Other instances, sharing the backend
+    DiscoveryImpl publisher = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    DiscoveryImpl other = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    Record record = HttpEndpoint.createRecord("crashing", "localhost", 8080, "/");
+    publisher.publish(record, 1000, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+    assertThat(record.getMetadata().getLong(DiscoveryImpl.LEASE_TTL)).isEqualTo(1000);
+    // Only tracked by the reaper
+    await().until(() -> ((DiscoveryImpl) discovery).getLeaseCount() == 1);
+    assertThat(publisher.isReaper()).isFalse();
+    assertThat(publisher.getLeaseCount()).isEqualTo(0);
+    assertThat(other.getLeaseCount()).isEqualTo(0);
+
+    // The publisher is gone, the heartbeats are sent to the reaper by another instance
+    publisher.close();
+    AtomicInteger failures = new AtomicInteger();
+    long timer = vertx.setPeriodic(100, l -> other.heartbeat(record.getRegistration(), ar -> {
+      if (ar.failed()) {
+        failures.incrementAndGet();
+      }
+    }));
+    Thread.sleep(2000);
+    vertx.cancelTimer(timer);
+    assertThat(failures.get()).isEqualTo(0);
+    assertThat(announces.stream().filter(announce -> announce.getName().equals("crashing"))
+        .map(Record::getStatus)).containsExactly(Status.UP);
+
+    // No more heartbeats, the reaper expires the record, once
+    await().until(() -> announces.stream()
+        .anyMatch(announce -> announce.getName().equals("crashing") && announce.getStatus() == Status.DOWN));
+    AtomicReference<List<Record>> found = new AtomicReference<>();
+    discovery.getRecords(r -> r.getName().equals("crashing"), ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get()).isEmpty();
+    assertThat(((DiscoveryImpl) discovery).getLeaseCount()).isEqualTo(0);
+    Thread.sleep(500);
+    assertThat(announces.stream().filter(announce -> announce.getName().equals("crashing"))
+        .map(Record::getStatus)).containsExactly(Status.UP, Status.DOWN);
+    other.close();
+  }
+
+  @Test
+  public void testReaperFailover() {
+    Vertx vertx = Vertx.vertx();
+    List<Record> announces = new ArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        msg -> announces.add(new Record(msg.body())));
+    DiscoveryImpl reaper = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    await().until(reaper::isReaper);
+    DiscoveryImpl publisher = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    Record record = HttpEndpoint.createRecord("leased", "localhost", 8080, "/");
+    publisher.publish(record, 1000, ar -> { });
+    await().until(() -> record.getRegistration() != null && reaper.getLeaseCount() == 1);
+
+    // The reaper is gone, the publisher takes over and tracks the published leases
+    reaper.close();
+    await().until(publisher::isReaper);
+    await().until(() -> publisher.getLeaseCount() == 1);
+    await().until(() -> announces.stream()
+        .anyMatch(announce -> announce.getName().equals("leased") && announce.getStatus() == Status.DOWN));
+    assertThat(publisher.getLeaseCount()).isEqualTo(0);
+
+    publisher.close();
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close(v -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  @Test
+  public void testHotMetadata() {
+    List<Record> announces = new ArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        msg -> announces.add(new Record(msg.body())));
+    Record record = HttpEndpoint.createRecord("hot", "localhost", 8080, "/", new JsonObject().put("zone", "a"));
+    discovery.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null && announces.size() == 1);
+    // Other instances, sharing the backend
+    DiscoveryImpl other = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    ServiceDiscovery reader = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+
+    discovery.updateHotMetadata(record.getRegistration(), new JsonObject().put("load", 0.5).put("state", "busy"),
+        ar -> { });
+    await().until(() -> other.getHotMetadata(record.getRegistration()) != null);
+    AtomicReference<Record> found = new AtomicReference<>();
+    // Filters see the hot fields
+    other.getRecord(new JsonObject().put("state", "busy"), ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get().getMetadata().getDouble("load")).isEqualTo(0.5);
+    assertThat(found.get().getMetadata().getString("zone")).isEqualTo("a");
+
+    // Received by the instances only looking up records
+    AtomicReference<List<Record>> read = new AtomicReference<>();
+    reader.getRecords(new JsonObject().put("name", "hot"), ar -> read.set(ar.result()));
+    await().until(() -> read.get() != null);
+    assertThat(read.get()).hasSize(1);
+    assertThat(read.get().get(0).getMetadata().getString("state")).isEqualTo("busy");
+
+    // Deltas, not written to the backend nor announced
+    discovery.updateHotMetadata(record.getRegistration(), new JsonObject().put("load", 0.7).putNull("state"),
+        ar -> { });
+    await().until(() -> other.getHotMetadata(record.getRegistration()).getDouble("load") == 0.7);
+    assertThat(other.getHotMetadata(record.getRegistration()).containsKey("state")).isFalse();
+    assertThat(record.getMetadata().containsKey("load")).isFalse();
+    assertThat(announces).hasSize(1);
+
+    // Dropped on un-publication
+    discovery.unpublish(record.getRegistration(), ar -> { });
+    await().until(() -> other.getHotMetadata(record.getRegistration()) == null
+        && discovery.getHotMetadata(record.getRegistration()) == null);
+    other.close();
+    reader.close();
+  }
+
+  @Test
+  public void testHotMetadataDroppedOnDeparture() {
+    Record record = HttpEndpoint.createRecord("hot", "localhost", 8080, "/");
+    discovery.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+    DiscoveryImpl other = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    discovery.updateHotMetadata(record.getRegistration(), new JsonObject().put("load", 0.5), ar -> { });
+    await().until(() -> other.getHotMetadata(record.getRegistration()) != null);
+
+    // Removed from the backend without un-publication (such as an expired backend lease), and announced without
+    // registration
+    DefaultServiceDiscoveryBackend backend = new DefaultServiceDiscoveryBackend();
+    backend.init(vertx, new JsonObject());
+    AtomicBoolean removed = new AtomicBoolean();
+    backend.remove(record.getRegistration(), ar -> removed.set(ar.succeeded()));
+    await().untilAtomic(removed, is(true));
+    vertx.eventBus().publish(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS,
+        new Record(record).setRegistration(null).setStatus(Status.DOWN).toJson());
+    await().until(() -> other.getHotMetadata(record.getRegistration()) == null
+        && discovery.getHotMetadata(record.getRegistration()) == null);
+    other.close();
+  }
+
+  @Test
+  public void testUpdateCoalescing() {
+    List<Record> announces = new ArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS, msg -> {
+      Record announced = new Record(msg.body());
+      if ("flapping".equals(announced.getName())) {
+        announces.add(announced);
+      }
+    });
+    DiscoveryImpl debounced = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions().setUpdateDebounceWindow(500));
+    Record record = HttpEndpoint.createRecord("flapping", "localhost", 8080, "/");
+    debounced.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null && announces.size() == 1);
+
+    // Only the latest state is written and announced, but all the handlers are called
+    AtomicInteger completed = new AtomicInteger();
+    debounced.update(new Record(record).setStatus(Status.OUT_OF_SERVICE), ar -> completed.incrementAndGet());
+    debounced.update(new Record(record).setStatus(Status.UP), ar -> completed.incrementAndGet());
+    debounced.update(new Record(record).setStatus(Status.OUT_OF_SERVICE), ar -> completed.incrementAndGet());
+    assertThat(debounced.getPendingUpdateCount()).isEqualTo(1);
+    await().until(() -> completed.get() == 3 && announces.size() == 2);
+    assertThat(announces.get(1).getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    assertThat(debounced.getPendingUpdateCount()).isEqualTo(0);
+    AtomicReference<Record> found = new AtomicReference<>();
+    debounced.getRecord(r -> r.getRegistration().equals(record.getRegistration()), true,
+        ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+    // Flushed on demand
+    AtomicBoolean flushed = new AtomicBoolean();
+    debounced.update(new Record(record).setStatus(Status.UP), ar -> completed.incrementAndGet());
+    debounced.flushUpdates(ar -> flushed.set(ar.succeeded()));
+    await().until(() -> flushed.get() && completed.get() == 4);
+    await().until(() -> announces.size() == 3);
+    assertThat(announces.get(2).getStatus()).isEqualTo(Status.UP);
+
+    // A pending update is dropped on un-publication, and its handler is failed
+    AtomicBoolean superseded = new AtomicBoolean();
+    debounced.update(new Record(record).setStatus(Status.OUT_OF_SERVICE), ar -> superseded.set(ar.failed()));
+    debounced.unpublish(record.getRegistration(), ar -> { });
+    await().until(() -> superseded.get() && announces.size() == 4);
+    assertThat(announces.get(3).getStatus()).isEqualTo(Status.DOWN);
+    assertThat(debounced.getPendingUpdateCount()).isEqualTo(0);
+    debounced.close();
+  }
+
+  @Test
+  public void testPendingUpdatesWrittenOnClose() {
+    DiscoveryImpl debounced = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions().setUpdateDebounceWindow(60000));
+    TestServiceExporter exporter = new TestServiceExporter();
+    debounced.registerServiceExporter(exporter, new JsonObject());
+    Record record = HttpEndpoint.createRecord("closing", "localhost", 8080, "/");
+    debounced.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+
+    AtomicBoolean written = new AtomicBoolean();
+    debounced.update(new Record(record).setStatus(Status.OUT_OF_SERVICE), ar -> written.set(ar.succeeded()));
+    debounced.close();
+    await().untilAtomic(written, is(true));
+    await().until(() -> exporter.closed);
+    // The exporter received the update before being closed
+    assertThat(exporter.updatedAfterClose).isFalse();
+    assertThat(exporter.state.get(record.getRegistration()).getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+  }
+
+  @Test
+  public void testDeltaAnnouncements() {
+    ServiceDiscoveryOptions options = new ServiceDiscoveryOptions().setDeltaAnnouncements(true);
+    DiscoveryImpl publisher = new DiscoveryImpl(vertx, options);
+    DiscoveryImpl consumer = new DiscoveryImpl(vertx, options);
+    Record record = HttpEndpoint.createRecord("delta", "localhost", 8080, "/",
+        new JsonObject().put("load", 0.2).put("version", "1.0"));
+    publisher.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+
+    List<JsonObject> deltas = new CopyOnWriteArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS + ".deltas",
+        msg -> deltas.add(msg.body()));
+    List<Record> announced = new CopyOnWriteArrayList<>();
+    vertx.eventBus().<JsonObject>consumer(ServiceDiscoveryOptions.DEFAULT_ANNOUNCE_ADDRESS, msg -> {
+      if (record.getRegistration().equals(msg.body().getString("registration"))) {
+        announced.add(new Record(msg.body()));
+      }
+    });
+
+    // Only the changed field is announced in the delta, the whole record is still announced on the announce address
+    publisher.update(new Record(record).setMetadata(record.getMetadata().copy().put("load", 0.5)), ar -> { });
+    await().until(() -> deltas.size() == 1 && announced.size() == 1);
+    JsonObject delta = deltas.get(0);
+    assertThat(delta.getString("registration")).isEqualTo(record.getRegistration());
+    assertThat(delta.getLong("revision")).isEqualTo(1);
+    assertThat(delta.getJsonObject("changes"))
+        .isEqualTo(new JsonObject().put("metadata", new JsonObject().put("load", 0.5)));
+    assertThat(announced.get(0).getName()).isEqualTo("delta");
+    assertThat(announced.get(0).getMetadata().getDouble("load")).isEqualTo(0.5);
+    assertThat(announced.get(0).getMetadata().getString("version")).isEqualTo("1.0");
+    // The consumer did not know the previous revision, and reads the record
+    await().until(() -> consumer.getReplica(record.getRegistration()) != null
+        && consumer.getReplica(record.getRegistration()).getJsonObject("metadata").getDouble("load") == 0.5);
+
+    // Applied to the replica
+    publisher.update(new Record(record).setStatus(Status.OUT_OF_SERVICE)
+        .setMetadata(record.getMetadata().copy().put("load", 0.5)), ar -> { });
+    await().until(() -> deltas.size() == 2 && announced.size() == 2);
+    assertThat(deltas.get(1).getLong("revision")).isEqualTo(2);
+    assertThat(deltas.get(1).getJsonObject("changes").fieldNames()).containsOnly("status");
+    assertThat(announced.get(1).getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    assertThat(announced.get(1).getLocation()).isEqualTo(record.getLocation());
+    await().until(() -> "OUT_OF_SERVICE".equals(consumer.getReplica(record.getRegistration()).getString("status")));
+    assertThat(RecordDeltas.digest(consumer.getReplica(record.getRegistration())))
+        .isEqualTo(RecordDeltas.digest(publisher.getReplica(record.getRegistration())));
+
+    // Dropped on un-publication
+    publisher.unpublish(record.getRegistration(), ar -> { });
+    await().until(() -> publisher.getReplicaCount() == 0 && consumer.getReplicaCount() == 0);
+    publisher.close();
+    consumer.close();
+  }
+
+  @Test
+  public void testConcurrentDeltaAnnouncements() {
+    ServiceDiscoveryOptions options = new ServiceDiscoveryOptions().setDeltaAnnouncements(true);
+    DiscoveryImpl first = new DiscoveryImpl(vertx, options);
+    DiscoveryImpl second = new DiscoveryImpl(vertx, options);
+    DiscoveryImpl consumer = new DiscoveryImpl(vertx, options);
+    Record record = HttpEndpoint.createRecord("concurrent", "localhost", 8080, "/",
+        new JsonObject().put("load", 0.2).put("version", "1.0"));
+    first.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+    String registration = record.getRegistration();
+
+    // Every instance knows the record
+    first.update(new Record(record).setMetadata(record.getMetadata().copy().put("load", 0.3)), ar -> { });
+    await().until(() -> second.getReplica(registration) != null && consumer.getReplica(registration) != null);
+
+    // Both instances update the same revision of the record, their deltas have the same revision
+    first.update(new Record(record).setMetadata(record.getMetadata().copy().put("load", 0.5)), ar -> { });
+    second.update(new Record(record).setStatus(Status.OUT_OF_SERVICE)
+        .setMetadata(record.getMetadata().copy().put("load", 0.3).put("version", "2.0")), ar -> { });
+
+    // All the replicas converge to the record of the backend
+    AtomicReference<Record> stored = new AtomicReference<>();
+    await().until(() -> {
+      first.getRecord(r -> r.getRegistration().equals(registration), true, ar -> stored.set(ar.result()));
+      if (stored.get() == null) {
+        return false;
+      }
+      long digest = RecordDeltas.digest(stored.get().toJson());
+      return digest == RecordDeltas.digest(first.getReplica(registration))
+          && digest == RecordDeltas.digest(second.getReplica(registration))
+          && digest == RecordDeltas.digest(consumer.getReplica(registration));
+    });
+    first.close();
+    second.close();
+    consumer.close();
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.spi.ServiceDiscoveryBackend;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap footprint of the {@link DefaultServiceDiscoveryBackend} (non-clustered) and of the
+ * {@link OffHeapServiceDiscoveryBackend}. This is not a unit test, run it with:
+ * <pre>
+ *   java -cp ... io.vertx.servicediscovery.impl.OffHeapBackendFootprintBenchmark [number of records]
+ * </pre>
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class OffHeapBackendFootprintBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    System.out.println("Heap footprint for " + count + " records");
+    run("default", new DefaultServiceDiscoveryBackend(), count);
+    run("off-heap", new OffHeapServiceDiscoveryBackend(), count);
+  }
+
+  private static void run(String name, ServiceDiscoveryBackend backend, int count) throws Exception {
+    Vertx vertx = Vertx.vertx();
+    backend.init(vertx, new JsonObject());
+    long before = usedHeap();
+
+    CountDownLatch latch = new CountDownLatch(count);
+    long begin = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      Record record = HttpEndpoint.createRecord("service-" + i, "host-" + i + ".example.com", 8080, "/api",
+          new JsonObject().put("zone", "zone-" + (i % 3)).put("version", "1.0." + i));
+      backend.store(record, ar -> latch.countDown());
+    }
+    latch.await(5, TimeUnit.MINUTES);
+    long storeTime = System.nanoTime() - begin;
+    long after = usedHeap();
+
+    CountDownLatch read = new CountDownLatch(1);
+    begin = System.nanoTime();
+    backend.getRecords(ar -> {
+      ar.result().stream().filter(r -> "zone-1".equals(r.getMetadata().getString("zone"))).count();
+      read.countDown();
+    });
+    read.await(5, TimeUnit.MINUTES);
+    long readTime = System.nanoTime() - begin;
+
+    System.out.println(String.format("%-10s heap: %,d bytes (%,d bytes per record) - store: %d ms - " +
+            "get and filter all: %d ms", name, after - before, (after - before) / count,
+        TimeUnit.NANOSECONDS.toMillis(storeTime), TimeUnit.NANOSECONDS.toMillis(readTime)));
+
+    CountDownLatch closed = new CountDownLatch(1);
+    vertx.close(v -> closed.countDown());
+    closed.await();
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
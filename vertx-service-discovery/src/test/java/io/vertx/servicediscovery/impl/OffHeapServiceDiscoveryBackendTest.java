@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class OffHeapServiceDiscoveryBackendTest {
+
+  protected OffHeapServiceDiscoveryBackend backend;
+  protected Vertx vertx;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    backend = new OffHeapServiceDiscoveryBackend();
+    backend.init(vertx, new JsonObject().put("slab-size", 4096));
+  }
+
+  @After
+  public void tearDown() {
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close(ar -> completed.set(ar.succeeded()));
+    await().untilAtomic(completed, is(true));
+  }
+
+  @Test
+  public void testInsertionRetrievalAndRemoval() {
+    Record record = new Record().setName("my-service").setStatus(Status.UP);
+
+    AtomicReference<Record> reference = new AtomicReference<>();
+    backend.store(record, ar -> reference.set(ar.result()));
+    assertThat(reference.get().getRegistration()).isNotNull();
+
+    reference.set(null);
+    backend.getRecord(record.getRegistration(), ar -> reference.set(ar.result()));
+    assertThat(reference.get().getName()).isEqualTo("my-service");
+
+    AtomicBoolean updated = new AtomicBoolean();
+    backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> updated.set(ar.succeeded()));
+    assertThat(updated.get()).isTrue();
+    backend.getRecord(record.getRegistration(), ar -> reference.set(ar.result()));
+    assertThat(reference.get().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+    reference.set(null);
+    backend.remove(record, ar -> reference.set(ar.result()));
+    assertThat(reference.get().getName()).isEqualTo("my-service");
+
+    AtomicBoolean completed = new AtomicBoolean();
+    reference.set(new Record());
+    backend.getRecord(record.getRegistration(), ar -> {
+      completed.set(ar.succeeded());
+      reference.set(ar.result());
+    });
+    assertThat(completed.get()).isTrue();
+    assertThat(reference.get()).isNull();
+
+    AtomicBoolean failed = new AtomicBoolean();
+    backend.remove(record, ar -> failed.set(ar.failed()));
+    assertThat(failed.get()).isTrue();
+    backend.remove("not-a-uuid", ar -> failed.set(ar.failed()));
+    assertThat(failed.get()).isTrue();
+  }
+
+  @Test
+  public void testManyRecordsAndSlotReuse() {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Record record = new Record().setName("my-service-" + i).setStatus(Status.UP)
+          .setMetadata(new JsonObject().put("index", i));
+      backend.store(record, ar -> records.add(ar.result()));
+    }
+    assertThat(records).hasSize(1000);
+    JsonObject metrics = backend.metrics();
+    assertThat(metrics.getInteger("records")).isEqualTo(1000);
+    long reserved = metrics.getLong("reserved-bytes");
+
+    // Remove half of the records, and insert new ones, the slots must be reused
+    for (int i = 0; i < 500; i++) {
+      backend.remove(records.get(i), ar -> assertThat(ar.succeeded()).isTrue());
+    }
+    assertThat(backend.metrics().getInteger("free-slots")).isEqualTo(500);
+    for (int i = 0; i < 500; i++) {
+      backend.store(new Record().setName("my-service-" + (i + 1000)).setStatus(Status.UP)
+          .setMetadata(new JsonObject().put("index", i + 1000)), ar -> assertThat(ar.succeeded()).isTrue());
+    }
+    metrics = backend.metrics();
+    assertThat(metrics.getInteger("records")).isEqualTo(1000);
+    assertThat(metrics.getInteger("free-slots")).isEqualTo(0);
+    assertThat(metrics.getLong("reserved-bytes")).isEqualTo(reserved);
+
+    AtomicReference<List<Record>> all = new AtomicReference<>();
+    backend.getRecords(ar -> all.set(ar.result()));
+    assertThat(all.get()).hasSize(1000);
+    assertThat(all.get().stream().mapToInt(r -> r.getMetadata().getInteger("index")).min().getAsInt()).isEqualTo(500);
+    assertThat(all.get().stream().filter(r -> r.getName().equals("my-service-1499")).count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testGrowingAndLargeRecords() {
+    Record record = new Record().setName("my-service").setStatus(Status.UP);
+    backend.store(record, ar -> assertThat(ar.succeeded()).isTrue());
+
+    // Bigger than a slab
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      builder.append('x');
+    }
+    record.getMetadata().put("large", builder.toString());
+    backend.update(record, ar -> assertThat(ar.succeeded()).isTrue());
+
+    AtomicReference<Record> reference = new AtomicReference<>();
+    backend.getRecord(record.getRegistration(), ar -> reference.set(ar.result()));
+    assertThat(reference.get().getMetadata().getString("large")).hasSize(10000);
+
+    // Shrink again
+    record.getMetadata().remove("large");
+    backend.update(record, ar -> assertThat(ar.succeeded()).isTrue());
+    backend.getRecord(record.getRegistration(), ar -> reference.set(ar.result()));
+    assertThat(reference.get().getMetadata().containsKey("large")).isFalse();
+
+    AtomicBoolean failed = new AtomicBoolean();
+    backend.update(new Record().setRegistration("not-a-uuid"), ar -> failed.set(ar.failed()));
+    assertThat(failed.get()).isTrue();
+  }
+
+  @Test
+  public void testFilteredRetrieval() {
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      backend.store(new Record().setName("my-service-" + (i % 10)).setStatus(Status.UP),
+          ar -> records.add(ar.result()));
+    }
+
+    AtomicReference<List<Record>> found = new AtomicReference<>();
+    backend.getRecords(record -> record.getName().equals("my-service-3"), ar -> found.set(ar.result()));
+    assertThat(found.get()).hasSize(10).extracting(Record::getName).containsOnly("my-service-3");
+
+    // The retrieved records are decoded, reusing the slots does not change them
+    for (Record record : records) {
+      backend.remove(record, ar -> assertThat(ar.succeeded()).isTrue());
+    }
+    for (int i = 0; i < 100; i++) {
+      backend.store(new Record().setName("other-" + i).setStatus(Status.UP), ar -> assertThat(ar.succeeded()).isTrue());
+    }
+    assertThat(found.get()).extracting(Record::getName).containsOnly("my-service-3");
+
+    AtomicReference<List<Record>> all = new AtomicReference<>();
+    backend.getRecords(ar -> all.set(ar.result()));
+    assertThat(all.get()).hasSize(100);
+  }
+
+  @Test
+  public void testIndexWithRemovals() {
+    OffHeapRecordStore store = new OffHeapRecordStore(1024);
+    List<UUID> ids = new ArrayList<>();
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 100; i++) {
+        UUID id = UUID.randomUUID();
+        ids.add(id);
+        store.put(id, ("record-" + id).getBytes());
+      }
+      for (int i = 0; i < 50; i++) {
+        assertThat(store.remove(ids.remove(0))).isNotNull();
+      }
+    }
+    assertThat(store.size()).isEqualTo(ids.size());
+    for (UUID id : ids) {
+      assertThat(new String(store.get(id))).isEqualTo("record-" + id);
+    }
+  }
+}
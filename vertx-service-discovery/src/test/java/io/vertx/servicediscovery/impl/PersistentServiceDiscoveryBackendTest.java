@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.Status;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class PersistentServiceDiscoveryBackendTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Vertx vertx;
+  private JsonObject config;
+
+  @Before
+  public void setUp() throws Exception {
+    vertx = Vertx.vertx();
+    config = new JsonObject().put("directory", folder.newFolder().getAbsolutePath());
+  }
+
+  @After
+  public void tearDown() {
+    close(vertx);
+  }
+
+  private void close(Vertx vertx) {
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close(ar -> completed.set(ar.succeeded()));
+    await().untilAtomic(completed, is(true));
+  }
+
+  private PersistentServiceDiscoveryBackend restart(PersistentServiceDiscoveryBackend backend) {
+    backend.close();
+    close(vertx);
+    vertx = Vertx.vertx();
+    PersistentServiceDiscoveryBackend restarted = new PersistentServiceDiscoveryBackend();
+    restarted.init(vertx, config);
+    return restarted;
+  }
+
+  private List<Record> records(PersistentServiceDiscoveryBackend backend) {
+    AtomicReference<List<Record>> records = new AtomicReference<>();
+    backend.getRecords(ar -> records.set(ar.result()));
+    await().until(() -> records.get() != null);
+    return records.get();
+  }
+
+  private Record store(PersistentServiceDiscoveryBackend backend, Record record) {
+    AtomicReference<Record> reference = new AtomicReference<>();
+    backend.store(record, ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    return reference.get();
+  }
+
+  @Test
+  public void testRestoreFromLog() {
+    PersistentServiceDiscoveryBackend backend = new PersistentServiceDiscoveryBackend();
+    backend.init(vertx, config);
+
+    Record record1 = store(backend, new Record().setName("my-service-1").setStatus(Status.UP));
+    Record record2 = store(backend, new Record().setName("my-service-2").setStatus(Status.UP));
+    store(backend, new Record().setName("my-service-3").setStatus(Status.UP));
+
+    AtomicBoolean done = new AtomicBoolean();
+    backend.update(record1.setStatus(Status.OUT_OF_SERVICE), ar -> done.set(ar.succeeded()));
+    await().untilAtomic(done, is(true));
+    done.set(false);
+    backend.remove(record2, ar -> done.set(ar.succeeded()));
+    await().untilAtomic(done, is(true));
+
+    backend = restart(backend);
+
+    List<Record> records = records(backend);
+    assertThat(records).hasSize(2);
+    AtomicReference<Record> retrieved = new AtomicReference<>();
+    backend.getRecord(record1.getRegistration(), ar -> retrieved.set(ar.result()));
+    await().until(() -> retrieved.get() != null);
+    assertThat(retrieved.get().getName()).isEqualTo("my-service-1");
+    assertThat(retrieved.get().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+    backend.close();
+  }
+
+  @Test
+  public void testRestoreFromSnapshotAndLog() {
+    PersistentServiceDiscoveryBackend backend = new PersistentServiceDiscoveryBackend();
+    backend.init(vertx, config);
+
+    for (int i = 0; i < 100; i++) {
+      store(backend, new Record().setName("my-service-" + i).setStatus(Status.UP));
+    }
+
+    AtomicBoolean compacted = new AtomicBoolean();
+    backend.compact(ar -> compacted.set(ar.succeeded()));
+    await().untilAtomic(compacted, is(true));
+    File directory = new File(config.getString("directory"));
+    assertThat(new File(directory, RegistryLog.SNAPSHOT)).exists();
+    assertThat(new File(directory, RegistryLog.LOG).length()).isEqualTo(0);
+
+    store(backend, new Record().setName("my-service-100").setStatus(Status.UP));
+
+    backend = restart(backend);
+    assertThat(records(backend)).hasSize(101);
+    backend.close();
+  }
+
+  @Test
+  public void testConcurrentCompactions() {
+    // Both backends share the same log
+    PersistentServiceDiscoveryBackend backend = new PersistentServiceDiscoveryBackend();
+    backend.init(vertx, config);
+    PersistentServiceDiscoveryBackend other = new PersistentServiceDiscoveryBackend();
+    other.init(vertx, config);
+
+    AtomicInteger compacted = new AtomicInteger();
+    for (int i = 0; i < 50; i++) {
+      store(i % 2 == 0 ? backend : other, new Record().setName("my-service-" + i).setStatus(Status.UP));
+      backend.compact(ar -> compacted.incrementAndGet());
+      other.compact(ar -> compacted.incrementAndGet());
+    }
+    await().until(() -> compacted.get() == 100);
+    File directory = new File(config.getString("directory"));
+    assertThat(new File(directory, RegistryLog.ROTATED_LOG)).doesNotExist();
+
+    other.close();
+    backend = restart(backend);
+    assertThat(records(backend)).hasSize(50);
+    backend.close();
+  }
+
+  @Test
+  public void testTruncatedLog() throws Exception {
+    PersistentServiceDiscoveryBackend backend = new PersistentServiceDiscoveryBackend();
+    backend.init(vertx, config);
+    store(backend, new Record().setName("my-service-1").setStatus(Status.UP));
+    store(backend, new Record().setName("my-service-2").setStatus(Status.UP));
+
+    // Simulate a crash while the last entry was written: close without compaction and cut the log.
+    close(vertx);
+    File log = new File(config.getString("directory"), RegistryLog.LOG);
+    try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+      file.setLength(file.length() - 5);
+    }
+
+    vertx = Vertx.vertx();
+    backend = new PersistentServiceDiscoveryBackend();
+    backend.init(vertx, config);
+    List<Record> records = records(backend);
+    assertThat(records).hasSize(1);
+    assertThat(records.get(0).getName()).isEqualTo("my-service-1");
+
+    // The log is still usable
+    store(backend, new Record().setName("my-service-3").setStatus(Status.UP));
+    backend = restart(backend);
+    assertThat(records(backend)).hasSize(2);
+    backend.close();
+  }
+
+  @Test
+  public void testWithServiceDiscovery() {
+    ServiceDiscoveryOptions options = new ServiceDiscoveryOptions().setBackendConfiguration(config.copy()
+        .put("backend-name", PersistentServiceDiscoveryBackend.class.getName()));
+    ServiceDiscovery discovery = ServiceDiscovery.create(vertx, options);
+    AtomicBoolean published = new AtomicBoolean();
+    discovery.publish(HttpEndpoint.createRecord("my-endpoint", "localhost"), ar -> published.set(ar.succeeded()));
+    await().untilAtomic(published, is(true));
+    discovery.close();
+    close(vertx);
+
+    vertx = Vertx.vertx();
+    discovery = ServiceDiscovery.create(vertx, options);
+    AtomicReference<Record> found = new AtomicReference<>();
+    discovery.getRecord(new JsonObject().put("name", "my-endpoint"), ar -> found.set(ar.result()));
+    await().until(() -> found.get() != null);
+    assertThat(found.get().getType()).isEqualTo(HttpEndpoint.TYPE);
+    discovery.close();
+  }
+
+  @Test
+  public void testRestoreLargeRegistry() {
+    PersistentServiceDiscoveryBackend backend = new PersistentServiceDiscoveryBackend();
+    backend.init(vertx, config);
+
+    AtomicInteger stored = new AtomicInteger();
+    List<Record> records = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      records.add(HttpEndpoint.createRecord("my-service-" + i, "host-" + i, 8080, "/api",
+          new JsonObject().put("zone", "zone-" + (i % 3))));
+    }
+    for (Record record : records) {
+      backend.store(record, ar -> stored.incrementAndGet());
+    }
+    await().until(() -> stored.get() == 100000);
+
+    backend.close();
+    close(vertx);
+
+    vertx = Vertx.vertx();
+    backend = new PersistentServiceDiscoveryBackend();
+    long begin = System.currentTimeMillis();
+    backend.init(vertx, config);
+    long duration = System.currentTimeMillis() - begin;
+    System.out.println("Restored 100000 records in " + duration + " ms");
+    assertThat(vertx.sharedData().getLocalMap("service.registry").size()).isEqualTo(100000);
+    backend.close();
+  }
+
+}
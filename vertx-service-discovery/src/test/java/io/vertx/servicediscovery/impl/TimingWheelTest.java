@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.impl;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the behavior of the {@link TimingWheel}.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class TimingWheelTest {
+
+  private static List<String> keys(List<TimingWheel.Entry> entries) {
+    return entries.stream().map(TimingWheel.Entry::key).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testExpiration() {
+    TimingWheel wheel = new TimingWheel(10, 8, 0);
+    wheel.schedule("a", 25);
+    wheel.schedule("b", 40);
+    // Several rounds
+    wheel.schedule("c", 500);
+    assertThat(wheel.size()).isEqualTo(3);
+
+    assertThat(wheel.advance(20)).isEmpty();
+    assertThat(keys(wheel.advance(30))).containsExactly("a");
+    assertThat(wheel.advance(39)).isEmpty();
+    assertThat(keys(wheel.advance(45))).containsExactly("b");
+    assertThat(wheel.advance(499)).isEmpty();
+    assertThat(keys(wheel.advance(1000))).containsExactly("c");
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRenewal() {
+    TimingWheel wheel = new TimingWheel(10, 8, 0);
+    TimingWheel.Entry entry = wheel.schedule("a", 50);
+    for (long now = 10; now <= 300; now += 10) {
+      entry.renew(now + 50);
+      assertThat(wheel.advance(now)).isEmpty();
+    }
+    // Not renewed anymore
+    assertThat(wheel.advance(349)).isEmpty();
+    assertThat(keys(wheel.advance(350))).containsExactly("a");
+  }
+
+  @Test
+  public void testCancellation() {
+    TimingWheel wheel = new TimingWheel(10, 8, 0);
+    TimingWheel.Entry entry = wheel.schedule("a", 50);
+    wheel.schedule("b", 50);
+    entry.cancel();
+    assertThat(keys(wheel.advance(100))).containsExactly("b");
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void testManyEntries() {
+    TimingWheel wheel = new TimingWheel(100, 512, 0);
+    for (int i = 0; i < 100_000; i++) {
+      wheel.schedule(Integer.toString(i), 1000 + i % 10_000);
+    }
+    int expired = 0;
+    for (long now = 0; now <= 12_000; now += 100) {
+      for (TimingWheel.Entry entry : wheel.advance(now)) {
+        assertThat(entry.deadline()).isLessThanOrEqualTo(now);
+        assertThat(entry.deadline()).isGreaterThan(now - 100);
+        expired++;
+      }
+    }
+    assertThat(expired).isEqualTo(100_000);
+  }
+}
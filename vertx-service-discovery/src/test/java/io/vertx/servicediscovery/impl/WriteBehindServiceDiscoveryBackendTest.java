@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class WriteBehindServiceDiscoveryBackendTest {
+
+  private Vertx vertx;
+  private CountingBackend delegate;
+  private WriteBehindServiceDiscoveryBackend backend;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    delegate = new CountingBackend();
+  }
+
+  @After
+  public void tearDown() {
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close(ar -> completed.set(ar.succeeded()));
+    await().untilAtomic(completed, is(true));
+  }
+
+  private void init(JsonObject conf) {
+    backend = new WriteBehindServiceDiscoveryBackend(delegate);
+    backend.init(vertx, new JsonObject().put("write-behind", conf));
+  }
+
+  private Record store(String name) {
+    AtomicReference<Record> reference = new AtomicReference<>();
+    backend.store(new Record().setName(name).setStatus(Status.UP), ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    return reference.get();
+  }
+
+  private Record read(String registration) {
+    AtomicReference<Record> reference = new AtomicReference<>();
+    AtomicBoolean done = new AtomicBoolean();
+    delegate.getRecord(registration, ar -> {
+      reference.set(ar.result());
+      done.set(true);
+    });
+    await().untilAtomic(done, is(true));
+    return reference.get();
+  }
+
+  @Test
+  public void testUpdatesAreCoalesced() {
+    init(new JsonObject().put("flush-interval", 1000000));
+    Record record = store("my-service");
+
+    AtomicInteger acknowledged = new AtomicInteger();
+    for (int i = 0; i < 10; i++) {
+      backend.update(record.setMetadata(new JsonObject().put("version", i)), ar -> {
+        if (ar.succeeded()) {
+          acknowledged.incrementAndGet();
+        }
+      });
+    }
+    // Acknowledged immediately, but not written yet
+    assertThat(acknowledged.get()).isEqualTo(10);
+    assertThat(delegate.updates.get()).isEqualTo(0);
+    assertThat(read(record.getRegistration()).getMetadata().getInteger("version")).isNull();
+
+    // Staged updates are visible
+    AtomicReference<Record> reference = new AtomicReference<>();
+    backend.getRecord(record.getRegistration(), ar -> reference.set(ar.result()));
+    await().until(() -> reference.get() != null);
+    assertThat(reference.get().getMetadata().getInteger("version")).isEqualTo(9);
+    AtomicReference<List<Record>> all = new AtomicReference<>();
+    backend.getRecords(ar -> all.set(ar.result()));
+    await().until(() -> all.get() != null);
+    assertThat(all.get()).hasSize(1);
+    assertThat(all.get().get(0).getMetadata().getInteger("version")).isEqualTo(9);
+
+    AtomicBoolean flushed = new AtomicBoolean();
+    backend.flush(ar -> flushed.set(ar.succeeded()));
+    await().untilAtomic(flushed, is(true));
+    assertThat(delegate.updates.get()).isEqualTo(1);
+    assertThat(read(record.getRegistration()).getMetadata().getInteger("version")).isEqualTo(9);
+
+    JsonObject metrics = backend.metrics();
+    assertThat(metrics.getInteger("staged")).isEqualTo(0);
+    assertThat(metrics.getLong("updates")).isEqualTo(10);
+    assertThat(metrics.getLong("writes")).isEqualTo(1);
+  }
+
+  @Test
+  public void testPeriodicAndBatchFlushes() {
+    init(new JsonObject().put("flush-interval", 10).put("max-batch-size", 5));
+    for (int i = 0; i < 20; i++) {
+      Record record = store("my-service-" + i);
+      backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> assertThat(ar.succeeded()).isTrue());
+    }
+    await().until(() -> delegate.updates.get() == 20);
+    assertThat(backend.metrics().getLong("batches")).isGreaterThanOrEqualTo(4);
+  }
+
+  @Test
+  public void testRemoveFlushesStagedUpdates() {
+    init(new JsonObject().put("flush-interval", 1000000));
+    Record record1 = store("my-service-1");
+    Record record2 = store("my-service-2");
+    backend.update(record1.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    backend.update(record2.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+
+    AtomicReference<Record> removed = new AtomicReference<>();
+    backend.remove(record1, ar -> removed.set(ar.result()));
+    await().until(() -> removed.get() != null);
+    // The removal is acknowledged once the previous writes are applied
+    assertThat(removed.get().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    assertThat(read(record2.getRegistration()).getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    assertThat(read(record1.getRegistration())).isNull();
+  }
+
+  @Test
+  public void testRemoveWithoutFlush() {
+    init(new JsonObject().put("flush-interval", 1000000).put("flush-on-remove", false));
+    Record record1 = store("my-service-1");
+    Record record2 = store("my-service-2");
+    backend.update(record1.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    backend.update(record2.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+
+    AtomicReference<Record> removed = new AtomicReference<>();
+    backend.remove(record1, ar -> removed.set(ar.result()));
+    await().until(() -> removed.get() != null);
+    assertThat(removed.get().getStatus()).isEqualTo(Status.UP);
+    assertThat(read(record2.getRegistration()).getStatus()).isEqualTo(Status.UP);
+
+    // The staged update of the removed record has been discarded
+    AtomicBoolean flushed = new AtomicBoolean();
+    backend.flush(ar -> flushed.set(ar.succeeded()));
+    await().untilAtomic(flushed, is(true));
+    assertThat(delegate.updates.get()).isEqualTo(1);
+    assertThat(read(record1.getRegistration())).isNull();
+  }
+
+  @Test
+  public void testFailedWritesAreRetried() {
+    init(new JsonObject().put("flush-interval", 10));
+    Record record = store("my-service");
+    delegate.failures.set(3);
+    backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    await().until(() -> delegate.updates.get() == 1);
+    assertThat(read(record.getRegistration()).getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    assertThat(backend.metrics().getLong("failures")).isEqualTo(3);
+  }
+
+  @Test
+  public void testFailedWritesAreDroppedAfterMaxRetries() {
+    init(new JsonObject().put("flush-interval", 10).put("max-retries", 2));
+    Record record = store("my-service");
+    delegate.failing.add(record.getRegistration());
+    backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    await().until(() -> backend.metrics().getLong("dropped") == 1);
+    assertThat(backend.metrics().getLong("failures")).isEqualTo(3);
+    assertThat(backend.metrics().getInteger("staged")).isEqualTo(0);
+
+    // Not retried anymore
+    AtomicBoolean flushed = new AtomicBoolean();
+    vertx.setTimer(100, l -> backend.flush(ar -> flushed.set(ar.succeeded())));
+    await().untilAtomic(flushed, is(true));
+    assertThat(backend.metrics().getLong("failures")).isEqualTo(3);
+    assertThat(read(record.getRegistration()).getStatus()).isEqualTo(Status.UP);
+  }
+
+  @Test
+  public void testRemoveIgnoresTheFailuresOfOtherRecords() {
+    init(new JsonObject().put("flush-interval", 1000000));
+    Record record1 = store("my-service-1");
+    Record record2 = store("my-service-2");
+    delegate.failing.add(record2.getRegistration());
+    backend.update(record1.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    backend.update(record2.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+
+    // The write of the other record fails, the removal succeeds
+    AtomicBoolean removed = new AtomicBoolean();
+    backend.remove(record1.getRegistration(), ar -> removed.set(ar.succeeded()));
+    await().untilAtomic(removed, is(true));
+    assertThat(read(record1.getRegistration())).isNull();
+    assertThat(backend.metrics().getLong("failures")).isEqualTo(1);
+
+    // The removal of the record whose write fails, fails
+    AtomicBoolean failed = new AtomicBoolean();
+    backend.remove(record2.getRegistration(), ar -> failed.set(ar.failed()));
+    await().untilAtomic(failed, is(true));
+  }
+
+  @Test
+  public void testStagedUpdatesAreFlushedOnClose() {
+    init(new JsonObject().put("flush-interval", 1000000));
+    Record record = store("my-service");
+    backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    backend.close();
+    await().until(() -> delegate.updates.get() == 1);
+  }
+
+  @Test
+  public void testRemoveWaitsForInFlightWrite() {
+    init(new JsonObject().put("flush-interval", 1000000).put("flush-on-remove", false));
+    Record record = store("my-service");
+    delegate.hold.set(true);
+    backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    backend.flush(null);
+    await().until(() -> delegate.held.size() == 1);
+
+    AtomicBoolean removed = new AtomicBoolean();
+    backend.remove(record.getRegistration(), ar -> removed.set(ar.succeeded()));
+    assertThat(removed.get()).isFalse();
+
+    // The removal is sent once the write has completed, so the record is not written back
+    delegate.release();
+    await().untilAtomic(removed, is(true));
+    assertThat(delegate.updates.get()).isEqualTo(1);
+    assertThat(read(record.getRegistration())).isNull();
+  }
+
+  @Test
+  public void testFailedWriteOfRemovedRecordIsNotRetried() {
+    init(new JsonObject().put("flush-interval", 10).put("flush-on-remove", false));
+    Record record = store("my-service");
+    delegate.hold.set(true);
+    backend.update(record.setStatus(Status.OUT_OF_SERVICE), ar -> { });
+    await().until(() -> delegate.held.size() == 1);
+
+    AtomicBoolean removed = new AtomicBoolean();
+    backend.remove(record.getRegistration(), ar -> removed.set(ar.succeeded()));
+    delegate.failures.set(1);
+    delegate.release();
+    await().untilAtomic(removed, is(true));
+
+    // Let a few periodic flushes happen, nothing is retried
+    AtomicBoolean flushed = new AtomicBoolean();
+    vertx.setTimer(100, l -> backend.flush(ar -> flushed.set(ar.succeeded())));
+    await().untilAtomic(flushed, is(true));
+    assertThat(backend.metrics().getInteger("staged")).isEqualTo(0);
+    assertThat(delegate.updates.get()).isEqualTo(0);
+    assertThat(read(record.getRegistration())).isNull();
+  }
+
+  private static class CountingBackend extends DefaultServiceDiscoveryBackend {
+    private final AtomicInteger updates = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    // The registrations whose updates always fail
+    private final Set<String> failing = ConcurrentHashMap.newKeySet();
+    // When set, the updates are held until released
+    private final AtomicBoolean hold = new AtomicBoolean();
+    private final List<Runnable> held = new CopyOnWriteArrayList<>();
+
+    private void release() {
+      hold.set(false);
+      held.forEach(Runnable::run);
+      held.clear();
+    }
+
+    @Override
+    public void update(Record record, Handler<AsyncResult<Void>> resultHandler) {
+      if (hold.get()) {
+        held.add(() -> update(record, resultHandler));
+        return;
+      }
+      if (failing.contains(record.getRegistration()) || failures.getAndUpdate(i -> i > 0 ? i - 1 : 0) > 0) {
+        resultHandler.handle(Future.failedFuture("Unavailable"));
+        return;
+      }
+      super.update(record, ar -> {
+        if (ar.succeeded()) {
+          updates.incrementAndGet();
+        }
+        resultHandler.handle(ar);
+      });
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.types;
+
+import io.vertx.core.Vertx;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.impl.DiscoveryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks the lifecycle of the {@link AbstractServiceReference} under concurrent accesses.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class AbstractServiceReferenceTest {
+
+  private static final int THREADS = 8;
+
+  private Vertx vertx;
+  private ServiceDiscovery discovery;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    discovery = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    executor = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    discovery.close();
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close((v) -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  @Test
+  public void testConcurrentRetrieval() throws Exception {
+    for (int round = 0; round < 500; round++) {
+      CountingReference reference = new CountingReference(vertx, discovery);
+      CyclicBarrier barrier = new CyclicBarrier(THREADS);
+      List<Future<Service>> results = new ArrayList<>();
+      for (int i = 0; i < THREADS; i++) {
+        results.add(executor.submit(() -> {
+          barrier.await();
+          return reference.<Service>get();
+        }));
+      }
+      Service first = results.get(0).get();
+      assertThat(first).isNotNull();
+      // The service object must be fully initialized when published
+      assertThat(first.initialized).isTrue();
+      for (Future<Service> result : results) {
+        assertThat(result.get()).isSameAs(first);
+      }
+      assertThat(reference.retrieved.get()).isEqualTo(1);
+      assertThat(reference.<Service>cached()).isSameAs(first);
+    }
+  }
+
+  @Test
+  public void testConcurrentRetrievalAndRelease() throws Exception {
+    CountingReference reference = new CountingReference(vertx, discovery);
+    CountDownLatch done = new CountDownLatch(THREADS);
+    AtomicBoolean failed = new AtomicBoolean();
+    for (int i = 0; i < THREADS; i++) {
+      boolean releaser = i % 4 == 0;
+      executor.submit(() -> {
+        try {
+          for (int j = 0; j < 10000; j++) {
+            if (releaser) {
+              reference.release();
+            } else {
+              Service service = reference.get();
+              if (service == null || !service.initialized) {
+                failed.set(true);
+              }
+            }
+          }
+        } finally {
+          done.countDown();
+        }
+      });
+    }
+    assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+    assertThat(failed.get()).isFalse();
+
+    // Each retrieved service object has been closed exactly once, except the current one
+    int current = reference.cached() == null ? 0 : 1;
+    assertThat(reference.closed.get() + current).isEqualTo(reference.retrieved.get());
+    reference.release();
+    assertThat(reference.<Service>cached()).isNull();
+    assertThat(reference.closed.get()).isEqualTo(reference.retrieved.get());
+  }
+
+  @Test
+  public void testAsynchronousRetrieval() {
+    CountingReference blocking = new CountingReference(vertx, discovery, true);
+    CountingReference nonBlocking = new CountingReference(vertx, discovery, false);
+    AtomicReference<Service> result = new AtomicReference<>();
+    AtomicReference<String> handlerThread = new AtomicReference<>();
+
+    vertx.runOnContext(v -> blocking.<Service>get(ar -> {
+      handlerThread.set(Thread.currentThread().getName());
+      result.set(ar.result());
+    }));
+    await().until(() -> result.get() != null);
+    // Retrieved in a worker thread, the handler is called on the event loop
+    assertThat(blocking.thread).contains("worker");
+    assertThat(handlerThread.get()).contains("eventloop");
+    assertThat(blocking.<Service>cached()).isSameAs(result.get());
+
+    // Already retrieved
+    AtomicReference<Service> cached = new AtomicReference<>();
+    blocking.<Service>get(ar -> cached.set(ar.result()));
+    assertThat(cached.get()).isSameAs(result.get());
+    assertThat(blocking.retrieved.get()).isEqualTo(1);
+
+    vertx.runOnContext(v -> nonBlocking.<Service>get(ar -> cached.set(ar.result())));
+    await().until(() -> cached.get() != result.get());
+    assertThat(nonBlocking.thread).contains("eventloop");
+
+    // Failures are reported to the handler
+    CountingReference failing = new CountingReference(vertx, discovery, true) {
+      @Override
+      protected Service retrieve() {
+        throw new IllegalStateException("boom");
+      }
+    };
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    failing.<Service>get(ar -> failure.set(ar.cause()));
+    await().until(() -> failure.get() != null);
+    assertThat(failure.get()).hasMessage("boom");
+  }
+
+  private static class Service {
+    private boolean initialized;
+    private boolean closed;
+  }
+
+  private static class CountingReference extends AbstractServiceReference<Service> {
+    private final AtomicInteger retrieved = new AtomicInteger();
+    private final AtomicInteger closed = new AtomicInteger();
+    private final boolean blocking;
+    private volatile String thread;
+
+    CountingReference(Vertx vertx, ServiceDiscovery discovery) {
+      this(vertx, discovery, false);
+    }
+
+    CountingReference(Vertx vertx, ServiceDiscovery discovery, boolean blocking) {
+      super(vertx, discovery, new Record().setName("counting"));
+      this.blocking = blocking;
+    }
+
+    @Override
+    protected boolean isRetrievalBlocking() {
+      return blocking;
+    }
+
+    @Override
+    protected Service retrieve() {
+      thread = Thread.currentThread().getName();
+      retrieved.incrementAndGet();
+      Service service = new Service();
+      service.initialized = true;
+      return service;
+    }
+
+    @Override
+    protected void close() {
+      if (service.closed) {
+        throw new IllegalStateException("Already closed");
+      }
+      service.closed = true;
+      closed.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.types;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceSelector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks the behavior of {@link Hedging}.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class HedgingTest {
+
+  private Vertx vertx;
+  private List<Record> records;
+  private List<Record> cancelled;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    records = Arrays.asList(HttpEndpoint.createRecord("slow", "localhost", 8081, "/"),
+        HttpEndpoint.createRecord("fast", "localhost", 8082, "/"));
+    cancelled = new CopyOnWriteArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close((v) -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  /**
+   * Replies with the record name, after 500 ms for the "slow" record, immediately otherwise.
+   */
+  private Runnable reply(Record record, Handler<AsyncResult<String>> handler) {
+    long delay = record.getName().equals("slow") ? 500 : 1;
+    long timer = vertx.setTimer(delay, l -> handler.handle(Future.succeededFuture(record.getName())));
+    return () -> {
+      cancelled.add(record);
+      vertx.cancelTimer(timer);
+    };
+  }
+
+  private String execute(Hedging hedging, ServiceSelector selector, Hedging.Attempt<String> attempt) {
+    AtomicReference<AsyncResult<String>> result = new AtomicReference<>();
+    hedging.execute(records, selector, null, attempt, result::set);
+    await().until(() -> result.get() != null);
+    return result.get().succeeded() ? result.get().result() : result.get().cause().getMessage();
+  }
+
+  @Test
+  public void testBackupRequest() {
+    Hedging hedging = new Hedging(vertx).setMaxDelay(50);
+    // Round robin starts with the slow record
+    assertThat(execute(hedging, ServiceSelector.roundRobin(), this::reply)).isEqualTo("fast");
+    assertThat(hedging.hedges()).isEqualTo(1);
+    assertThat(hedging.wins()).isEqualTo(1);
+    assertThat(cancelled).containsExactly(records.get(0));
+  }
+
+  @Test
+  public void testNoBackupRequestWhenFast() throws InterruptedException {
+    Hedging hedging = new Hedging(vertx).setMaxDelay(200);
+    ServiceSelector selector = ServiceSelector.roundRobin();
+    selector.select(records);
+    // Now selects the fast record
+    assertThat(execute(hedging, selector, this::reply)).isEqualTo("fast");
+    Thread.sleep(300);
+    assertThat(hedging.hedges()).isEqualTo(0);
+    assertThat(cancelled).isEmpty();
+  }
+
+  @Test
+  public void testDelayFromPercentile() {
+    Hedging hedging = new Hedging(vertx).setMaxDelay(500).setMinDelay(5).setPercentile(50);
+    assertThat(hedging.delay()).isEqualTo(500);
+    ServiceSelector selector = ServiceSelector.roundRobin();
+    // Only the fast record replies quickly, its latency is measured
+    for (int i = 0; i < 30; i++) {
+      selector.select(records);
+      execute(hedging, selector, this::reply);
+    }
+    assertThat(hedging.delay()).isBetween(5L, 100L);
+  }
+
+  @Test
+  public void testBudget() {
+    Hedging hedging = new Hedging(vertx).setMaxDelay(10).setBudget(0);
+    AtomicInteger calls = new AtomicInteger();
+    for (int i = 0; i < 12; i++) {
+      execute(hedging, ServiceSelector.roundRobin(), (record, handler) -> {
+        calls.incrementAndGet();
+        return reply(record, handler);
+      });
+    }
+    // The initial burst allows 10 backup requests
+    assertThat(hedging.hedges()).isEqualTo(10);
+    assertThat(calls.get()).isEqualTo(22);
+  }
+
+  @Test
+  public void testFailures() {
+    Hedging hedging = new Hedging(vertx).setMaxDelay(10);
+    // The first failure does not complete the request while the backup request is in flight
+    assertThat(execute(hedging, ServiceSelector.roundRobin(), (record, handler) -> {
+      long delay = record.getName().equals("slow") ? 50 : 100;
+      vertx.setTimer(delay, l -> handler.handle(record.getName().equals("slow") ?
+          Future.failedFuture("boom") : Future.succeededFuture("ok")));
+      return null;
+    })).isEqualTo("ok");
+
+    // Fails when all the requests have failed
+    assertThat(execute(hedging, ServiceSelector.roundRobin(), (record, handler) -> {
+      vertx.setTimer(50, l -> handler.handle(Future.failedFuture("boom-" + record.getName())));
+      return null;
+    })).startsWith("boom-");
+
+    // Fails without record
+    AtomicReference<AsyncResult<String>> result = new AtomicReference<>();
+    hedging.execute(Arrays.asList(), ServiceSelector.roundRobin(), null, this::reply, result::set);
+    assertThat(result.get().failed()).isTrue();
+  }
+}
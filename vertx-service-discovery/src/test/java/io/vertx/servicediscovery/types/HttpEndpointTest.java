@@ -146,4 +146,70 @@ public class HttpEndpointTest {
     await().until(() -> resp.get() != null);
     assertThat(resp.get().getString("url")).isEqualTo("https://httpbin.org/get");
   }
+
+  @Test
+  public void testMemoizedClient() {
+    Record record = HttpEndpoint.createRecord("hello-service", "localhost", 8080, "/foo");
+    discovery.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+
+    MemoizedLookup<HttpClient> lookup = HttpEndpoint.memoizeClient(discovery,
+        new JsonObject().put("name", "hello-service"));
+
+    AtomicReference<HttpClient> client1 = new AtomicReference<>();
+    lookup.get(ar -> client1.set(ar.result()));
+    await().until(() -> client1.get() != null);
+    AtomicReference<HttpClient> client2 = new AtomicReference<>();
+    lookup.get(ar -> client2.set(ar.result()));
+    await().until(() -> client2.get() != null);
+    assertThat(client2.get()).isSameAs(client1.get());
+    assertThat(discovery.bindings()).hasSize(1);
+
+    // Update the record, the reference is released
+    ServiceReference reference = lookup.reference();
+    discovery.update(new Record(record).setMetadata(new JsonObject().put("version", 2)), ar -> { });
+    await().until(() -> lookup.reference() == null);
+    assertThat(discovery.bindings()).isEmpty();
+
+    AtomicReference<HttpClient> client3 = new AtomicReference<>();
+    lookup.get(ar -> client3.set(ar.result()));
+    await().until(() -> client3.get() != null);
+    assertThat(client3.get()).isNotSameAs(client1.get());
+    assertThat(lookup.reference()).isNotSameAs(reference);
+    assertThat(lookup.reference().record().getMetadata().getInteger("version")).isEqualTo(2);
+
+    // Un-publish the record, the reference is released
+    discovery.unpublish(record.getRegistration(), ar -> { });
+    await().until(() -> lookup.reference() == null);
+    assertThat(discovery.bindings()).isEmpty();
+
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    lookup.get(ar -> failure.set(ar.cause()));
+    await().until(() -> failure.get() != null);
+
+    lookup.close();
+  }
+
+  @Test
+  public void testClosingMemoizedClient() {
+    Record record = HttpEndpoint.createRecord("hello-service", "localhost", 8080, "/foo");
+    discovery.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+
+    MemoizedLookup<HttpClient> lookup = HttpEndpoint.memoizeClient(discovery,
+        new JsonObject().put("name", "hello-service"));
+    AtomicReference<HttpClient> client = new AtomicReference<>();
+    lookup.get(ar -> client.set(ar.result()));
+    await().until(() -> client.get() != null);
+    assertThat(discovery.bindings()).hasSize(1);
+
+    lookup.close();
+    assertThat(discovery.bindings()).isEmpty();
+
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    lookup.get(ar -> failure.set(ar.cause()));
+    await().until(() -> failure.get() != null);
+    assertThat(failure.get()).isInstanceOf(IllegalStateException.class);
+  }
+
 }
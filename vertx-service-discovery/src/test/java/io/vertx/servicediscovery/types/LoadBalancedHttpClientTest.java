@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+
+package io.vertx.servicediscovery.types;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.ServiceDiscovery;
+import io.vertx.servicediscovery.ServiceDiscoveryOptions;
+import io.vertx.servicediscovery.ServiceSelector;
+import io.vertx.servicediscovery.impl.DiscoveryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.hamcrest.core.Is.is;
+
+/**
+ * Checks the behavior of the {@link LoadBalancedHttpClient}.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class LoadBalancedHttpClientTest {
+
+  private Vertx vertx;
+  private ServiceDiscovery discovery;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+    discovery = new DiscoveryImpl(vertx, new ServiceDiscoveryOptions());
+    startServer(8081);
+    startServer(8082);
+  }
+
+  @After
+  public void tearDown() {
+    discovery.close();
+    AtomicBoolean completed = new AtomicBoolean();
+    vertx.close((v) -> completed.set(true));
+    await().untilAtomic(completed, is(true));
+  }
+
+  private void startServer(int port) {
+    AtomicBoolean done = new AtomicBoolean();
+    vertx.createHttpServer()
+        .requestHandler(request -> request.response().end(Integer.toString(port)))
+        .listen(port, ar -> done.set(ar.succeeded()));
+    await().untilAtomic(done, is(true));
+  }
+
+  private Record publish(int port, JsonObject metadata) {
+    Record record = HttpEndpoint.createRecord("hello", "localhost", port, "/", metadata);
+    discovery.publish(record, ar -> { });
+    await().until(() -> record.getRegistration() != null);
+    return record;
+  }
+
+  private LoadBalancedHttpClient client(ServiceSelector selector) {
+    AtomicReference<LoadBalancedHttpClient> client = new AtomicReference<>();
+    HttpEndpoint.getLoadBalancedClient(discovery, new JsonObject().put("name", "hello"), null, selector,
+        ar -> client.set(ar.result()));
+    await().until(() -> client.get() != null);
+    return client.get();
+  }
+
+  private Map<String, Integer> send(LoadBalancedHttpClient client, int count) {
+    Map<String, Integer> hits = new ConcurrentHashMap<>();
+    List<Throwable> failures = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < count; i++) {
+      client.request(HttpMethod.GET, "/", ar -> {
+        if (ar.failed()) {
+          failures.add(ar.cause());
+        } else {
+          ar.result().bodyHandler(body -> hits.merge(body.toString(), 1, Integer::sum));
+        }
+      });
+    }
+    await().until(() -> hits.values().stream().mapToInt(Integer::intValue).sum() + failures.size() == count);
+    assertThat(failures).isEmpty();
+    return hits;
+  }
+
+  @Test
+  public void testRoundRobin() {
+    publish(8081, null);
+    publish(8082, null);
+    LoadBalancedHttpClient client = client(ServiceSelector.roundRobin());
+    assertThat(client.endpoints()).hasSize(2);
+    assertThat(discovery.bindings()).hasSize(2);
+
+    Map<String, Integer> hits = send(client, 10);
+    assertThat(hits).containsEntry("8081", 5).containsEntry("8082", 5);
+
+    client.close();
+    assertThat(discovery.bindings()).isEmpty();
+  }
+
+  @Test
+  public void testPowerOfTwoChoices() {
+    publish(8081, null);
+    publish(8082, null);
+    LoadBalancedHttpClient client = client(ServiceSelector.powerOfTwoChoices());
+
+    Map<String, Integer> hits = send(client, 20);
+    assertThat(hits).containsKeys("8081", "8082");
+    client.close();
+  }
+
+  @Test
+  public void testWeighted() {
+    publish(8081, new JsonObject().put("weight", 0));
+    publish(8082, new JsonObject().put("weight", 5));
+    LoadBalancedHttpClient client = client(ServiceSelector.weighted());
+
+    Map<String, Integer> hits = send(client, 20);
+    assertThat(hits).containsOnlyKeys("8082");
+    client.close();
+  }
+
+  @Test
+  public void testEndpointsTrackedFromAnnouncements() {
+    Record first = publish(8081, null);
+    LoadBalancedHttpClient client = client(ServiceSelector.roundRobin());
+    assertThat(client.endpoints()).hasSize(1);
+
+    publish(8082, null);
+    await().until(() -> client.endpoints().size() == 2);
+    // Records of another type or name are ignored
+    discovery.publish(HttpEndpoint.createRecord("another", "localhost", 8083, "/"), ar -> { });
+    assertThat(send(client, 4)).containsEntry("8081", 2).containsEntry("8082", 2);
+
+    discovery.unpublish(first.getRegistration(), ar -> { });
+    await().until(() -> client.endpoints().size() == 1);
+    assertThat(send(client, 4)).containsOnlyKeys("8082");
+    assertThat(discovery.bindings()).hasSize(1);
+
+    client.close();
+  }
+
+  @Test
+  public void testFailover() {
+    publish(8081, null);
+    // Nothing listens on this port
+    publish(8089, null);
+    LoadBalancedHttpClient client = client(ServiceSelector.roundRobin());
+    assertThat(client.endpoints()).hasSize(2);
+
+    assertThat(send(client, 10)).containsOnly(entry("8081", 10));
+    client.close();
+  }
+
+  @Test
+  public void testFailoverOnClosedConnections() {
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicInteger received = new AtomicInteger();
+    // This server accepts the connections, but closes them without responding
+    vertx.createHttpServer()
+        .requestHandler(request -> {
+          received.incrementAndGet();
+          request.connection().close();
+        })
+        .listen(8084, ar -> done.set(ar.succeeded()));
+    await().untilAtomic(done, is(true));
+    publish(8084, null);
+    LoadBalancedHttpClient client = client(ServiceSelector.roundRobin());
+
+    // Non-idempotent requests are not retried once the endpoint has received them
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    client.request(HttpMethod.POST, "/", null, null, ar -> failure.set(ar.cause()));
+    await().until(() -> failure.get() != null);
+    assertThat(LoadBalancedHttpClient.isConnectionFailure(failure.get())).isTrue();
+    assertThat(received.get()).isEqualTo(1);
+
+    // The endpoint has been ejected, the GET requests are sent to the other one
+    publish(8081, null);
+    await().until(() -> client.endpoints().size() == 2);
+    assertThat(send(client, 10)).containsOnly(entry("8081", 10));
+    assertThat(received.get()).isEqualTo(1);
+    client.close();
+  }
+
+  @Test
+  public void testNoMatchingEndpoints() {
+    LoadBalancedHttpClient client = client(ServiceSelector.roundRobin());
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    client.request(HttpMethod.GET, "/", ar -> failure.set(ar.cause()));
+    await().until(() -> failure.get() != null);
+    client.close();
+  }
+
+  @Test
+  public void testHotWeights() {
+    Record first = publish(8081, new JsonObject().put("weight", 0));
+    Record second = publish(8082, new JsonObject().put("weight", 5));
+    LoadBalancedHttpClient client = client(ServiceSelector.weighted());
+    assertThat(send(client, 10)).containsOnlyKeys("8082");
+
+    discovery.updateHotMetadata(first.getRegistration(), new JsonObject().put("weight", 5), ar -> { });
+    discovery.updateHotMetadata(second.getRegistration(), new JsonObject().put("weight", 0), ar -> { });
+    await().until(() -> client.endpoints().stream()
+        .allMatch(endpoint -> endpoint.record().getMetadata().getInteger("weight")
+            == (endpoint.record().getRegistration().equals(first.getRegistration()) ? 5 : 0)));
+    assertThat(send(client, 10)).containsOnlyKeys("8081");
+    // The clients are kept
+    assertThat(discovery.bindings()).hasSize(2);
+    client.close();
+  }
+
+  @Test
+  public void testHedgedRequest() {
+    AtomicBoolean started = new AtomicBoolean();
+    vertx.createHttpServer()
+        .requestHandler(request -> vertx.setTimer(2000, l -> request.response().end("8083")))
+        .listen(8083, ar -> started.set(ar.succeeded()));
+    await().untilAtomic(started, is(true));
+    publish(8081, null);
+    publish(8083, null);
+    LoadBalancedHttpClient client = client(ServiceSelector.roundRobin());
+    Hedging hedging = new Hedging(vertx).setMaxDelay(50);
+
+    Map<String, Integer> hits = new ConcurrentHashMap<>();
+    for (int i = 0; i < 4; i++) {
+      client.hedgedRequest(HttpMethod.GET, "/", null, null, hedging,
+          ar -> ar.result().bodyHandler(body -> hits.merge(body.toString(), 1, Integer::sum)));
+    }
+    // The requests sent to the slow endpoint are hedged to the other one
+    await().atMost(1, TimeUnit.SECONDS).until(() -> hits.getOrDefault("8081", 0) == 4);
+    // The first requests to the fast endpoint may also be hedged, while connecting
+    assertThat(hedging.hedges()).isGreaterThanOrEqualTo(2);
+    assertThat(hedging.wins()).isEqualTo(2);
+    client.close();
+  }
+}
@@ -16,12 +16,14 @@
 
 package io.vertx.servicediscovery.types;
 
+import io.vertx.core.Future;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.servicediscovery.Record;
 import io.vertx.servicediscovery.ServiceDiscovery;
 import io.vertx.servicediscovery.ServiceDiscoveryOptions;
 import io.vertx.servicediscovery.ServiceReference;
+import io.vertx.servicediscovery.ServiceSelector;
 import io.vertx.servicediscovery.impl.DiscoveryImpl;
 import io.vertx.servicediscovery.service.HelloService;
 import io.vertx.servicediscovery.service.HelloServiceImpl;
@@ -31,6 +33,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -205,4 +210,59 @@ public class ServiceProxiesTest {
     service.release();
   }
 
+  @Test
+  public void testProxiesAreNotShared() {
+    HelloService svc = new HelloServiceImpl("stuff");
+    ProxyHelper.registerService(HelloService.class, vertx, svc, "address");
+    Record record = EventBusService.createRecord("Hello", "address", HelloService.class);
+
+    discovery.publish(record, (r) -> {
+    });
+    await().until(() -> record.getRegistration() != null);
+
+    ServiceReference ref1 = discovery.getReference(record);
+    ServiceReference ref2 = discovery.getReference(record);
+
+    HelloService hello1 = ref1.get();
+    HelloService hello2 = ref2.get();
+    assertThat(hello1).isNotSameAs(hello2);
+
+    // The other proxy is still usable once a reference has been released
+    ref1.release();
+    AtomicReference<String> result = new AtomicReference<>();
+    hello2.hello(name, ar -> result.set(ar.result()));
+    await().untilAtomic(result, not(nullValue()));
+
+    ref2.release();
+    assertThat(discovery.bindings()).isEmpty();
+  }
+
+  @Test
+  public void testHedging() {
+    ProxyHelper.registerService(HelloService.class, vertx, new HelloServiceImpl("fast"), "fast-address");
+    ProxyHelper.registerService(HelloService.class, vertx, (name, handler) ->
+        vertx.setTimer(2000, l -> handler.handle(Future.succeededFuture("slow"))), "slow-address");
+    Record slow = EventBusService.createRecord("Hello", "slow-address", HelloService.class);
+    Record fast = EventBusService.createRecord("Hello", "fast-address", HelloService.class);
+    discovery.publish(slow, (r) -> {
+    });
+    discovery.publish(fast, (r) -> {
+    });
+    await().until(() -> slow.getRegistration() != null && fast.getRegistration() != null);
+
+    Hedging hedging = new Hedging(vertx).setMaxDelay(100);
+    ServiceSelector selector = ServiceSelector.roundRobin();
+    List<String> results = new CopyOnWriteArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      EventBusService.<HelloService, String>hedge(discovery, new JsonObject().put("name", "Hello"), selector, hedging,
+          (hello, handler) -> hello.hello(name, handler), ar -> results.add(ar.result()));
+    }
+    // The call sent to the slow service is hedged
+    await().atMost(1, TimeUnit.SECONDS).until(() -> results.size() == 2);
+    assertThat(results).containsExactly("fast vert.x", "fast vert.x");
+    assertThat(hedging.wins()).isEqualTo(1);
+    // The references are released once the calls complete, including the ignored one
+    await().until(() -> discovery.bindings().isEmpty());
+  }
+
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011-2016 The original author or authors
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Apache License v2.0 which accompanies this distribution.
+ *
+ *      The Eclipse Public License is available at
+ *      http://www.eclipse.org/legal/epl-v10.html
+ *
+ *      The Apache License v2.0 is available at
+ *      http://www.opensource.org/licenses/apache2.0.php
+ *
+ * You may elect to redistribute this code under either of these licenses.
+ */
+
+package io.vertx.servicediscovery.utils;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.servicediscovery.Record;
+import io.vertx.servicediscovery.Status;
+import io.vertx.servicediscovery.types.HttpEndpoint;
+import org.junit.Test;
+
+import java.util.Comparator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks the computation and application of the record deltas.
+ *
+ * @author <a href="http://escoffier.me">Clement Escoffier</a>
+ */
+public class RecordDeltasTest {
+
+  @Test
+  public void testDiffAndApply() {
+    Record record = HttpEndpoint.createRecord("my-service", "localhost", 8080, "/",
+        new JsonObject().put("load", 0.2).put("version", "1.0").put("stale", true));
+    record.setRegistration("reg").setStatus(Status.UP);
+    Record updated = new Record(record).setStatus(Status.OUT_OF_SERVICE)
+        .setMetadata(record.getMetadata().copy().put("load", 0.8).put("zone", "a"));
+    updated.getMetadata().remove("stale");
+
+    JsonObject changes = RecordDeltas.diff(record.toJson(), updated.toJson());
+    assertThat(changes.fieldNames()).containsOnly("status", "metadata");
+    assertThat(changes.getString("status")).isEqualTo("OUT_OF_SERVICE");
+    JsonObject metadata = changes.getJsonObject("metadata");
+    assertThat(metadata.fieldNames()).containsOnly("load", "zone", "stale");
+    assertThat(metadata.getValue("stale")).isNull();
+
+    Record applied = new Record(RecordDeltas.apply(record.toJson(), changes));
+    assertThat(applied.toJson()).isEqualTo(updated.toJson());
+    // The original is not modified
+    assertThat(record.getMetadata().getBoolean("stale")).isTrue();
+  }
+
+  @Test
+  public void testNoChanges() {
+    Record record = HttpEndpoint.createRecord("my-service", "localhost", 8080, "/");
+    assertThat(RecordDeltas.diff(record.toJson(), new Record(record).toJson()).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testLocationChange() {
+    Record record = HttpEndpoint.createRecord("my-service", "localhost", 8080, "/");
+    Record moved = HttpEndpoint.createRecord("my-service", "localhost", 8081, "/");
+    JsonObject changes = RecordDeltas.diff(record.toJson(), moved.toJson());
+    assertThat(changes.fieldNames()).containsOnly("location");
+    assertThat(new Record(RecordDeltas.apply(record.toJson(), changes)).getLocation())
+        .isEqualTo(moved.getLocation());
+  }
+
+  @Test
+  public void testDelta() {
+    JsonObject delta = RecordDeltas.create("reg", 3, new JsonObject().put("status", "DOWN"));
+    assertThat(RecordDeltas.isDelta(delta)).isTrue();
+    assertThat(RecordDeltas.revision(delta)).isEqualTo(3);
+    assertThat(RecordDeltas.isDelta(new Record().setName("my-service").toJson())).isFalse();
+    assertThat(RecordDeltas.revision(new Record().toJson())).isEqualTo(0);
+  }
+
+  @Test
+  public void testDigests() {
+    Record record = HttpEndpoint.createRecord("my-service", "localhost", 8080, "/", new JsonObject().put("load", 0.2));
+    Record updated = new Record(record).setMetadata(new JsonObject().put("load", 0.5));
+    Record concurrent = new Record(record).setStatus(Status.OUT_OF_SERVICE);
+
+    JsonObject delta = RecordDeltas.create("reg", 1, record.toJson(), updated.toJson());
+    assertThat(RecordDeltas.appliesTo(delta, record.toJson())).isTrue();
+    assertThat(RecordDeltas.isAppliedTo(delta, updated.toJson())).isTrue();
+    // Computed from another state
+    assertThat(RecordDeltas.appliesTo(delta, concurrent.toJson())).isFalse();
+    assertThat(RecordDeltas.isAppliedTo(delta, concurrent.toJson())).isFalse();
+
+    // Independent of the order of the fields, the registration and the revision
+    JsonObject json = record.toJson();
+    JsonObject reordered = new JsonObject();
+    json.fieldNames().stream().sorted(Comparator.reverseOrder())
+        .forEach(field -> reordered.put(field, json.getValue(field)));
+    reordered.put("registration", "reg").put("revision", 3);
+    assertThat(RecordDeltas.digest(reordered)).isEqualTo(RecordDeltas.digest(json));
+  }
+}